@@ -1,14 +1,21 @@
 package ru.mail.polis;
 
 import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
 
-public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E> {
+public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E>, OrderedTree<E> {
 
 
+  private static final int PATH_CAPACITY = 32;
+
   private final Comparator<E> comparator;
 
   class Node {
@@ -16,6 +23,7 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
     Node left;
     Node right;
     int height = 1;
+    int size = 1; // number of nodes in the subtree
 
     public Node(E value) {
       this.value = value;
@@ -25,6 +33,10 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
 
   private Node root;
   private int size;
+  private int modCount;
+  // reusable search path of add/remove: path[i] is the node at depth i, wentLeft[i] - the direction taken from it
+  private Node[] path = newPath(PATH_CAPACITY);
+  private boolean[] wentLeft = new boolean[PATH_CAPACITY];
 
   public AVLTree() {
     this(null);
@@ -35,36 +47,290 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
   }
 
   /**
-   * Вставляет элемент в дерево.
-   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   * Строит сбалансированное дерево из элементов, упорядоченных строго по возрастанию, за O(n)
    *
-   * @param value элемент который необходимо вставить
-   * @return true, если элемент в дереве отсутствовал
+   * @param sorted     элементы в порядке comparator без повторов
+   * @param comparator порядок элементов, null - естественный порядок
+   * @throws IllegalArgumentException если элементы не упорядочены строго по возрастанию
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Comparable<E>> AVLTree<E> fromSorted(Collection<? extends E> sorted, Comparator<E> comparator) {
+    AVLTree<E> tree = new AVLTree<>(comparator);
+    Object[] values = sorted.toArray();
+    for (int i = 1; i < values.length; i++) {
+      if (tree.compare((E) values[i - 1], (E) values[i]) >= 0) {
+        throw new IllegalArgumentException("Elements must be sorted and distinct, index = " + i);
+      }
+    }
+    tree.rebuild(values);
+    return tree;
+  }
+
+  /**
+   * Строит сбалансированное дерево с тем же порядком, что и у sortedSet, за O(n)
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Comparable<E>> AVLTree<E> fromSorted(SortedSet<E> sortedSet) {
+    AVLTree<E> tree = new AVLTree<>((Comparator<E>) sortedSet.comparator());
+    tree.rebuild(sortedSet.toArray());
+    return tree;
+  }
+
+  /**
+   * Если collection - SortedSet с тем же порядком и не меньше дерева,
+   * то элементы сливаются с деревом за O(n + m) и дерево строится заново,
+   * иначе элементы вставляются по одному
    */
   @Override
-  public boolean add(E value) {
+  @SuppressWarnings("unchecked")
+  public boolean addAll(Collection<? extends E> collection) {
+    if (isCompatibleTree(collection)) {
+      return union((AVLTree<E>) collection);
+    }
+    if (!SplitJoin.isMergeable(this, collection)) {
+      return super.addAll(collection);
+    }
     int oldSize = size;
-    root = insert(value, root);
+    Object[] values = collection.toArray();
+    rebuild(size == 0 ? values : SplitJoin.merge(this, values));
+    return oldSize != size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean retainAll(Collection<?> collection) {
+    if (isCompatibleTree(collection)) {
+      return intersection((AVLTree<E>) collection);
+    }
+    return super.retainAll(collection);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean removeAll(Collection<?> collection) {
+    if (isCompatibleTree(collection)) {
+      return difference((AVLTree<E>) collection);
+    }
+    return super.removeAll(collection);
+  }
+
+  private boolean isCompatibleTree(Collection<?> collection) {
+    return collection instanceof AVLTree && Objects.equals(comparator, ((AVLTree<?>) collection).comparator);
+  }
+
+  /**
+   * Добавляет в дерево все элементы other.
+   * Работает через split/join за O(m log(n/m + 1)), где m - размер меньшего дерева,
+   * независимые поддеревья обрабатываются параллельно в {@link ForkJoinPool#commonPool()}.
+   * Дерево other не изменяется, но копируется за O(size of other).
+   *
+   * @return true, если дерево изменилось
+   * @throws IllegalArgumentException если у деревьев разный порядок элементов
+   */
+  public boolean union(AVLTree<E> other) {
+    return applySetOperation(SetOperation.UNION, other);
+  }
+
+  /**
+   * Оставляет в дереве только элементы, содержащиеся в other
+   *
+   * @see #union(AVLTree)
+   */
+  public boolean intersection(AVLTree<E> other) {
+    return applySetOperation(SetOperation.INTERSECTION, other);
+  }
+
+  /**
+   * Удаляет из дерева все элементы, содержащиеся в other
+   *
+   * @see #union(AVLTree)
+   */
+  public boolean difference(AVLTree<E> other) {
+    return applySetOperation(SetOperation.DIFFERENCE, other);
+  }
+
+  private boolean applySetOperation(SetOperation operation, AVLTree<E> other) {
+    if (!Objects.equals(comparator, other.comparator)) {
+      throw new IllegalArgumentException("Trees must have the same comparator");
+    }
+    int oldSize = size;
+    // split and join relink nodes, so work on a private copy of the other tree
+    Node otherRoot = copyOf(other.root);
+    root = new SetOperations().apply(operation, root, otherRoot);
+    size = getSize(root);
     if (oldSize == size) {
       return false;
     }
+    modCount++;
     return true;
   }
 
-  private Node insert(E value, Node root) {
+  private Node copyOf(Node node) {
+    if (node == null) {
+      return null;
+    }
+    Node copy = new Node(node.value);
+    copy.height = node.height;
+    copy.size = node.size;
+    copy.left = copyOf(node.left);
+    copy.right = copyOf(node.right);
+    return copy;
+  }
+
+  /**
+   * Разрезает дерево на элементы меньшие value, равный value узел и элементы большие value
+   */
+  private SplitJoin.Split<Node> split(Node node, E value) {
+    if (node == null) {
+      return new SplitJoin.Split<>();
+    }
+    int cmp = compare(value, node.value);
+    SplitJoin.Split<Node> split;
+    if (cmp == 0) {
+      split = new SplitJoin.Split<>();
+      split.left = node.left;
+      split.found = node;
+      split.right = node.right;
+    } else if (cmp < 0) {
+      split = split(node.left, value);
+      split.right = join(split.right, node, node.right);
+    } else {
+      split = split(node.right, value);
+      split.left = join(node.left, node, split.left);
+    }
+    return split;
+  }
+
+  /**
+   * Склеивает два дерева через разделяющий узел middle (все элементы left меньше middle, а right - больше).
+   * Спускается по более высокому дереву до поддерева нужной высоты, поэтому работает за O(|h(left) - h(right)| + 1)
+   */
+  private Node join(Node left, Node middle, Node right) {
+    int leftHeight = getHeight(left);
+    int rightHeight = getHeight(right);
+    if (leftHeight > rightHeight + 1) {
+      left.right = join(left.right, middle, right);
+      return balanceNode(left);
+    }
+    if (rightHeight > leftHeight + 1) {
+      right.left = join(left, middle, right.left);
+      return balanceNode(right);
+    }
+    middle.left = left;
+    middle.right = right;
+    fixHeightAndSize(middle);
+    return middle;
+  }
+
+  /**
+   * Склеивает два дерева без разделяющего элемента: им становится минимум right
+   */
+  private Node join(Node left, Node right) {
+    if (right == null) {
+      return left;
+    }
+    Node minNode = getMinNode(right);
+    return join(left, minNode, removeMinNode(right));
+  }
+
+  /**
+   * Узлы этого дерева для общих операций над множествами {@link SplitJoin}
+   */
+  private class SetOperations extends SplitJoin<E, Node> {
+    @Override
+    Node left(Node node) {
+      return node.left;
+    }
+
+    @Override
+    Node right(Node node) {
+      return node.right;
+    }
+
+    @Override
+    E value(Node node) {
+      return node.value;
+    }
+
+    @Override
+    int size(Node node) {
+      return getSize(node);
+    }
+
+    @Override
+    Split<Node> split(Node node, E value) {
+      return AVLTree.this.split(node, value);
+    }
+
+    @Override
+    Node join(Node left, Node middle, Node right) {
+      return AVLTree.this.join(left, middle, right);
+    }
+
+    @Override
+    Node join(Node left, Node right) {
+      return AVLTree.this.join(left, right);
+    }
+  }
+
+  /**
+   * Заменяет содержимое дерева отсортированными различными элементами values
+   */
+  private void rebuild(Object[] values) {
+    root = build(values, 0, values.length);
+    size = values.length;
+    modCount++;
+  }
+
+  /**
+   * Берёт середину отрезка в корень, поэтому высоты поддеревьев отличаются не более чем на 1
+   */
+  @SuppressWarnings("unchecked")
+  private Node build(Object[] values, int from, int to) {
+    if (from >= to) {
+      return null;
+    }
+    int mid = (from + to) >>> 1;
+    Node node = new Node((E) values[mid]);
+    node.left = build(values, from, mid);
+    node.right = build(values, mid + 1, to);
+    fixHeightAndSize(node);
+    return node;
+  }
+
+  /**
+   * Вставляет элемент в дерево.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в дереве отсутствовал
+   */
+  @Override
+  public boolean add(E value) {
     if (root == null) {
-      size++;
-      Node newNode = new Node(value);
-      return newNode;
+      root = new Node(value);
+      size = 1;
+      modCount++;
+      return true;
     }
-    if (compare(value, root.value) == 0) {
-      return root;
+    ensurePathCapacity();
+    int depth = 0;
+    Node curr = root;
+    while (curr != null) {
+      int cmp = compare(value, curr.value);
+      if (cmp == 0) {
+        clearPath(depth);
+        return false;
+      }
+      path[depth] = curr;
+      wentLeft[depth++] = cmp < 0;
+      curr = cmp < 0 ? curr.left : curr.right;
     }
-    if (compare(value, root.value) < 0) {
-      root.left = insert(value, root.left);
-    } else
-      root.right = insert(value, root.right);
-    return balanceNode(root);
+    replaceChild(depth, new Node(value));
+    size++;
+    modCount++;
+    rebalancePath(depth, 1);
+    return true;
   }
 
   /**
@@ -78,38 +344,113 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
   public boolean remove(Object object) {
     @SuppressWarnings("unchecked")
     E value = (E) object;
-    int oldSize = size;
-    root = remove(root, value);
-    if (oldSize == size)
+    ensurePathCapacity();
+    int depth = 0;
+    Node target = root;
+    while (target != null) {
+      int cmp = compare(value, target.value);
+      if (cmp == 0) {
+        break;
+      }
+      path[depth] = target;
+      wentLeft[depth++] = cmp < 0;
+      target = cmp < 0 ? target.left : target.right;
+    }
+    if (target == null) {
+      clearPath(depth);
       return false;
-    return true; //TODO return false
+    }
+    if (target.right == null) {
+      replaceChild(depth, target.left);
+    } else {
+      // the minimum of the right subtree takes the place of the target
+      int targetDepth = depth;
+      path[depth] = target;
+      wentLeft[depth++] = false;
+      Node minNode = target.right;
+      while (minNode.left != null) {
+        path[depth] = minNode;
+        wentLeft[depth++] = true;
+        minNode = minNode.left;
+      }
+      replaceChild(depth, minNode.right);
+      minNode.left = target.left;
+      minNode.right = target.right;
+      minNode.height = target.height;
+      minNode.size = target.size;
+      replaceChild(targetDepth, minNode);
+      path[targetDepth] = minNode;
+    }
+    target.left = null;
+    target.right = null;
+    size--;
+    modCount++;
+    rebalancePath(depth, -1);
+    return true;
   }
 
-  private Node remove(Node node, E value) {
-    if (node == null) {
-      return null;
+  /**
+   * Поднимается по пути от depth - 1 до корня. Пока высота поддерева меняется, балансирует узлы,
+   * после этого выше ничего не поворачивается и остаётся только поправить размеры на sizeDelta
+   */
+  private void rebalancePath(int depth, int sizeDelta) {
+    boolean heightChanged = true;
+    for (int i = depth - 1; i >= 0; i--) {
+      Node node = path[i];
+      path[i] = null;
+      if (!heightChanged) {
+        node.size += sizeDelta;
+        continue;
+      }
+      int oldHeight = node.height;
+      Node balanced = balanceNode(node);
+      if (balanced != node) {
+        replaceChild(i, balanced);
+      }
+      heightChanged = balanced.height != oldHeight;
     }
-    if (compare(value, node.value) == 0) {
-      if (node.right == null)
-        return node.left;
-      Node minNode = getMinNode(node.right);
-      minNode.right = removeMinNode(node.right);
-      minNode.left = node.left;
-      size--;
-      return balanceNode(minNode);
-    }
-    if (compare(value, node.value) > 0) {
-      node.right = remove(node.right, value);
+  }
+
+  /**
+   * Подвешивает child на место узла с глубиной depth на текущем пути
+   */
+  private void replaceChild(int depth, Node child) {
+    if (depth == 0) {
+      root = child;
+    } else if (wentLeft[depth - 1]) {
+      path[depth - 1].left = child;
     } else {
-      node.left = remove(node.left, value);
+      path[depth - 1].right = child;
     }
-    return balanceNode(node);
+  }
+
+  /**
+   * Путь не длиннее высоты дерева, которая для АВЛ-дерева не превосходит 1.45 * log2(n + 2)
+   */
+  private void ensurePathCapacity() {
+    int height = getHeight(root);
+    if (path.length < height) {
+      path = newPath(2 * height);
+      wentLeft = new boolean[2 * height];
+    }
+  }
+
+  /**
+   * Массив узлов: Node - внутренний класс обобщённого типа, поэтому new Node[] не компилируется
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private Node[] newPath(int capacity) {
+    return (Node[]) new AVLTree.Node[capacity];
+  }
+
+  private void clearPath(int depth) {
+    Arrays.fill(path, 0, depth, null);
   }
 
   private Node removeMinNode(Node node) {
     if (node.left == null)
       return node.right;
-    node.left = removeMinNode(node);
+    node.left = removeMinNode(node.left);
     return balanceNode(node);
   }
 
@@ -133,13 +474,11 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
     E value = (E) object;
     Node curr = root;
     while (curr != null) {
-      if (compare(value, curr.value) == 0)
+      int cmp = compare(value, curr.value);
+      if (cmp == 0) {
         return true;
-      if (compare(value, curr.value) > 0) {
-        curr = curr.right;
-      } else {
-        curr = curr.left;
       }
+      curr = cmp < 0 ? curr.left : curr.right;
     }
     return false;
   }
@@ -211,29 +550,266 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
     traverseTree(node.right, stringBuilder);
   }
 
+  /**
+   * Живое представление элементов из диапазона [fromElement, toElement).
+   * Границы, first/last, contains и size представления работают за O(log n)
+   *
+   * @throws IllegalArgumentException если fromElement больше toElement
+   */
   @Override
   public SortedSet<E> subSet(E fromElement, E toElement) {
-    throw new UnsupportedOperationException("subSet");
+    return new SubSetView<>(this, fromElement, true, toElement, false);
   }
 
+  /**
+   * Живое представление элементов, меньших toElement
+   *
+   * @see #subSet(Comparable, Comparable)
+   */
   @Override
   public SortedSet<E> headSet(E toElement) {
-    throw new UnsupportedOperationException("headSet");
+    return new SubSetView<>(this, null, false, toElement, false);
   }
 
+  /**
+   * Живое представление элементов, не меньших fromElement
+   *
+   * @see #subSet(Comparable, Comparable)
+   */
   @Override
   public SortedSet<E> tailSet(E fromElement) {
-    throw new UnsupportedOperationException("tailSet");
+    return new SubSetView<>(this, fromElement, true, null, false);
+  }
+
+  @Override
+  public E lowest(E from, boolean inclusive) {
+    Node curr = root;
+    Node result = null;
+    while (curr != null) {
+      int cmp = from == null ? -1 : compare(from, curr.value);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = curr.left;
+      } else {
+        curr = curr.right;
+      }
+    }
+    return result == null ? null : result.value;
+  }
+
+  @Override
+  public E highest(E to, boolean inclusive) {
+    Node curr = root;
+    Node result = null;
+    while (curr != null) {
+      int cmp = to == null ? 1 : compare(to, curr.value);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = curr.right;
+      } else {
+        curr = curr.left;
+      }
+    }
+    return result == null ? null : result.value;
+  }
+
+  /**
+   * Порядковая статистика: количество элементов дерева, меньших value. Работает за O(log n)
+   *
+   * @param value элемент, не обязательно содержащийся в дереве
+   * @return количество элементов меньших value
+   */
+  public int rank(E value) {
+    return rank(value, false);
+  }
+
+  /**
+   * Ищет k-й по возрастанию элемент (нумерация с нуля). Работает за O(log n)
+   *
+   * @param index номер элемента
+   * @return элемент, для которого rank(элемент) == index
+   * @throws IndexOutOfBoundsException если index < 0 или index >= size()
+   */
+  public E select(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("index = " + index + ", size = " + size);
+    }
+    Node curr = root;
+    while (true) {
+      int leftSize = getSize(curr.left);
+      if (index < leftSize) {
+        curr = curr.left;
+      } else if (index > leftSize) {
+        index -= leftSize + 1;
+        curr = curr.right;
+      } else {
+        return curr.value;
+      }
+    }
+  }
+
+  /**
+   * Количество элементов из диапазона [fromElement, toElement). Работает за O(log n)
+   *
+   * @return 0, если fromElement не меньше toElement
+   */
+  public int countInRange(E fromElement, E toElement) {
+    return count(fromElement, true, toElement, false);
+  }
+
+  @Override
+  public int rank(E value, boolean inclusive) {
+    int rank = 0;
+    Node curr = root;
+    while (curr != null) {
+      int cmp = compare(value, curr.value);
+      if (cmp < 0) {
+        curr = curr.left;
+      } else if (cmp > 0) {
+        rank += getSize(curr.left) + 1;
+        curr = curr.right;
+      } else {
+        return rank + getSize(curr.left) + (inclusive ? 1 : 0);
+      }
+    }
+    return rank;
+  }
+
+  @Override
+  public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+    return new TreeIterator(true, from, fromInclusive, to, toInclusive);
   }
 
+  /**
+   * Итератор по возрастанию элементов. Не использует рекурсию,
+   * хранит путь от корня в переиспользуемом стеке высотой с дерево.
+   *
+   * @throws java.util.ConcurrentModificationException если дерево изменилось в обход итератора
+   */
   @Override
   public Iterator<E> iterator() {
-    throw new UnsupportedOperationException("iterator");
+    return new TreeIterator(true);
+  }
+
+  /**
+   * Итератор по убыванию элементов
+   *
+   * @see #iterator()
+   */
+  public Iterator<E> descendingIterator() {
+    return new TreeIterator(false);
+  }
+
+  private class TreeIterator implements Iterator<E> {
+    private final boolean ascending;
+    private final E end; // null - up to the last element in the iteration order
+    private final boolean endInclusive;
+    private Node[] stack;
+    private int depth;
+    private Node lastReturned;
+    private int expectedModCount = modCount;
+
+    TreeIterator(boolean ascending) {
+      this(ascending, null, false, null, false);
+    }
+
+    TreeIterator(boolean ascending, E start, boolean startInclusive, E end, boolean endInclusive) {
+      this.ascending = ascending;
+      this.end = end;
+      this.endInclusive = endInclusive;
+      this.stack = newPath(getHeight(root));
+      if (start == null) {
+        pushPath(root);
+      } else {
+        seek(start, startInclusive);
+      }
+    }
+
+    /**
+     * Кладёт в стек путь к первому в порядке обхода элементу после bound
+     */
+    private void seek(E bound, boolean inclusive) {
+      Node curr = root;
+      while (curr != null) {
+        int cmp = compare(bound, curr.value);
+        if (!ascending) {
+          cmp = -cmp;
+        }
+        if (cmp < 0 || (cmp == 0 && inclusive)) {
+          push(curr);
+          curr = ascending ? curr.left : curr.right;
+        } else {
+          curr = ascending ? curr.right : curr.left;
+        }
+      }
+    }
+
+    private void pushPath(Node node) {
+      while (node != null) {
+        push(node);
+        node = ascending ? node.left : node.right;
+      }
+    }
+
+    private void push(Node node) {
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, Math.max(depth << 1, 1));
+      }
+      stack[depth++] = node;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (depth == 0) {
+        return false;
+      }
+      if (end == null) {
+        return true;
+      }
+      int cmp = compare(stack[depth - 1].value, end);
+      if (!ascending) {
+        cmp = -cmp;
+      }
+      return cmp < 0 || (cmp == 0 && endInclusive);
+    }
+
+    @Override
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Node node = stack[--depth];
+      stack[depth] = null;
+      pushPath(ascending ? node.right : node.left);
+      lastReturned = node;
+      return node.value;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      E value = lastReturned.value;
+      lastReturned = null;
+      AVLTree.this.remove(value);
+      expectedModCount = modCount;
+      // rotations invalidate the saved path, rebuild it for the elements after the removed one
+      Arrays.fill(stack, 0, depth, null);
+      depth = 0;
+      seek(value, false);
+    }
   }
 
   /**
    * Обходит дерево и проверяет что высоты двух поддеревьев
-   * различны по высоте не более чем на 1
+   * различны по высоте не более чем на 1, а размер каждого поддерева посчитан верно
    *
    * @throws NotBalancedTreeException если высоты отличаются более чем на один
    */
@@ -246,8 +822,8 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
     Node newRoot = node.right;
     node.right = newRoot.left;
     newRoot.left = node;
-    fixHeight(node);
-    fixHeight(newRoot);
+    fixHeightAndSize(node);
+    fixHeightAndSize(newRoot);
     return newRoot;
   }
 
@@ -255,8 +831,8 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
     Node newRoot = node.left;
     node.left = newRoot.right;
     newRoot.right = node;
-    fixHeight(node);
-    fixHeight(newRoot);
+    fixHeightAndSize(node);
+    fixHeightAndSize(newRoot);
     return newRoot;
   }
 
@@ -271,7 +847,7 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
   }
 
   private Node balanceNode(Node node) {
-    fixHeight(node);
+    fixHeightAndSize(node);
     if (calcDiff(node) == 2) {
       if (calcDiff(node.right) < 0) {
         return makeBigLeftRotate(node);
@@ -293,8 +869,13 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
   }
 
 
-  private void fixHeight(Node node) {
+  private int getSize(Node node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private void fixHeightAndSize(Node node) {
     node.height = Math.max(getHeight(node.right), getHeight(node.left)) + 1;
+    node.size = getSize(node.left) + getSize(node.right) + 1;
   }
 
   private int calcDiff(Node node) {
@@ -312,6 +893,10 @@ public class AVLTree<E extends Comparable<E>> extends AbstractSet<E> implements
       throw NotBalancedTreeException.create("The heights of the two child subtrees of any node must be differ by at most one",
               leftHeight, rightHeight, curr.toString());
     }
+    if (curr.size != getSize(curr.left) + getSize(curr.right) + 1) {
+      throw new NotBalancedTreeException("Subtree size must be equal to the sum of children sizes plus one.\n"
+              + "size = " + curr.size + ", value = " + curr.value);
+    }
     return Math.max(leftHeight, rightHeight) + 1;
   }
 
@@ -0,0 +1,692 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * B-дерево минимальной степени t: каждый узел, кроме корня, хранит от t - 1 до 2t - 1 ключей
+ * в непрерывном массиве и ищет в нём бинарным поиском, все листья лежат на одной глубине.
+ * На один узел приходится до 2t ключей, поэтому поиск проходит log_t(n) узлов вместо log2(n) в АВЛ/красно-чёрном дереве.
+ * <p>
+ * Вставка расщепляет, а удаление сливает или пополняет полные/неполные узлы заранее, за один проход сверху вниз.
+ */
+public class BTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E>, OrderedTree<E> {
+
+  public static final int DEFAULT_MIN_DEGREE = 32;
+
+  private final Comparator<E> comparator;
+  private final int minDegree;
+  private final int maxKeys;
+  private Node root;
+  private int height = 1; // number of levels, leaves included
+  private int modCount;
+
+  private static final class Node {
+    final Object[] keys;
+    Node[] children; // null for leaves
+    int count; // number of keys in the node
+    int size; // number of keys in the subtree
+
+    Node(int maxKeys, boolean leaf) {
+      keys = new Object[maxKeys];
+      children = leaf ? null : new Node[maxKeys + 1];
+    }
+
+    boolean isLeaf() {
+      return children == null;
+    }
+
+    @Override
+    public String toString() {
+      return "Node{" +
+              "keys=" + Arrays.toString(Arrays.copyOf(keys, count)) +
+              ", size=" + size +
+              '}';
+    }
+  }
+
+  public BTree() {
+    this(null);
+  }
+
+  public BTree(Comparator<E> comparator) {
+    this(comparator, DEFAULT_MIN_DEGREE);
+  }
+
+  /**
+   * @param minDegree минимальная степень t, узел хранит не более 2t - 1 ключей
+   * @throws IllegalArgumentException если minDegree < 2
+   */
+  public BTree(Comparator<E> comparator, int minDegree) {
+    if (minDegree < 2) {
+      throw new IllegalArgumentException("minDegree must be at least 2");
+    }
+    this.comparator = comparator;
+    this.minDegree = minDegree;
+    this.maxKeys = 2 * minDegree - 1;
+    this.root = new Node(maxKeys, true);
+  }
+
+  /**
+   * Бинарный поиск среди ключей узла
+   *
+   * @return индекс найденного ключа, иначе (-(точка вставки) - 1)
+   */
+  @SuppressWarnings("unchecked")
+  private int search(Node node, E value) {
+    int low = 0;
+    int high = node.count - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compare((E) node.keys[mid], value);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Вставляет элемент в дерево.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в дереве отсутствовал
+   */
+  @Override
+  public boolean add(E value) {
+    if (root.count == maxKeys) {
+      Node newRoot = new Node(maxKeys, false);
+      newRoot.children[0] = root;
+      newRoot.size = root.size;
+      splitChild(newRoot, 0);
+      root = newRoot;
+      height++;
+    }
+    if (!insertNonFull(root, value)) {
+      return false;
+    }
+    modCount++;
+    return true;
+  }
+
+  private boolean insertNonFull(Node node, E value) {
+    int idx = search(node, value);
+    if (idx >= 0) {
+      return false;
+    }
+    idx = -idx - 1;
+    if (node.isLeaf()) {
+      System.arraycopy(node.keys, idx, node.keys, idx + 1, node.count - idx);
+      node.keys[idx] = value;
+      node.count++;
+      node.size++;
+      return true;
+    }
+    if (node.children[idx].count == maxKeys) {
+      splitChild(node, idx);
+      @SuppressWarnings("unchecked")
+      int cmp = compare(value, (E) node.keys[idx]);
+      if (cmp == 0) {
+        return false;
+      }
+      if (cmp > 0) {
+        idx++;
+      }
+    }
+    if (!insertNonFull(node.children[idx], value)) {
+      return false;
+    }
+    node.size++;
+    return true;
+  }
+
+  /**
+   * Делит полного сына idx пополам, поднимая средний ключ в node.
+   * Меняет расположение ключей по узлам, поэтому ломает итераторы, даже если вставка потом не состоится
+   */
+  private void splitChild(Node node, int idx) {
+    modCount++;
+    Node child = node.children[idx];
+    Node right = new Node(maxKeys, child.isLeaf());
+    int t = minDegree;
+    right.count = t - 1;
+    System.arraycopy(child.keys, t, right.keys, 0, t - 1);
+    if (!child.isLeaf()) {
+      System.arraycopy(child.children, t, right.children, 0, t);
+      Arrays.fill(child.children, t, child.children.length, null);
+    }
+    Object middle = child.keys[t - 1];
+    Arrays.fill(child.keys, t - 1, child.count, null);
+    child.count = t - 1;
+    right.size = subtreeSize(right);
+    child.size -= right.size + 1;
+
+    System.arraycopy(node.children, idx + 1, node.children, idx + 2, node.count - idx);
+    node.children[idx + 1] = right;
+    System.arraycopy(node.keys, idx, node.keys, idx + 1, node.count - idx);
+    node.keys[idx] = middle;
+    node.count++;
+  }
+
+  private int subtreeSize(Node node) {
+    int size = node.count;
+    if (!node.isLeaf()) {
+      for (int i = 0; i <= node.count; i++) {
+        size += node.children[i].size;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из дерева.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо удалить
+   * @return true, если элемент содержался в дереве
+   */
+  @Override
+  public boolean remove(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    boolean removed = remove(root, value);
+    if (root.count == 0 && !root.isLeaf()) {
+      root = root.children[0];
+      height--;
+      modCount++;
+    }
+    if (removed) {
+      modCount++;
+    }
+    return removed;
+  }
+
+  /**
+   * Удаляет value из поддерева node. Перед спуском в сына гарантирует, что в нём хотя бы t ключей,
+   * поэтому удаление из листа никогда не нарушает заполненность
+   */
+  @SuppressWarnings("unchecked")
+  private boolean remove(Node node, E value) {
+    int idx = search(node, value);
+    if (idx >= 0) {
+      if (node.isLeaf()) {
+        System.arraycopy(node.keys, idx + 1, node.keys, idx, node.count - idx - 1);
+        node.keys[--node.count] = null;
+        node.size--;
+        return true;
+      }
+      Node left = node.children[idx];
+      Node right = node.children[idx + 1];
+      if (left.count >= minDegree) {
+        E predecessor = (E) getMaxKey(left);
+        node.keys[idx] = predecessor;
+        remove(left, predecessor);
+      } else if (right.count >= minDegree) {
+        E successor = (E) getMinKey(right);
+        node.keys[idx] = successor;
+        remove(right, successor);
+      } else {
+        merge(node, idx);
+        remove(left, value);
+      }
+      node.size--;
+      return true;
+    }
+    if (node.isLeaf()) {
+      return false;
+    }
+    idx = -idx - 1;
+    if (node.children[idx].count < minDegree) {
+      idx = fill(node, idx);
+    }
+    if (!remove(node.children[idx], value)) {
+      return false;
+    }
+    node.size--;
+    return true;
+  }
+
+  /**
+   * Доводит сына idx до t ключей, заняв ключ у соседа или слив его с соседом
+   *
+   * @return индекс сына, в котором теперь лежит диапазон исходного сына
+   */
+  private int fill(Node node, int idx) {
+    // keys move between nodes even if the removal then finds nothing
+    modCount++;
+    if (idx > 0 && node.children[idx - 1].count >= minDegree) {
+      borrowFromLeft(node, idx);
+      return idx;
+    }
+    if (idx < node.count && node.children[idx + 1].count >= minDegree) {
+      borrowFromRight(node, idx);
+      return idx;
+    }
+    if (idx < node.count) {
+      merge(node, idx);
+      return idx;
+    }
+    merge(node, idx - 1);
+    return idx - 1;
+  }
+
+  private void borrowFromLeft(Node node, int idx) {
+    Node child = node.children[idx];
+    Node left = node.children[idx - 1];
+    System.arraycopy(child.keys, 0, child.keys, 1, child.count);
+    child.keys[0] = node.keys[idx - 1];
+    node.keys[idx - 1] = left.keys[left.count - 1];
+    left.keys[left.count - 1] = null;
+    int moved = 1;
+    if (!child.isLeaf()) {
+      System.arraycopy(child.children, 0, child.children, 1, child.count + 1);
+      child.children[0] = left.children[left.count];
+      left.children[left.count] = null;
+      moved += child.children[0].size;
+    }
+    child.count++;
+    left.count--;
+    child.size += moved;
+    left.size -= moved;
+  }
+
+  private void borrowFromRight(Node node, int idx) {
+    Node child = node.children[idx];
+    Node right = node.children[idx + 1];
+    child.keys[child.count] = node.keys[idx];
+    node.keys[idx] = right.keys[0];
+    System.arraycopy(right.keys, 1, right.keys, 0, right.count - 1);
+    right.keys[right.count - 1] = null;
+    int moved = 1;
+    if (!child.isLeaf()) {
+      child.children[child.count + 1] = right.children[0];
+      System.arraycopy(right.children, 1, right.children, 0, right.count);
+      right.children[right.count] = null;
+      moved += child.children[child.count + 1].size;
+    }
+    child.count++;
+    right.count--;
+    child.size += moved;
+    right.size -= moved;
+  }
+
+  /**
+   * Сливает сына idx, ключ idx и сына idx + 1 в один узел
+   */
+  private void merge(Node node, int idx) {
+    Node left = node.children[idx];
+    Node right = node.children[idx + 1];
+    left.keys[left.count] = node.keys[idx];
+    System.arraycopy(right.keys, 0, left.keys, left.count + 1, right.count);
+    if (!left.isLeaf()) {
+      System.arraycopy(right.children, 0, left.children, left.count + 1, right.count + 1);
+    }
+    left.count += right.count + 1;
+    left.size += right.size + 1;
+
+    System.arraycopy(node.keys, idx + 1, node.keys, idx, node.count - idx - 1);
+    System.arraycopy(node.children, idx + 2, node.children, idx + 1, node.count - idx - 1);
+    node.count--;
+    node.keys[node.count] = null;
+    node.children[node.count + 1] = null;
+  }
+
+  private Object getMinKey(Node node) {
+    while (!node.isLeaf()) {
+      node = node.children[0];
+    }
+    return node.keys[0];
+  }
+
+  private Object getMaxKey(Node node) {
+    while (!node.isLeaf()) {
+      node = node.children[node.count];
+    }
+    return node.keys[node.count - 1];
+  }
+
+  /**
+   * Ищет элемент с таким же значением в дереве.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо поискать
+   * @return true, если такой элемент содержится в дереве
+   */
+  @Override
+  public boolean contains(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    Node node = root;
+    while (true) {
+      int idx = search(node, value);
+      if (idx >= 0) {
+        return true;
+      }
+      if (node.isLeaf()) {
+        return false;
+      }
+      node = node.children[-idx - 1];
+    }
+  }
+
+  /**
+   * Ищет наименьший элемент в дереве
+   *
+   * @return Возвращает наименьший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E first() {
+    if (root.size == 0) {
+      throw new NoSuchElementException("first");
+    }
+    return (E) getMinKey(root);
+  }
+
+  /**
+   * Ищет наибольший элемент в дереве
+   *
+   * @return Возвращает наибольший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public E last() {
+    if (root.size == 0) {
+      throw new NoSuchElementException("last");
+    }
+    return (E) getMaxKey(root);
+  }
+
+  private int compare(E v1, E v2) {
+    return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+  }
+
+  @Override
+  public Comparator<? super E> comparator() {
+    return comparator;
+  }
+
+  @Override
+  public int size() {
+    return root.size;
+  }
+
+  @Override
+  public void clear() {
+    root = new Node(maxKeys, true);
+    height = 1;
+    modCount++;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("BTree{size=").append(size())
+            .append(", height=").append(height).append(", elements: ");
+    for (E value : this) {
+      sb.append(value).append(' ');
+    }
+    return sb.append('}').toString();
+  }
+
+  /**
+   * Живое представление элементов из диапазона [fromElement, toElement)
+   *
+   * @throws IllegalArgumentException если fromElement больше toElement
+   */
+  @Override
+  public SortedSet<E> subSet(E fromElement, E toElement) {
+    return new SubSetView<>(this, fromElement, true, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> headSet(E toElement) {
+    return new SubSetView<>(this, null, false, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> tailSet(E fromElement) {
+    return new SubSetView<>(this, fromElement, true, null, false);
+  }
+
+  /**
+   * Индекс первого ключа узла, большего bound (или равного ему, если inclusive)
+   */
+  private int upperIndex(Node node, E bound, boolean inclusive) {
+    if (bound == null) {
+      return 0;
+    }
+    int idx = search(node, bound);
+    if (idx >= 0) {
+      return inclusive ? idx : idx + 1;
+    }
+    return -idx - 1;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E lowest(E from, boolean inclusive) {
+    Object result = null;
+    Node node = root;
+    while (true) {
+      int idx = upperIndex(node, from, inclusive);
+      if (idx < node.count) {
+        result = node.keys[idx];
+      }
+      if (node.isLeaf()) {
+        return (E) result;
+      }
+      node = node.children[idx];
+    }
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public E highest(E to, boolean inclusive) {
+    Object result = null;
+    Node node = root;
+    while (true) {
+      int idx; // number of keys less than to (or equal, if inclusive)
+      if (to == null) {
+        idx = node.count;
+      } else {
+        idx = search(node, to);
+        idx = idx >= 0 ? (inclusive ? idx + 1 : idx) : -idx - 1;
+      }
+      if (idx > 0) {
+        result = node.keys[idx - 1];
+      }
+      if (node.isLeaf()) {
+        return (E) result;
+      }
+      node = node.children[idx];
+    }
+  }
+
+  @Override
+  public int rank(E value, boolean inclusive) {
+    int rank = 0;
+    Node node = root;
+    while (true) {
+      int idx = search(node, value);
+      int position = idx >= 0 ? idx : -idx - 1;
+      rank += position;
+      if (!node.isLeaf()) {
+        for (int i = 0; i < position; i++) {
+          rank += node.children[i].size;
+        }
+      }
+      if (idx >= 0) {
+        return rank + (node.isLeaf() ? 0 : node.children[idx].size) + (inclusive ? 1 : 0);
+      }
+      if (node.isLeaf()) {
+        return rank;
+      }
+      node = node.children[position];
+    }
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new TreeIterator(null, false, null, false);
+  }
+
+  @Override
+  public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+    return new TreeIterator(from, fromInclusive, to, toInclusive);
+  }
+
+  /**
+   * Стек пар (узел, индекс следующего ключа) глубиной в высоту дерева, переиспользуется весь обход
+   */
+  private class TreeIterator implements Iterator<E> {
+    private final E end; // null - up to the last element
+    private final boolean endInclusive;
+    private Node[] nodes = new Node[height];
+    private int[] indexes = new int[height];
+    private int depth;
+    private E lastReturned;
+    private int expectedModCount = modCount;
+
+    TreeIterator(E start, boolean startInclusive, E end, boolean endInclusive) {
+      this.end = end;
+      this.endInclusive = endInclusive;
+      seek(start, startInclusive);
+    }
+
+    private void seek(E bound, boolean inclusive) {
+      if (nodes.length < height) {
+        nodes = new Node[height];
+        indexes = new int[height];
+      }
+      depth = 0;
+      Node node = root;
+      while (true) {
+        int idx = upperIndex(node, bound, inclusive);
+        nodes[depth] = node;
+        indexes[depth++] = idx;
+        if (node.isLeaf()) {
+          break;
+        }
+        node = node.children[idx];
+      }
+      skipExhausted();
+    }
+
+    private void skipExhausted() {
+      while (depth > 0 && indexes[depth - 1] == nodes[depth - 1].count) {
+        nodes[--depth] = null;
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+      if (depth == 0) {
+        return false;
+      }
+      if (end == null) {
+        return true;
+      }
+      int cmp = compare((E) nodes[depth - 1].keys[indexes[depth - 1]], end);
+      return cmp < 0 || (cmp == 0 && endInclusive);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Node node = nodes[depth - 1];
+      int idx = indexes[depth - 1]++;
+      E value = (E) node.keys[idx];
+      if (!node.isLeaf()) {
+        for (Node child = node.children[idx + 1]; child != null; child = child.isLeaf() ? null : child.children[0]) {
+          nodes[depth] = child;
+          indexes[depth++] = 0;
+        }
+      }
+      skipExhausted();
+      lastReturned = value;
+      return value;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      BTree.this.remove(lastReturned);
+      expectedModCount = modCount;
+      // merges and borrows move keys between nodes, find the position again
+      seek(lastReturned, false);
+      lastReturned = null;
+    }
+  }
+
+  /**
+   * Обходит дерево и проверяет свойства B-дерева:
+   * <p>
+   * 1) Все листья находятся на одной глубине.
+   * 2) Каждый узел, кроме корня, содержит от t - 1 до 2t - 1 ключей, непустой корень - хотя бы один.
+   * 3) Ключи в узле упорядочены и разделяют диапазоны сыновей, размеры поддеревьев посчитаны верно.
+   *
+   * @throws NotBalancedTreeException если какое-либо свойство невыполнено
+   */
+  @Override
+  public void checkBalanced() throws NotBalancedTreeException {
+    if (root.count == 0 && !root.isLeaf()) {
+      throw new NotBalancedTreeException("Internal root must not be empty");
+    }
+    traverseTreeAndCheckBalanced(root, null, null, 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private void traverseTreeAndCheckBalanced(Node node, E low, E high, int depth) throws NotBalancedTreeException {
+    if (node != root && (node.count < minDegree - 1 || node.count > maxKeys)) {
+      throw new NotBalancedTreeException("Node must contain from " + (minDegree - 1) + " to " + maxKeys + " keys.\n"
+              + node.toString());
+    }
+    for (int i = 0; i < node.count; i++) {
+      E key = (E) node.keys[i];
+      if ((i == 0 && low != null && compare(low, key) >= 0)
+              || (i > 0 && compare((E) node.keys[i - 1], key) >= 0)
+              || (i == node.count - 1 && high != null && compare(key, high) >= 0)) {
+        throw new NotBalancedTreeException("Keys must be sorted and separate subtrees.\n" + node.toString());
+      }
+    }
+    if (node.size != subtreeSize(node)) {
+      throw new NotBalancedTreeException("Subtree size is inconsistent.\n" + node.toString());
+    }
+    if (node.isLeaf()) {
+      if (depth != height) {
+        throw NotBalancedTreeException.create("All leaves must have the same depth.", depth, height, node.toString());
+      }
+      return;
+    }
+    for (int i = 0; i <= node.count; i++) {
+      E childLow = i == 0 ? low : (E) node.keys[i - 1];
+      E childHigh = i == node.count ? high : (E) node.keys[i];
+      traverseTreeAndCheckBalanced(node.children[i], childLow, childHigh, depth + 1);
+    }
+  }
+
+}
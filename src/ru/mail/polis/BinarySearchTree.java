@@ -1,7 +1,9 @@
 package ru.mail.polis;
 
 import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -12,6 +14,7 @@ public class BinarySearchTree<E extends Comparable<E>> extends AbstractSet<E> im
   private final Comparator<E> comparator;
   private Node root;
   private int size;
+  private int modCount;
 
   public BinarySearchTree() {
     this(null);
@@ -80,6 +83,7 @@ public class BinarySearchTree<E extends Comparable<E>> extends AbstractSet<E> im
       }
     }
     size++;
+    modCount++;
     return true;
   }
 
@@ -133,6 +137,7 @@ public class BinarySearchTree<E extends Comparable<E>> extends AbstractSet<E> im
       }
     }
     size--;
+    modCount++;
     return true;
   }
 
@@ -198,7 +203,90 @@ public class BinarySearchTree<E extends Comparable<E>> extends AbstractSet<E> im
 
   @Override
   public Iterator<E> iterator() {
-    throw new UnsupportedOperationException();
+    return new TreeIterator(true);
+  }
+
+  public Iterator<E> descendingIterator() {
+    return new TreeIterator(false);
+  }
+
+  /**
+   * Нерекурсивный обход: стек хранит ещё не выданных предков текущего узла.
+   * Стек растёт до высоты дерева и переиспользуется на протяжении всего обхода.
+   */
+  private class TreeIterator implements Iterator<E> {
+    private final boolean ascending;
+    private Object[] stack = new Object[16];
+    private int depth;
+    private Node lastReturned;
+    private int expectedModCount = modCount;
+
+    TreeIterator(boolean ascending) {
+      this.ascending = ascending;
+      pushPath(root);
+    }
+
+    private void pushPath(Node node) {
+      while (node != null) {
+        push(node);
+        node = ascending ? node.left : node.right;
+      }
+    }
+
+    private void push(Node node) {
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, depth << 1);
+      }
+      stack[depth++] = node;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return depth > 0;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (depth == 0) {
+        throw new NoSuchElementException();
+      }
+      Node node = (Node) stack[--depth];
+      stack[depth] = null;
+      pushPath(ascending ? node.right : node.left);
+      lastReturned = node;
+      return node.value;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      E key = lastReturned.value;
+      lastReturned = null;
+      BinarySearchTree.this.remove(key);
+      expectedModCount = modCount;
+      // remove() may move a successor value into another node, so find the path again
+      Arrays.fill(stack, 0, depth, null);
+      depth = 0;
+      Node curr = root;
+      while (curr != null) {
+        int cmp = compare(curr.value, key);
+        if (ascending ? cmp > 0 : cmp < 0) {
+          push(curr);
+          curr = ascending ? curr.left : curr.right;
+        } else {
+          curr = ascending ? curr.right : curr.left;
+        }
+      }
+    }
   }
 
   @Override
@@ -2,18 +2,44 @@ package ru.mail.polis;
 
 import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.Consumer;
 
 public class ChainHashTable<E> extends AbstractSet<E> implements Set<E> {
 
   private final int INITIAL_CAPACITY = 8;
+  private static final int MIGRATION_STEP = 16; // old buckets moved per add/remove during an incremental resize
+  private static final int TREEIFY_THRESHOLD = 8; // a longer chain becomes a TreeBin
+  private static final int UNTREEIFY_THRESHOLD = 6; // a TreeBin this small goes back to a chain
+  private static final int MIN_TREEIFY_CAPACITY = 64; // smaller tables only grow
   //    private final float LOAD_FACTOR = 0.5f;
+  private final boolean incrementalResize;
+  // a bucket holds either the head Node of a chain or a TreeBin
   private Object[] table;
   private int size;
+  private int modCount;
+  // the previous bucket array while an incremental resize is in progress, otherwise null
+  private Object[] oldTable;
+  private int migrated; // old buckets [0, migrated) are already moved
 
   public ChainHashTable() {
+    this(false);
+  }
+
+  /**
+   * @param incrementalResize если true, то при расширении старый массив корзин остаётся рядом с новым
+   *                          и переносится по {@value #MIGRATION_STEP} корзин за каждую вставку или удаление,
+   *                          а поиск до конца переноса смотрит в оба массива
+   */
+  public ChainHashTable(boolean incrementalResize) {
+    this.incrementalResize = incrementalResize;
     this.table = new Object[INITIAL_CAPACITY];
   }
 
@@ -26,20 +52,36 @@ public class ChainHashTable<E> extends AbstractSet<E> implements Set<E> {
    */
   @Override
   public boolean add(E value) {
+    migrateStep();
+    if (oldTable != null && find(oldTable, hash(value, oldTable.length), value) != null) {
+      return false;
+    }
     int idx = hash(value);
-    if (table[idx] == null) {
+    Object bucket = table[idx];
+    if (bucket == null) {
       table[idx] = new Node<>(value);
+    } else if (bucket instanceof TreeBin) {
+      if (!getBin(table, idx).add(value)) {
+        return false;
+      }
     } else {
-      Node curr = getNode(idx);
+      @SuppressWarnings("unchecked")
+      Node<E> curr = (Node<E>) bucket;
+      int chainLength = 1;
       while (curr.next != null && !value.equals(curr.value)) {
         curr = curr.next;
+        chainLength++;
       }
       if (value.equals(curr.value)) {
         return false;
       }
       curr.next = new Node<>(value);
+      if (chainLength >= TREEIFY_THRESHOLD) {
+        treeify(idx);
+      }
     }
     size++;
+    modCount++;
     resize();
     return true;
   }
@@ -55,23 +97,42 @@ public class ChainHashTable<E> extends AbstractSet<E> implements Set<E> {
   public boolean remove(Object object) {
     @SuppressWarnings("unchecked")
     E value = (E) object;
+    migrateStep();
+    if (removeFromChain(table, hash(value), value)) {
+      return true;
+    }
+    return oldTable != null && removeFromChain(oldTable, hash(value, oldTable.length), value);
+  }
 
-    Node prev = null;
-    int idx = hash(value);
-    Node curr = getNode(idx);
+  private boolean removeFromChain(Object[] buckets, int idx, E value) {
+    if (buckets[idx] instanceof TreeBin) {
+      TreeBin<E> bin = getBin(buckets, idx);
+      if (!bin.remove(value)) {
+        return false;
+      }
+      if (bin.size <= UNTREEIFY_THRESHOLD) {
+        buckets[idx] = bin.untreeify();
+      }
+      size--;
+      modCount++;
+      return true;
+    }
+    Node<E> prev = null;
+    Node<E> curr = getNode(buckets, idx);
     while (curr != null && !value.equals(curr.value)) {
       prev = curr;
       curr = curr.next;
     }
     if (curr != null) {
       if (prev == null) { //head
-        table[idx] = getNode(idx).next;
+        buckets[idx] = curr.next;
       } else {
         prev.next = curr.next;
       }
       curr.value = null;
       curr.next = null;
       size--;
+      modCount++;
       return true;
     }
     return false;
@@ -88,46 +149,145 @@ public class ChainHashTable<E> extends AbstractSet<E> implements Set<E> {
   public boolean contains(Object object) {
     @SuppressWarnings("unchecked")
     E value = (E) object;
+    if (find(table, hash(value), value) != null) {
+      return true;
+    }
+    return oldTable != null && find(oldTable, hash(value, oldTable.length), value) != null;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Node<E> find(Object[] buckets, int idx, E value) {
+    Object bucket = buckets[idx];
+    if (bucket instanceof TreeBin) {
+      return ((TreeBin<E>) bucket).find(value);
+    }
+    return findInChain((Node<E>) bucket, value);
+  }
 
-    Node curr = getNode(hash(value));
+  private Node<E> findInChain(Node<E> curr, E value) {
     while (curr != null && !value.equals(curr.value)) {
       curr = curr.next;
     }
-    //Вышли по второму условию
-    return curr != null;
+    return curr;
   }
 
   private int hash(E value) {
-    return Math.abs(value.hashCode()) % table.length;
+    return hash(value, table.length);
+  }
+
+  private static int hash(Object value, int length) {
+    return (value.hashCode() & Integer.MAX_VALUE) % length;
   }
 
-  @SuppressWarnings("unchecked")
   private Node<E> getNode(int idx) {
-    return (Node<E>) table[idx];
+    return getNode(table, idx);
+  }
+
+  /**
+   * @return первый узел корзины, у TreeBin - начало его списка узлов
+   */
+  @SuppressWarnings("unchecked")
+  private Node<E> getNode(Object[] buckets, int idx) {
+    Object bucket = buckets[idx];
+    return bucket instanceof TreeBin ? ((TreeBin<E>) bucket).first : (Node<E>) bucket;
   }
 
   @SuppressWarnings("unchecked")
+  private TreeBin<E> getBin(Object[] buckets, int idx) {
+    return (TreeBin<E>) buckets[idx];
+  }
+
+  /**
+   * Заменяет цепочку корзины idx на TreeBin. В маленькой таблице длинные цепочки исправляет расширение
+   */
+  private void treeify(int idx) {
+    if (table.length < MIN_TREEIFY_CAPACITY) {
+      return;
+    }
+    TreeBin<E> bin = new TreeBin<>();
+    for (Node<E> curr = getNode(idx); curr != null; curr = curr.next) {
+      bin.add(curr.value);
+    }
+    table[idx] = bin;
+  }
+
+  private void treeifyIfLong(int idx) {
+    if (table[idx] instanceof TreeBin) {
+      return;
+    }
+    int chainLength = 0;
+    for (Node<E> curr = getNode(idx); curr != null && chainLength <= TREEIFY_THRESHOLD; curr = curr.next) {
+      chainLength++;
+    }
+    if (chainLength > TREEIFY_THRESHOLD) {
+      treeify(idx);
+    }
+  }
+
   private void resize() {
     if (size * 2 < table.length) {
       return;
     }
-    Object[] old = this.table;
-    size = 0;
+    if (!incrementalResize) {
+      Object[] old = table;
+      table = new Object[table.length << 1];
+      relinkBuckets(old, 0, old.length);
+      return;
+    }
+    // a migration is always finished long before the new array fills up, this is only a safeguard
+    completeResize();
+    oldTable = table;
+    migrated = 0;
     table = new Object[table.length << 1];
-    for (int i = 0; i < old.length; i++) {
-      Node<E> node = (Node<E>) old[i];
-      if (node != null) {
-        Node<E> curr = node;
-        while (curr != null) {
-          Node next = curr.next;
-          //FIXME: insert value in head (all unique)
-          add(curr.value);
-          curr.next = null;
-          curr.value = null;
-          curr = next;
+    modCount++;
+  }
+
+  /**
+   * Переносит узлы корзин [from, to) массива old в текущую таблицу, не создавая новых узлов
+   */
+  private void relinkBuckets(Object[] old, int from, int to) {
+    for (int i = from; i < to; i++) {
+      boolean wasBin = old[i] instanceof TreeBin;
+      Node<E> curr = wasBin ? getBin(old, i).untreeify() : getNode(old, i);
+      while (curr != null) {
+        Node<E> next = curr.next;
+        int idx = hash(curr.value);
+        if (table[idx] instanceof TreeBin) {
+          getBin(table, idx).add(curr.value);
+        } else {
+          // all values are distinct, so every node goes to the head of its new bucket
+          curr.next = getNode(idx);
+          table[idx] = curr;
         }
-        old[i] = null;
+        curr = next;
       }
+      old[i] = null;
+      if (wasBin) {
+        // the table doubles, so the nodes of bucket i split between buckets i and i + old.length
+        treeifyIfLong(i);
+        treeifyIfLong(i + old.length);
+      }
+    }
+    modCount++;
+  }
+
+  private void migrateStep() {
+    if (oldTable != null) {
+      migrate(Math.min(migrated + MIGRATION_STEP, oldTable.length));
+    }
+  }
+
+  private void completeResize() {
+    if (oldTable != null) {
+      migrate(oldTable.length);
+    }
+  }
+
+  private void migrate(int end) {
+    relinkBuckets(oldTable, migrated, end);
+    migrated = end;
+    if (migrated == oldTable.length) {
+      oldTable = null;
     }
   }
 
@@ -136,9 +296,417 @@ public class ChainHashTable<E> extends AbstractSet<E> implements Set<E> {
     return size;
   }
 
+  /**
+   * Итератор по цепочкам корзин.
+   * Незаконченное постепенное расширение перед обходом доводится до конца
+   *
+   * @throws ConcurrentModificationException при изменении таблицы не через итератор
+   */
   @Override
   public Iterator<E> iterator() {
-    throw new UnsupportedOperationException();
+    completeResize();
+    return new TableIterator();
+  }
+
+  /**
+   * Делится по диапазонам корзин, поэтому parallelStream обрабатывает части таблицы независимо.
+   * Как и у {@link HashMap}, точный размер известен только до первого деления, дальше - оценка
+   */
+  @Override
+  public Spliterator<E> spliterator() {
+    completeResize();
+    return new TableSpliterator(0, -1, 0, 0);
+  }
+
+  private class TableIterator implements Iterator<E> {
+    private int bucket; // the bucket of the next node
+    private Node<E> next;
+    private E lastReturned;
+    private int expectedModCount = modCount;
+
+    TableIterator() {
+      next = nextChain();
+    }
+
+    private Node<E> nextChain() {
+      while (bucket < table.length) {
+        Node<E> head = getNode(bucket++);
+        if (head != null) {
+          return head;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next.value;
+      // step forward first: removing the returned node clears its link
+      next = next.next != null ? next.next : nextChain();
+      return lastReturned;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      ChainHashTable.this.remove(lastReturned);
+      expectedModCount = modCount;
+      lastReturned = null;
+    }
+  }
+
+  private class TableSpliterator implements Spliterator<E> {
+    private int index; // the next bucket to visit
+    private int fence; // -1 until the first use, then the end of the range
+    private int estimate;
+    private int expectedModCount;
+    private Node<E> current; // the rest of the chain of bucket index - 1
+
+    TableSpliterator(int origin, int fence, int estimate, int expectedModCount) {
+      this.index = origin;
+      this.fence = fence;
+      this.estimate = estimate;
+      this.expectedModCount = expectedModCount;
+    }
+
+    private int getFence() {
+      if (fence < 0) {
+        // bind to the table at the first use rather than at creation
+        fence = table.length;
+        estimate = size;
+        expectedModCount = modCount;
+      }
+      return fence;
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+      int high = getFence();
+      int mid = (index + high) >>> 1;
+      if (index >= mid || current != null) {
+        return null;
+      }
+      estimate >>>= 1;
+      Spliterator<E> prefix = new TableSpliterator(index, mid, estimate, expectedModCount);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+      Objects.requireNonNull(action);
+      int high = getFence();
+      while (current != null || index < high) {
+        if (current == null) {
+          current = getNode(index++);
+        } else {
+          E value = current.value;
+          current = current.next;
+          action.accept(value);
+          if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+      Objects.requireNonNull(action);
+      int high = getFence();
+      Object[] buckets = table;
+      Node<E> node = current;
+      current = null;
+      int i = index;
+      index = high;
+      while (true) {
+        for (; node != null; node = node.next) {
+          action.accept(node.value);
+        }
+        if (i >= high) {
+          break;
+        }
+        node = getNode(buckets, i++);
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+
+    @Override
+    public long estimateSize() {
+      getFence();
+      return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+      return (fence < 0 || estimate == size ? Spliterator.SIZED : 0) | Spliterator.DISTINCT;
+    }
+  }
+
+  /**
+   * Корзина из длинной цепочки: AVL-дерево узлов, упорядоченных по hashCode,
+   * при равных hashCode - по имени класса, а элементы одного Comparable класса - по compareTo,
+   * как в {@link java.util.HashMap}. Поэтому даже одинаковые hashCode Comparable элементов
+   * ищутся за O(log n), а equals вызывается только для элементов, неразличимых этим порядком:
+   * они лежат списком sameKey при узле дерева, и только для не Comparable элементов с одинаковым hashCode
+   * поиск остаётся линейным.
+   * Все узлы корзины дополнительно связаны в двусвязный список, по которому ходят итераторы и расширение
+   */
+  private static class TreeBin<E> {
+    TreeNode<E> root;
+    TreeNode<E> first;
+    int size;
+
+    Node<E> find(E value) {
+      int hash = value.hashCode();
+      TreeNode<E> curr = root;
+      while (curr != null) {
+        int cmp = compare(hash, value, curr);
+        if (cmp == 0) {
+          return findSameKey(curr, value);
+        }
+        curr = cmp < 0 ? curr.left : curr.right;
+      }
+      return null;
+    }
+
+    private TreeNode<E> findSameKey(TreeNode<E> curr, E value) {
+      while (curr != null && !value.equals(curr.value)) {
+        curr = curr.sameKey;
+      }
+      return curr;
+    }
+
+    boolean add(E value) {
+      int oldSize = size;
+      root = insert(root, value.hashCode(), value);
+      return size != oldSize;
+    }
+
+    private TreeNode<E> insert(TreeNode<E> node, int hash, E value) {
+      if (node == null) {
+        return linkFirst(new TreeNode<>(value, hash));
+      }
+      int cmp = compare(hash, value, node);
+      if (cmp == 0) {
+        if (findSameKey(node, value) == null) {
+          TreeNode<E> sameKey = linkFirst(new TreeNode<>(value, hash));
+          sameKey.sameKey = node.sameKey;
+          node.sameKey = sameKey;
+        }
+        return node;
+      }
+      if (cmp < 0) {
+        node.left = insert(node.left, hash, value);
+      } else {
+        node.right = insert(node.right, hash, value);
+      }
+      return balance(node);
+    }
+
+    boolean remove(E value) {
+      int oldSize = size;
+      root = delete(root, value.hashCode(), value);
+      return size != oldSize;
+    }
+
+    private TreeNode<E> delete(TreeNode<E> node, int hash, E value) {
+      if (node == null) {
+        return null;
+      }
+      int cmp = compare(hash, value, node);
+      if (cmp < 0) {
+        node.left = delete(node.left, hash, value);
+        return balance(node);
+      }
+      if (cmp > 0) {
+        node.right = delete(node.right, hash, value);
+        return balance(node);
+      }
+      if (!value.equals(node.value)) {
+        for (TreeNode<E> before = node; before.sameKey != null; before = before.sameKey) {
+          TreeNode<E> removed = before.sameKey;
+          if (value.equals(removed.value)) {
+            before.sameKey = removed.sameKey;
+            unlink(removed);
+            break;
+          }
+        }
+        return node;
+      }
+      TreeNode<E> left = node.left;
+      TreeNode<E> right = node.right;
+      TreeNode<E> replacement = node.sameKey;
+      unlink(node);
+      if (replacement != null) {
+        // an equivalent node takes the place in the tree, the shape does not change
+        replacement.left = left;
+        replacement.right = right;
+        replacement.height = node.height;
+        node.height = 1;
+        return replacement;
+      }
+      if (left == null) {
+        return right;
+      }
+      if (right == null) {
+        return left;
+      }
+      TreeNode<E> min = right;
+      while (min.left != null) {
+        min = min.left;
+      }
+      min.right = deleteMin(right);
+      min.left = left;
+      return balance(min);
+    }
+
+    private TreeNode<E> deleteMin(TreeNode<E> node) {
+      if (node.left == null) {
+        return node.right;
+      }
+      node.left = deleteMin(node.left);
+      return balance(node);
+    }
+
+    private TreeNode<E> linkFirst(TreeNode<E> node) {
+      node.next = first;
+      if (first != null) {
+        first.prev = node;
+      }
+      first = node;
+      size++;
+      return node;
+    }
+
+    private void unlink(TreeNode<E> node) {
+      TreeNode<E> next = (TreeNode<E>) node.next;
+      if (node.prev == null) {
+        first = next;
+      } else {
+        node.prev.next = next;
+      }
+      if (next != null) {
+        next.prev = node.prev;
+      }
+      node.value = null;
+      node.next = null;
+      node.prev = null;
+      node.left = null;
+      node.right = null;
+      node.sameKey = null;
+      size--;
+    }
+
+    /**
+     * Порядок дерева: hashCode, затем имя класса, затем compareTo для Comparable.
+     * 0 означает, что элементы этим порядком не различаются и их надо сравнить через equals
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compare(int hash, Object value, TreeNode<?> node) {
+      if (hash != node.hash) {
+        return Integer.compare(hash, node.hash);
+      }
+      Object other = node.value;
+      Class<?> valueClass = value.getClass();
+      Class<?> otherClass = other.getClass();
+      if (valueClass != otherClass) {
+        return valueClass.getName().compareTo(otherClass.getName());
+      }
+      return value instanceof Comparable ? ((Comparable) value).compareTo(other) : 0;
+    }
+
+    private static int height(TreeNode<?> node) {
+      return node == null ? 0 : node.height;
+    }
+
+    private static void fixHeight(TreeNode<?> node) {
+      node.height = Math.max(height(node.left), height(node.right)) + 1;
+    }
+
+    private static <E> TreeNode<E> balance(TreeNode<E> node) {
+      fixHeight(node);
+      int balance = height(node.left) - height(node.right);
+      if (balance > 1) {
+        if (height(node.left.left) < height(node.left.right)) {
+          node.left = rotateLeft(node.left);
+        }
+        return rotateRight(node);
+      }
+      if (balance < -1) {
+        if (height(node.right.right) < height(node.right.left)) {
+          node.right = rotateRight(node.right);
+        }
+        return rotateLeft(node);
+      }
+      return node;
+    }
+
+    private static <E> TreeNode<E> rotateLeft(TreeNode<E> node) {
+      TreeNode<E> newRoot = node.right;
+      node.right = newRoot.left;
+      newRoot.left = node;
+      fixHeight(node);
+      fixHeight(newRoot);
+      return newRoot;
+    }
+
+    private static <E> TreeNode<E> rotateRight(TreeNode<E> node) {
+      TreeNode<E> newRoot = node.left;
+      node.left = newRoot.right;
+      newRoot.right = node;
+      fixHeight(node);
+      fixHeight(newRoot);
+      return newRoot;
+    }
+
+    /**
+     * @return узлы корзины обычной цепочкой, без ссылок на соседей и дерево
+     */
+    Node<E> untreeify() {
+      for (TreeNode<E> curr = first; curr != null; curr = (TreeNode<E>) curr.next) {
+        curr.prev = null;
+        curr.left = null;
+        curr.right = null;
+        curr.sameKey = null;
+      }
+      root = null;
+      return first;
+    }
+  }
+
+  private static class TreeNode<E> extends Node<E> {
+    final int hash;
+    TreeNode<E> prev;
+    TreeNode<E> left;
+    TreeNode<E> right;
+    TreeNode<E> sameKey; // nodes the tree order does not tell apart
+    int height = 1;
+
+    TreeNode(E value, int hash) {
+      super(value);
+      this.hash = hash;
+    }
   }
 
   private static class Node<E> {
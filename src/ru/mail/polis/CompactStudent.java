@@ -0,0 +1,310 @@
+package ru.mail.polis;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ru.mail.polis.Student.Gender;
+
+import static ru.mail.polis.SimpleStudentGenerator.EMAIL_SUFFIX;
+import static ru.mail.polis.SimpleStudentGenerator.URL_PREFIX;
+
+/**
+ * Неизменяемый студент без избыточных строк в куче.
+ * <p>
+ * Имя и фамилия - коды общего словаря имён, заранее заполненного именами {@link SimpleStudentGenerator}.
+ * От ссылки на фотографию хранится только номер после {@link SimpleStudentGenerator#URL_PREFIX},
+ * от email - имя пользователя до {@link SimpleStudentGenerator#EMAIL_SUFFIX}, упакованное по 5 бит на букву,
+ * от телефона - его число. Строка, не подходящая под такой вид, хранится как есть.
+ * Кодирование однозначно, поэтому {@link #equals(Object)} и {@link #hashCode()} сравнивают и хешируют коды,
+ * не восстанавливая строк, а равные студенты дают одинаковые пробы в открытой адресации.
+ */
+public class CompactStudent extends CheckedOpenHashTableEntity {
+
+  private static final int FEMALE = 1;
+  private static final int HAS_PHOTO = 1 << 1;
+  private static final int HAS_EMAIL = 1 << 2;
+  private static final int HAS_MOBILE = 1 << 3;
+  private static final int RAW_PHOTO = 1 << 4;
+  private static final int RAW_EMAIL = 1 << 5;
+  private static final int RAW_MOBILE = 1 << 6;
+
+  private static final int LETTER_BITS = 5;
+  private static final int MAX_USERNAME_LETTERS = 12;
+  private static final int MAX_DIGITS = 18; // any 18-digit number fits a long
+
+  private final long id;
+  private final int firstName;
+  private final int lastName;
+  private final int birthday; // epoch day
+  private final int groupId;
+  private final int yearOfAdmission;
+  private final int flags;
+  private final long photo;
+  private final long email;
+  private final long mobile;
+  private final String[] raw; // photo, email and mobile kept as is; null if all of them are encoded
+  private final int hash;
+
+  private CompactStudent(Student student) {
+    id = student.getId();
+    firstName = Names.code(student.getFirstName());
+    lastName = Names.code(student.getLastName());
+    birthday = (int) student.getBirthday().toEpochDay();
+    groupId = student.getGroupId();
+    yearOfAdmission = student.getYearOfAdmission();
+    String photoReference = student.getPhotoReference();
+    String emailAddress = student.getEmail();
+    String mobileNumber = student.getMobile();
+    long photo = photoReference != null && photoReference.startsWith(URL_PREFIX)
+        ? parseNumber(photoReference, URL_PREFIX.length()) : -1;
+    long email = emailAddress != null ? packUsername(emailAddress) : -1;
+    long mobile = mobileNumber != null ? parseNumber(mobileNumber, 0) : -1;
+    int flags = student.getGender() == Gender.FEMALE ? FEMALE : 0;
+    String[] raw = null;
+    if (photoReference != null) {
+      flags |= HAS_PHOTO | (photo < 0 ? RAW_PHOTO : 0);
+    }
+    if (emailAddress != null) {
+      flags |= HAS_EMAIL | (email < 0 ? RAW_EMAIL : 0);
+    }
+    if (mobileNumber != null) {
+      flags |= HAS_MOBILE | (mobile < 0 ? RAW_MOBILE : 0);
+    }
+    if ((flags & (RAW_PHOTO | RAW_EMAIL | RAW_MOBILE)) != 0) {
+      raw = new String[]{
+          (flags & RAW_PHOTO) != 0 ? photoReference : null,
+          (flags & RAW_EMAIL) != 0 ? emailAddress : null,
+          (flags & RAW_MOBILE) != 0 ? mobileNumber : null
+      };
+    }
+    this.flags = flags;
+    this.photo = Math.max(photo, 0);
+    this.email = Math.max(email, 0);
+    this.mobile = Math.max(mobile, 0);
+    this.raw = raw;
+    hash = computeHashCode();
+  }
+
+  /**
+   * Компактная копия студента с тем же идентификатором
+   */
+  public static CompactStudent of(Student student) {
+    return new CompactStudent(student);
+  }
+
+  /**
+   * @return обычный студент с теми же полями и идентификатором
+   */
+  public Student toStudent() {
+    return new Student(id, getFirstName(), getLastName(), getGender(), getBirthday(), groupId, yearOfAdmission,
+        getPhotoReference(), getEmail(), getMobile());
+  }
+
+  /**
+   * Число из десятичных цифр value, начиная с from, или -1, если там не только цифры,
+   * есть незначащий ноль или число не помещается: тогда строку из числа не восстановить
+   */
+  private static long parseNumber(String value, int from) {
+    int length = value.length() - from;
+    if (length < 1 || length > MAX_DIGITS || (value.charAt(from) == '0' && length > 1)) {
+      return -1;
+    }
+    long number = 0;
+    for (int i = from; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      number = number * 10 + (c - '0');
+    }
+    return number;
+  }
+
+  /**
+   * Имя пользователя из строчных латинских букв, по 5 бит на букву, первая - в младших битах,
+   * или -1, если адрес другого вида
+   */
+  private static long packUsername(String address) {
+    int length = address.length() - EMAIL_SUFFIX.length();
+    if (length < 0 || length > MAX_USERNAME_LETTERS || !address.endsWith(EMAIL_SUFFIX)) {
+      return -1;
+    }
+    long word = 0;
+    for (int i = length - 1; i >= 0; i--) {
+      char c = address.charAt(i);
+      if (c < 'a' || c > 'z') {
+        return -1;
+      }
+      word = (word << LETTER_BITS) | (c - 'a' + 1);
+    }
+    return word;
+  }
+
+  private static String unpackUsername(long word) {
+    char[] chars = new char[(64 - Long.numberOfLeadingZeros(word) + LETTER_BITS - 1) / LETTER_BITS];
+    for (int i = 0; word != 0; i++, word >>>= LETTER_BITS) {
+      chars[i] = (char) ('a' - 1 + (word & ((1 << LETTER_BITS) - 1)));
+    }
+    return new String(chars) + EMAIL_SUFFIX;
+  }
+
+  @Override
+  public int hashCode(int tableSize, int probId) throws IllegalArgumentException {
+    return (int) Math.floorMod(probeStart(tableSize) + (long) probId * probeStep(tableSize), (long) tableSize);
+  }
+
+  @Override
+  public int probeStart(int tableSize) {
+    return Math.floorMod(hash, tableSize);
+  }
+
+  /**
+   * Тот же шаг из id, что у {@link Student}
+   */
+  @Override
+  public int probeStep(int tableSize) {
+    return LongOpenHashMap.probeStep(id, tableSize);
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getFirstName() {
+    return Names.decode(firstName);
+  }
+
+  public String getLastName() {
+    return Names.decode(lastName);
+  }
+
+  public Gender getGender() {
+    return (flags & FEMALE) != 0 ? Gender.FEMALE : Gender.MALE;
+  }
+
+  public LocalDate getBirthday() {
+    return LocalDate.ofEpochDay(birthday);
+  }
+
+  public int getGroupId() {
+    return groupId;
+  }
+
+  public int getYearOfAdmission() {
+    return yearOfAdmission;
+  }
+
+  public String getPhotoReference() {
+    if ((flags & HAS_PHOTO) == 0) {
+      return null;
+    }
+    return (flags & RAW_PHOTO) != 0 ? raw[0] : URL_PREFIX + photo;
+  }
+
+  public String getEmail() {
+    if ((flags & HAS_EMAIL) == 0) {
+      return null;
+    }
+    return (flags & RAW_EMAIL) != 0 ? raw[1] : unpackUsername(email);
+  }
+
+  public String getMobile() {
+    if ((flags & HAS_MOBILE) == 0) {
+      return null;
+    }
+    return (flags & RAW_MOBILE) != 0 ? raw[2] : Long.toString(mobile);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+
+    CompactStudent student = (CompactStudent) o;
+
+    return id == student.id
+        && hash == student.hash
+        && firstName == student.firstName
+        && lastName == student.lastName
+        && birthday == student.birthday
+        && groupId == student.groupId
+        && yearOfAdmission == student.yearOfAdmission
+        && flags == student.flags
+        && photo == student.photo
+        && email == student.email
+        && mobile == student.mobile
+        && Arrays.equals(raw, student.raw);
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  private int computeHashCode() {
+    int result = Long.hashCode(id);
+    result = 31 * result + firstName;
+    result = 31 * result + lastName;
+    result = 31 * result + birthday;
+    result = 31 * result + groupId;
+    result = 31 * result + yearOfAdmission;
+    result = 31 * result + flags;
+    result = 31 * result + Long.hashCode(photo);
+    result = 31 * result + Long.hashCode(email);
+    result = 31 * result + Long.hashCode(mobile);
+    result = 31 * result + Arrays.hashCode(raw);
+    return result;
+  }
+
+  @Override
+  public String toString() {
+    return "CompactStudent" + toStudent().toString().substring("Student".length());
+  }
+
+  /**
+   * Общий словарь имён и фамилий. Коды только добавляются, поэтому чтение не блокируется
+   */
+  private static final class Names {
+    private static final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private static volatile String[] values = new String[128];
+    private static int size;
+
+    static {
+      for (String[] names : new String[][]{
+          SimpleStudentGenerator.maleFirstNames,
+          SimpleStudentGenerator.femaleFirstNames,
+          SimpleStudentGenerator.lastNames}) {
+        for (String name : names) {
+          code(name);
+        }
+      }
+    }
+
+    static int code(String name) {
+      Integer code = codes.get(name);
+      return code != null ? code : add(name);
+    }
+
+    private static synchronized int add(String name) {
+      Integer code = codes.get(name);
+      if (code != null) {
+        return code;
+      }
+      String[] current = values;
+      if (size == current.length) {
+        current = Arrays.copyOf(current, size * 2);
+      }
+      current[size] = name;
+      values = current; // volatile write publishes the new name together with its code
+      codes.put(name, size);
+      return size++;
+    }
+
+    static String decode(int code) {
+      return values[code];
+    }
+  }
+
+}
@@ -0,0 +1,1039 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасное АВЛ-дерево с оптимистичным чтением (Bronson, Casper, Chafi, Olukotun,
+ * "A Practical Concurrent Binary Search Tree", 2010).
+ * <p>
+ * Читатели не берут блокировок: спускаются по дереву, запоминая версию каждого узла,
+ * и начинают шаг заново, если узел успел "сжаться" (его повернули вниз) или был удалён.
+ * Писатели блокируют только родителя и изменяемый узел. Удаление узла с двумя детьми
+ * лишь помечает его маршрутным (present == null). Балансировка ослаблена: её выполняет
+ * писатель после своей операции, поэтому строгий баланс гарантирован, только когда никто
+ * не пишет.
+ * <p>
+ * Итераторы слабо согласованы, как в {@link java.util.concurrent.ConcurrentSkipListSet}:
+ * не бросают {@link java.util.ConcurrentModificationException} и видят элементы,
+ * которые были в дереве в какой-то момент обхода. Ранг и размер представлений
+ * считаются обходом за O(n).
+ */
+public class ConcurrentAVLTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E>, OrderedTree<E> {
+
+  private static final Object PRESENT = new Object();
+  private static final Object RETRY = new Object();
+
+  // version bits: the node is unlinked / a rotation is moving the node down, shrinking its key range
+  private static final long UNLINKED = 0x1L;
+  private static final long SHRINKING = 0x2L;
+  private static final long SHRINK_COUNT_INCREMENT = 0x4L;
+
+  private static final int SPIN_COUNT = 100;
+
+  // results of nodeCondition, non-negative values are the new height
+  private static final int UNLINK_REQUIRED = -1;
+  private static final int REBALANCE_REQUIRED = -2;
+  private static final int NOTHING_REQUIRED = -3;
+
+  private static final class Node<E> {
+    final E value;
+    volatile Object present; // null - routing node, the element was removed
+    volatile int height;
+    volatile long version;
+    volatile Node<E> parent;
+    volatile Node<E> left;
+    volatile Node<E> right;
+
+    Node(E value, Object present, int height, Node<E> parent) {
+      this.value = value;
+      this.present = present;
+      this.height = height;
+      this.parent = parent;
+    }
+
+    Node<E> child(boolean toLeft) {
+      return toLeft ? left : right;
+    }
+
+    void setChild(boolean toLeft, Node<E> child) {
+      if (toLeft) {
+        left = child;
+      } else {
+        right = child;
+      }
+    }
+
+    /**
+     * Ждёт окончания поворота, который держит блокировку узла
+     */
+    void waitUntilShrinkCompleted(long ovl) {
+      if ((ovl & SHRINKING) == 0) {
+        return;
+      }
+      for (int i = 0; i < SPIN_COUNT; i++) {
+        if (version != ovl) {
+          return;
+        }
+        Thread.onSpinWait();
+      }
+      synchronized (this) {
+        // the lock is released when the rotation ends
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Node{" +
+              "value=" + value +
+              ", present=" + (present != null) +
+              ", height=" + height +
+              '}';
+    }
+  }
+
+  private final Comparator<E> comparator;
+  // the root is always holder.right, the holder itself is never rotated or unlinked
+  private final Node<E> holder = new Node<>(null, PRESENT, 0, null);
+  private final LongAdder size = new LongAdder();
+
+  public ConcurrentAVLTree() {
+    this(null);
+  }
+
+  public ConcurrentAVLTree(Comparator<E> comparator) {
+    this.comparator = comparator;
+  }
+
+  private static boolean isShrinkingOrUnlinked(long ovl) {
+    return (ovl & (SHRINKING | UNLINKED)) != 0;
+  }
+
+  private static boolean isUnlinked(long ovl) {
+    return (ovl & UNLINKED) != 0;
+  }
+
+  private static int getHeight(Node<?> node) {
+    return node == null ? 0 : node.height;
+  }
+
+  private int compare(E v1, E v2) {
+    return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+  }
+
+  /**
+   * Ищет элемент с таким же значением в дереве без блокировок.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо поискать
+   * @return true, если такой элемент содержится в дереве
+   */
+  @Override
+  public boolean contains(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    while (true) {
+      Node<E> root = holder.right;
+      if (root == null) {
+        return false;
+      }
+      int cmp = compare(value, root.value);
+      if (cmp == 0) {
+        return root.present != null;
+      }
+      long ovl = root.version;
+      if (isShrinkingOrUnlinked(ovl)) {
+        root.waitUntilShrinkCompleted(ovl);
+      } else if (root == holder.right) {
+        Object result = attemptContains(value, root, cmp < 0, ovl);
+        if (result != RETRY) {
+          return result == Boolean.TRUE;
+        }
+      }
+    }
+  }
+
+  /**
+   * Продолжает поиск в сыне node, пока версия node не изменилась
+   */
+  private Object attemptContains(E value, Node<E> node, boolean toLeft, long nodeOVL) {
+    while (true) {
+      Node<E> child = node.child(toLeft);
+      if (child == null) {
+        return node.version != nodeOVL ? RETRY : Boolean.FALSE;
+      }
+      int cmp = compare(value, child.value);
+      if (cmp == 0) {
+        return child.present != null;
+      }
+      long childOVL = child.version;
+      if (isShrinkingOrUnlinked(childOVL)) {
+        child.waitUntilShrinkCompleted(childOVL);
+        if (node.version != nodeOVL) {
+          return RETRY;
+        }
+      } else if (child != node.child(toLeft)) {
+        if (node.version != nodeOVL) {
+          return RETRY;
+        }
+      } else {
+        if (node.version != nodeOVL) {
+          return RETRY;
+        }
+        Object result = attemptContains(value, child, cmp < 0, childOVL);
+        if (result != RETRY) {
+          return result;
+        }
+      }
+    }
+  }
+
+  /**
+   * Вставляет элемент в дерево.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в дереве отсутствовал
+   */
+  @Override
+  public boolean add(E value) {
+    while (true) {
+      Node<E> root = holder.right;
+      Object result;
+      if (root == null) {
+        result = attemptInsertIntoEmpty(value);
+      } else {
+        long ovl = root.version;
+        if (isShrinkingOrUnlinked(ovl)) {
+          root.waitUntilShrinkCompleted(ovl);
+          continue;
+        }
+        if (root != holder.right) {
+          continue;
+        }
+        result = attemptAdd(value, root, ovl);
+      }
+      if (result != RETRY) {
+        if (result == Boolean.TRUE) {
+          size.increment();
+        }
+        return result == Boolean.TRUE;
+      }
+    }
+  }
+
+  private Object attemptInsertIntoEmpty(E value) {
+    synchronized (holder) {
+      if (holder.right != null) {
+        return RETRY;
+      }
+      holder.right = new Node<>(value, PRESENT, 1, holder);
+      return Boolean.TRUE;
+    }
+  }
+
+  private Object attemptAdd(E value, Node<E> node, long nodeOVL) {
+    int cmp = compare(value, node.value);
+    if (cmp == 0) {
+      return attemptNodeAdd(node);
+    }
+    boolean toLeft = cmp < 0;
+    while (true) {
+      Node<E> child = node.child(toLeft);
+      if (node.version != nodeOVL) {
+        return RETRY;
+      }
+      if (child == null) {
+        boolean inserted = false;
+        Node<E> damaged = null;
+        synchronized (node) {
+          if (node.version != nodeOVL) {
+            return RETRY;
+          }
+          // otherwise somebody has linked a child first, descend into it
+          if (node.child(toLeft) == null) {
+            node.setChild(toLeft, new Node<>(value, PRESENT, 1, node));
+            inserted = true;
+            damaged = fixHeight(node);
+          }
+        }
+        if (inserted) {
+          fixHeightAndRebalance(damaged);
+          return Boolean.TRUE;
+        }
+      } else {
+        long childOVL = child.version;
+        if (isShrinkingOrUnlinked(childOVL)) {
+          child.waitUntilShrinkCompleted(childOVL);
+        } else if (child == node.child(toLeft)) {
+          if (node.version != nodeOVL) {
+            return RETRY;
+          }
+          Object result = attemptAdd(value, child, childOVL);
+          if (result != RETRY) {
+            return result;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Узел с этим значением уже есть: элемент добавляется, только если узел маршрутный
+   */
+  private Object attemptNodeAdd(Node<E> node) {
+    if (node.present != null) {
+      return Boolean.FALSE;
+    }
+    synchronized (node) {
+      if (isUnlinked(node.version)) {
+        return RETRY;
+      }
+      if (node.present != null) {
+        return Boolean.FALSE;
+      }
+      node.present = PRESENT;
+      return Boolean.TRUE;
+    }
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из дерева.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо удалить
+   * @return true, если элемент содержался в дереве
+   */
+  @Override
+  public boolean remove(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    while (true) {
+      Node<E> root = holder.right;
+      if (root == null) {
+        return false;
+      }
+      long ovl = root.version;
+      if (isShrinkingOrUnlinked(ovl)) {
+        root.waitUntilShrinkCompleted(ovl);
+      } else if (root == holder.right) {
+        Object result = attemptRemove(value, holder, root, ovl);
+        if (result != RETRY) {
+          if (result == Boolean.TRUE) {
+            size.decrement();
+          }
+          return result == Boolean.TRUE;
+        }
+      }
+    }
+  }
+
+  private Object attemptRemove(E value, Node<E> parent, Node<E> node, long nodeOVL) {
+    int cmp = compare(value, node.value);
+    if (cmp == 0) {
+      return attemptRemoveNode(parent, node);
+    }
+    boolean toLeft = cmp < 0;
+    while (true) {
+      Node<E> child = node.child(toLeft);
+      if (node.version != nodeOVL) {
+        return RETRY;
+      }
+      if (child == null) {
+        return Boolean.FALSE;
+      }
+      long childOVL = child.version;
+      if (isShrinkingOrUnlinked(childOVL)) {
+        child.waitUntilShrinkCompleted(childOVL);
+      } else if (child == node.child(toLeft)) {
+        if (node.version != nodeOVL) {
+          return RETRY;
+        }
+        Object result = attemptRemove(value, node, child, childOVL);
+        if (result != RETRY) {
+          return result;
+        }
+      }
+    }
+  }
+
+  /**
+   * Узел с не более чем одним сыном вырезается, узел с двумя сыновьями становится маршрутным
+   */
+  private Object attemptRemoveNode(Node<E> parent, Node<E> node) {
+    if (node.present == null) {
+      return Boolean.FALSE;
+    }
+    if (node.left == null || node.right == null) {
+      Node<E> damaged;
+      synchronized (parent) {
+        if (isUnlinked(parent.version) || node.parent != parent) {
+          return RETRY;
+        }
+        synchronized (node) {
+          if (node.present == null) {
+            return Boolean.FALSE;
+          }
+          if (!attemptUnlink(parent, node)) {
+            return RETRY;
+          }
+        }
+        damaged = fixHeight(parent);
+      }
+      fixHeightAndRebalance(damaged);
+      return Boolean.TRUE;
+    }
+    synchronized (node) {
+      if (isUnlinked(node.version)) {
+        return RETRY;
+      }
+      if (node.present == null) {
+        return Boolean.FALSE;
+      }
+      node.present = null;
+    }
+    if (node.left == null || node.right == null) {
+      // a child was unlinked meanwhile, the routing node is not needed anymore
+      fixHeightAndRebalance(node);
+    }
+    return Boolean.TRUE;
+  }
+
+  /**
+   * Вырезает узел с не более чем одним сыном. Вызывается под блокировками parent и node
+   */
+  private boolean attemptUnlink(Node<E> parent, Node<E> node) {
+    Node<E> parentLeft = parent.left;
+    Node<E> parentRight = parent.right;
+    if (parentLeft != node && parentRight != node) {
+      return false;
+    }
+    Node<E> left = node.left;
+    Node<E> right = node.right;
+    if (left != null && right != null) {
+      return false;
+    }
+    Node<E> splice = left != null ? left : right;
+    if (parentLeft == node) {
+      parent.left = splice;
+    } else {
+      parent.right = splice;
+    }
+    if (splice != null) {
+      splice.parent = parent;
+    }
+    node.version = UNLINKED;
+    node.present = null;
+    return true;
+  }
+
+  /**
+   * @return новая высота узла, если нужно только её поправить, иначе одна из констант *_REQUIRED
+   */
+  private int nodeCondition(Node<E> node) {
+    Node<E> left = node.left;
+    Node<E> right = node.right;
+    if ((left == null || right == null) && node.present == null) {
+      return UNLINK_REQUIRED;
+    }
+    int height = node.height;
+    int leftHeight = getHeight(left);
+    int rightHeight = getHeight(right);
+    int newHeight = 1 + Math.max(leftHeight, rightHeight);
+    int balance = leftHeight - rightHeight;
+    if (balance < -1 || balance > 1) {
+      return REBALANCE_REQUIRED;
+    }
+    return height != newHeight ? newHeight : NOTHING_REQUIRED;
+  }
+
+  /**
+   * Поправляет высоту узла под его блокировкой
+   *
+   * @return узел, который нужно чинить следующим, или null
+   */
+  private Node<E> fixHeight(Node<E> node) {
+    int condition = nodeCondition(node);
+    switch (condition) {
+      case REBALANCE_REQUIRED:
+      case UNLINK_REQUIRED:
+        return node;
+      case NOTHING_REQUIRED:
+        return null;
+      default:
+        node.height = condition;
+        return node.parent;
+    }
+  }
+
+  /**
+   * Поднимается от повреждённого узла к корню, пока есть что чинить.
+   * Поворот может вернуть для починки узел ниже себя, не поправив высоту над собой,
+   * поэтому после первого поворота путь проверяется до самого корня
+   */
+  private void fixHeightAndRebalance(Node<E> node) {
+    boolean rotated = false;
+    while (node != null && node.parent != null) {
+      if (isUnlinked(node.version)) {
+        return;
+      }
+      int condition = nodeCondition(node);
+      Node<E> next;
+      if (condition == NOTHING_REQUIRED) {
+        next = null;
+      } else if (condition != UNLINK_REQUIRED && condition != REBALANCE_REQUIRED) {
+        synchronized (node) {
+          next = fixHeight(node);
+        }
+      } else {
+        Node<E> parent = node.parent;
+        next = node; // the parent has changed, try again with the same node
+        synchronized (parent) {
+          if (!isUnlinked(parent.version) && node.parent == parent) {
+            synchronized (node) {
+              next = rebalance(parent, node);
+              rotated = true;
+            }
+          }
+        }
+      }
+      if (next == null) {
+        if (!rotated) {
+          return;
+        }
+        next = node.parent;
+      }
+      node = next;
+    }
+  }
+
+  /**
+   * Вызывается под блокировками parent и node
+   */
+  private Node<E> rebalance(Node<E> parent, Node<E> node) {
+    Node<E> left = node.left;
+    Node<E> right = node.right;
+    if ((left == null || right == null) && node.present == null) {
+      return attemptUnlink(parent, node) ? fixHeight(parent) : node;
+    }
+    int height = node.height;
+    int leftHeight = getHeight(left);
+    int rightHeight = getHeight(right);
+    int newHeight = 1 + Math.max(leftHeight, rightHeight);
+    int balance = leftHeight - rightHeight;
+    if (balance > 1) {
+      return rebalanceToRight(parent, node, left, rightHeight);
+    } else if (balance < -1) {
+      return rebalanceToLeft(parent, node, right, leftHeight);
+    } else if (newHeight != height) {
+      node.height = newHeight;
+      return fixHeight(parent);
+    }
+    return null;
+  }
+
+  private Node<E> rebalanceToRight(Node<E> parent, Node<E> node, Node<E> left, int rightHeight) {
+    synchronized (left) {
+      int leftHeight = left.height;
+      if (leftHeight - rightHeight <= 1) {
+        return node;
+      }
+      Node<E> leftRight = left.right;
+      int leftLeftHeight = getHeight(left.left);
+      int leftRightHeight = getHeight(leftRight);
+      if (leftLeftHeight >= leftRightHeight) {
+        return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+      }
+      synchronized (leftRight) {
+        leftRightHeight = leftRight.height;
+        if (leftLeftHeight >= leftRightHeight) {
+          return rotateRight(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightHeight);
+        }
+        int leftRightLeftHeight = getHeight(leftRight.left);
+        int balance = leftLeftHeight - leftRightLeftHeight;
+        if (balance >= -1 && balance <= 1) {
+          if (!((leftLeftHeight == 0 || leftRightLeftHeight == 0) && left.present == null)) {
+            return rotateRightOverLeft(parent, node, left, rightHeight, leftLeftHeight, leftRight, leftRightLeftHeight);
+          }
+          // the double rotation would leave the routing left child with a single child:
+          // rotate the child alone, it is unlinked next and node is rebalanced on the way up
+          return rotateLeft(node, left, leftLeftHeight, leftRight, leftRight.left, leftRightLeftHeight,
+                  getHeight(leftRight.right));
+        }
+      }
+      // the left child has to be fixed first
+      return rebalanceToLeft(node, left, leftRight, leftLeftHeight);
+    }
+  }
+
+  private Node<E> rebalanceToLeft(Node<E> parent, Node<E> node, Node<E> right, int leftHeight) {
+    synchronized (right) {
+      int rightHeight = right.height;
+      if (leftHeight - rightHeight >= -1) {
+        return node;
+      }
+      Node<E> rightLeft = right.left;
+      int rightLeftHeight = getHeight(rightLeft);
+      int rightRightHeight = getHeight(right.right);
+      if (rightRightHeight >= rightLeftHeight) {
+        return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+      }
+      synchronized (rightLeft) {
+        rightLeftHeight = rightLeft.height;
+        if (rightRightHeight >= rightLeftHeight) {
+          return rotateLeft(parent, node, leftHeight, right, rightLeft, rightLeftHeight, rightRightHeight);
+        }
+        int rightLeftRightHeight = getHeight(rightLeft.right);
+        int balance = rightRightHeight - rightLeftRightHeight;
+        if (balance >= -1 && balance <= 1) {
+          if (!((rightRightHeight == 0 || rightLeftRightHeight == 0) && right.present == null)) {
+            return rotateLeftOverRight(parent, node, leftHeight, right, rightLeft, rightRightHeight, rightLeftRightHeight);
+          }
+          return rotateRight(node, right, rightLeft, rightRightHeight, getHeight(rightLeft.left), rightLeft.right,
+                  rightLeftRightHeight);
+        }
+      }
+      return rebalanceToRight(node, right, rightLeft, rightRightHeight);
+    }
+  }
+
+  private void replaceInParent(Node<E> parent, Node<E> oldChild, Node<E> newChild) {
+    if (parent.left == oldChild) {
+      parent.left = newChild;
+    } else {
+      parent.right = newChild;
+    }
+    newChild.parent = parent;
+  }
+
+  private Node<E> rotateRight(Node<E> parent, Node<E> node, Node<E> left, int rightHeight,
+                              int leftLeftHeight, Node<E> leftRight, int leftRightHeight) {
+    long nodeOVL = node.version;
+    node.version = nodeOVL | SHRINKING;
+
+    node.left = leftRight;
+    if (leftRight != null) {
+      leftRight.parent = node;
+    }
+    left.right = node;
+    node.parent = left;
+    replaceInParent(parent, node, left);
+
+    int nodeHeight = 1 + Math.max(leftRightHeight, rightHeight);
+    node.height = nodeHeight;
+    left.height = 1 + Math.max(leftLeftHeight, nodeHeight);
+
+    node.version = nodeOVL + SHRINK_COUNT_INCREMENT;
+
+    int nodeBalance = leftRightHeight - rightHeight;
+    if (nodeBalance < -1 || nodeBalance > 1) {
+      return node;
+    }
+    if ((leftRight == null || rightHeight == 0) && node.present == null) {
+      return node;
+    }
+    int leftBalance = leftLeftHeight - nodeHeight;
+    if (leftBalance < -1 || leftBalance > 1) {
+      return left;
+    }
+    if (leftLeftHeight == 0 && left.present == null) {
+      return left;
+    }
+    return fixHeight(parent);
+  }
+
+  private Node<E> rotateLeft(Node<E> parent, Node<E> node, int leftHeight, Node<E> right,
+                             Node<E> rightLeft, int rightLeftHeight, int rightRightHeight) {
+    long nodeOVL = node.version;
+    node.version = nodeOVL | SHRINKING;
+
+    node.right = rightLeft;
+    if (rightLeft != null) {
+      rightLeft.parent = node;
+    }
+    right.left = node;
+    node.parent = right;
+    replaceInParent(parent, node, right);
+
+    int nodeHeight = 1 + Math.max(leftHeight, rightLeftHeight);
+    node.height = nodeHeight;
+    right.height = 1 + Math.max(nodeHeight, rightRightHeight);
+
+    node.version = nodeOVL + SHRINK_COUNT_INCREMENT;
+
+    int nodeBalance = rightLeftHeight - leftHeight;
+    if (nodeBalance < -1 || nodeBalance > 1) {
+      return node;
+    }
+    if ((rightLeft == null || leftHeight == 0) && node.present == null) {
+      return node;
+    }
+    int rightBalance = rightRightHeight - nodeHeight;
+    if (rightBalance < -1 || rightBalance > 1) {
+      return right;
+    }
+    if (rightRightHeight == 0 && right.present == null) {
+      return right;
+    }
+    return fixHeight(parent);
+  }
+
+  private Node<E> rotateRightOverLeft(Node<E> parent, Node<E> node, Node<E> left, int rightHeight,
+                                      int leftLeftHeight, Node<E> leftRight, int leftRightLeftHeight) {
+    long nodeOVL = node.version;
+    long leftOVL = left.version;
+    Node<E> leftRightLeft = leftRight.left;
+    Node<E> leftRightRight = leftRight.right;
+    int leftRightRightHeight = getHeight(leftRightRight);
+
+    node.version = nodeOVL | SHRINKING;
+    left.version = leftOVL | SHRINKING;
+
+    node.left = leftRightRight;
+    if (leftRightRight != null) {
+      leftRightRight.parent = node;
+    }
+    left.right = leftRightLeft;
+    if (leftRightLeft != null) {
+      leftRightLeft.parent = left;
+    }
+    leftRight.left = left;
+    left.parent = leftRight;
+    leftRight.right = node;
+    node.parent = leftRight;
+    replaceInParent(parent, node, leftRight);
+
+    int nodeHeight = 1 + Math.max(leftRightRightHeight, rightHeight);
+    node.height = nodeHeight;
+    int leftNewHeight = 1 + Math.max(leftLeftHeight, leftRightLeftHeight);
+    left.height = leftNewHeight;
+    leftRight.height = 1 + Math.max(leftNewHeight, nodeHeight);
+
+    node.version = nodeOVL + SHRINK_COUNT_INCREMENT;
+    left.version = leftOVL + SHRINK_COUNT_INCREMENT;
+
+    int nodeBalance = leftRightRightHeight - rightHeight;
+    if (nodeBalance < -1 || nodeBalance > 1) {
+      return node;
+    }
+    if ((leftRightRight == null || rightHeight == 0) && node.present == null) {
+      return node;
+    }
+    int leftRightBalance = leftNewHeight - nodeHeight;
+    if (leftRightBalance < -1 || leftRightBalance > 1) {
+      return leftRight;
+    }
+    return fixHeight(parent);
+  }
+
+  private Node<E> rotateLeftOverRight(Node<E> parent, Node<E> node, int leftHeight, Node<E> right,
+                                      Node<E> rightLeft, int rightRightHeight, int rightLeftRightHeight) {
+    long nodeOVL = node.version;
+    long rightOVL = right.version;
+    Node<E> rightLeftLeft = rightLeft.left;
+    Node<E> rightLeftRight = rightLeft.right;
+    int rightLeftLeftHeight = getHeight(rightLeftLeft);
+
+    node.version = nodeOVL | SHRINKING;
+    right.version = rightOVL | SHRINKING;
+
+    node.right = rightLeftLeft;
+    if (rightLeftLeft != null) {
+      rightLeftLeft.parent = node;
+    }
+    right.left = rightLeftRight;
+    if (rightLeftRight != null) {
+      rightLeftRight.parent = right;
+    }
+    rightLeft.right = right;
+    right.parent = rightLeft;
+    rightLeft.left = node;
+    node.parent = rightLeft;
+    replaceInParent(parent, node, rightLeft);
+
+    int nodeHeight = 1 + Math.max(leftHeight, rightLeftLeftHeight);
+    node.height = nodeHeight;
+    int rightNewHeight = 1 + Math.max(rightLeftRightHeight, rightRightHeight);
+    right.height = rightNewHeight;
+    rightLeft.height = 1 + Math.max(nodeHeight, rightNewHeight);
+
+    node.version = nodeOVL + SHRINK_COUNT_INCREMENT;
+    right.version = rightOVL + SHRINK_COUNT_INCREMENT;
+
+    int nodeBalance = rightLeftLeftHeight - leftHeight;
+    if (nodeBalance < -1 || nodeBalance > 1) {
+      return node;
+    }
+    if ((rightLeftLeft == null || leftHeight == 0) && node.present == null) {
+      return node;
+    }
+    int rightLeftBalance = rightNewHeight - nodeHeight;
+    if (rightLeftBalance < -1 || rightLeftBalance > 1) {
+      return rightLeft;
+    }
+    return fixHeight(parent);
+  }
+
+  /**
+   * Ищет наименьший элемент в дереве без блокировок
+   *
+   * @return Возвращает наименьший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  @Override
+  public E first() {
+    E value = lowest(null, false);
+    if (value == null) {
+      throw new NoSuchElementException("first");
+    }
+    return value;
+  }
+
+  /**
+   * Ищет наибольший элемент в дереве без блокировок
+   *
+   * @return Возвращает наибольший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  @Override
+  public E last() {
+    E value = highest(null, false);
+    if (value == null) {
+      throw new NoSuchElementException("last");
+    }
+    return value;
+  }
+
+  @Override
+  public E lowest(E from, boolean inclusive) {
+    return closest(from, inclusive, true);
+  }
+
+  @Override
+  public E highest(E to, boolean inclusive) {
+    return closest(to, inclusive, false);
+  }
+
+  /**
+   * Ближайший к bound присутствующий элемент справа (ascending) или слева от него
+   */
+  @SuppressWarnings("unchecked")
+  private E closest(E bound, boolean inclusive, boolean ascending) {
+    while (true) {
+      Object result = attemptClosestInChild(holder, holder.version, false, bound, inclusive, ascending);
+      if (result != RETRY) {
+        return (E) result;
+      }
+    }
+  }
+
+  /**
+   * Ищет ответ в поддереве node и возвращает его, null, если ответа там нет, или RETRY.
+   * Если node лежит по нужную сторону от bound, то сначала ищет в ближнем к bound поддереве,
+   * затем проверяет сам node, затем дальнее поддерево
+   */
+  private Object attemptClosest(Node<E> node, long nodeOVL, E bound, boolean inclusive, boolean ascending) {
+    int cmp = -1; // no bound - the node is always on the required side
+    if (bound != null) {
+      cmp = ascending ? compare(bound, node.value) : compare(node.value, bound);
+    }
+    if (cmp > 0 || (cmp == 0 && !inclusive)) {
+      return attemptClosestInChild(node, nodeOVL, !ascending, bound, inclusive, ascending);
+    }
+    if (cmp == 0 && node.present != null) {
+      return node.value;
+    }
+    Object result = attemptClosestInChild(node, nodeOVL, ascending, bound, inclusive, ascending);
+    if (result != null) {
+      return result;
+    }
+    if (node.present != null) {
+      return node.version != nodeOVL ? RETRY : node.value;
+    }
+    return attemptClosestInChild(node, nodeOVL, !ascending, bound, inclusive, ascending);
+  }
+
+  private Object attemptClosestInChild(Node<E> node, long nodeOVL, boolean toLeft, E bound, boolean inclusive,
+                                       boolean ascending) {
+    while (true) {
+      Node<E> child = node.child(toLeft);
+      if (node.version != nodeOVL) {
+        return RETRY;
+      }
+      if (child == null) {
+        return null;
+      }
+      long childOVL = child.version;
+      if (isShrinkingOrUnlinked(childOVL)) {
+        child.waitUntilShrinkCompleted(childOVL);
+      } else if (child == node.child(toLeft)) {
+        if (node.version != nodeOVL) {
+          return RETRY;
+        }
+        Object result = attemptClosest(child, childOVL, bound, inclusive, ascending);
+        if (result != RETRY) {
+          return result;
+        }
+      }
+      if (node.version != nodeOVL) {
+        return RETRY;
+      }
+    }
+  }
+
+  /**
+   * Считается обходом за O(n)
+   */
+  @Override
+  public int rank(E value, boolean inclusive) {
+    int rank = 0;
+    for (Iterator<E> iterator = iterator(null, false, value, inclusive); iterator.hasNext(); iterator.next()) {
+      rank++;
+    }
+    return rank;
+  }
+
+  @Override
+  public Comparator<? super E> comparator() {
+    return comparator;
+  }
+
+  /**
+   * Под конкурентными изменениями - приближённое значение
+   */
+  @Override
+  public int size() {
+    return size.intValue();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return holder.right == null || lowest(null, false) == null;
+  }
+
+  @Override
+  public SortedSet<E> subSet(E fromElement, E toElement) {
+    return new SubSetView<>(this, fromElement, true, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> headSet(E toElement) {
+    return new SubSetView<>(this, null, false, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> tailSet(E fromElement) {
+    return new SubSetView<>(this, fromElement, true, null, false);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new TreeIterator(null, false, null, false);
+  }
+
+  @Override
+  public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+    return new TreeIterator(from, fromInclusive, to, toInclusive);
+  }
+
+  /**
+   * Слабо согласованный итератор: каждый следующий элемент ищется спуском от корня
+   */
+  private class TreeIterator implements Iterator<E> {
+    private final E end; // null - up to the last element
+    private final boolean endInclusive;
+    private E next;
+    private E lastReturned;
+
+    TreeIterator(E start, boolean startInclusive, E end, boolean endInclusive) {
+      this.end = end;
+      this.endInclusive = endInclusive;
+      advance(lowest(start, startInclusive));
+    }
+
+    private void advance(E candidate) {
+      if (candidate != null && end != null) {
+        int cmp = compare(candidate, end);
+        if (cmp > 0 || (cmp == 0 && !endInclusive)) {
+          candidate = null;
+        }
+      }
+      next = candidate;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public E next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      advance(lowest(next, false));
+      return lastReturned;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      ConcurrentAVLTree.this.remove(lastReturned);
+      lastReturned = null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stringBuilder = new StringBuilder("ConcurrentAVLTree{size=").append(size()).append(", elements: ");
+    for (E value : this) {
+      stringBuilder.append(value).append(' ');
+    }
+    return stringBuilder.append('}').toString();
+  }
+
+  /**
+   * Проверяет свойства АВЛ-дерева. Корректно только когда нет конкурентных изменений:
+   * <p>
+   * 1) Высоты поддеревьев любого узла отличаются не более чем на 1, сохранённые высоты верны.
+   * 2) У маршрутных узлов ровно два сына, ссылки на родителей согласованы.
+   *
+   * @throws NotBalancedTreeException если какое-либо свойство невыполнено
+   */
+  @Override
+  public void checkBalanced() throws NotBalancedTreeException {
+    traverseTreeAndCheckBalanced(holder.right, holder);
+  }
+
+  private int traverseTreeAndCheckBalanced(Node<E> node, Node<E> parent) throws NotBalancedTreeException {
+    if (node == null) {
+      return 0;
+    }
+    if (node.parent != parent) {
+      throw new NotBalancedTreeException("Parent link is inconsistent.\n" + node.toString());
+    }
+    int leftHeight = traverseTreeAndCheckBalanced(node.left, node);
+    int rightHeight = traverseTreeAndCheckBalanced(node.right, node);
+    if (Math.abs(leftHeight - rightHeight) > 1) {
+      throw NotBalancedTreeException.create("The heights of the two child subtrees of any node must be differ by at most one",
+              leftHeight, rightHeight, node.toString());
+    }
+    int height = Math.max(leftHeight, rightHeight) + 1;
+    if (node.height != height) {
+      throw new NotBalancedTreeException("Stored height " + node.height + " differs from the real one " + height
+              + ".\n" + node.toString());
+    }
+    if (node.present == null && (node.left == null || node.right == null)) {
+      throw new NotBalancedTreeException("Routing node must have two children.\n" + node.toString());
+    }
+    return height;
+  }
+
+}
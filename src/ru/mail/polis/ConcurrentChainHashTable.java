@@ -0,0 +1,280 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасная хеш-таблица с цепочками и разделёнными блокировками.
+ * <p>
+ * Корзины поделены между сегментами по старшим битам хеша, у каждого сегмента свой массив корзин
+ * и свой монитор, поэтому писатели разных сегментов не мешают друг другу.
+ * Читатели не берут блокировок: узел публикуется в корзине уже готовым, а удаление лишь
+ * перекидывает ссылку next предыдущего узла, так что обход цепочки всегда видит целый список.
+ * Сегмент расширяется под своей блокировкой: узлы копируются в новый массив, который затем
+ * публикуется, а читатели до этого продолжают ходить по старому.
+ * <p>
+ * Итераторы слабо согласованы, как у {@link ConcurrentAVLTree}.
+ */
+public class ConcurrentChainHashTable<E> extends AbstractSet<E> implements Set<E> {
+
+  private static final int DEFAULT_CONCURRENCY_LEVEL = 64;
+  private static final int MAX_SEGMENTS = 1 << 16;
+  private static final int INITIAL_SEGMENT_CAPACITY = 4;
+
+  private final Segment<E>[] segments;
+  private final int segmentShift;
+  private final LongAdder size = new LongAdder();
+
+  public ConcurrentChainHashTable() {
+    this(DEFAULT_CONCURRENCY_LEVEL);
+  }
+
+  /**
+   * @param concurrencyLevel ожидаемое число одновременно пишущих потоков,
+   *                         округляется вверх до степени двойки - это число сегментов
+   */
+  @SuppressWarnings("unchecked")
+  public ConcurrentChainHashTable(int concurrencyLevel) {
+    if (concurrencyLevel <= 0) {
+      throw new IllegalArgumentException("concurrencyLevel = " + concurrencyLevel);
+    }
+    int segmentCount = 1;
+    int segmentBits = 0;
+    while (segmentCount < Math.min(concurrencyLevel, MAX_SEGMENTS)) {
+      segmentCount <<= 1;
+      segmentBits++;
+    }
+    segmentShift = 32 - segmentBits;
+    segments = (Segment<E>[]) new Segment<?>[segmentCount];
+    for (int i = 0; i < segmentCount; i++) {
+      segments[i] = new Segment<>();
+    }
+  }
+
+  /**
+   * Старшие биты результата выбирают сегмент, младшие - корзину внутри сегмента
+   */
+  private static int hash(Object value) {
+    return (int) ((value.hashCode() * 0x9E3779B97F4A7C15L) >>> 32);
+  }
+
+  private Segment<E> segmentFor(int hash) {
+    // a shift by 32 is a shift by 0 in Java, so a single segment needs a special case
+    return segments.length == 1 ? segments[0] : segments[hash >>> segmentShift];
+  }
+
+  /**
+   * Вставляет элемент в хеш-таблицу.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в хеш-таблице отсутствовал
+   */
+  @Override
+  public boolean add(E value) {
+    int hash = hash(value);
+    if (!segmentFor(hash).add(value, hash)) {
+      return false;
+    }
+    size.increment();
+    return true;
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из хеш-таблицы.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо удалить
+   * @return true, если элемент содержался в хеш-таблице
+   */
+  @Override
+  public boolean remove(Object object) {
+    int hash = hash(object);
+    if (!segmentFor(hash).remove(object, hash)) {
+      return false;
+    }
+    size.decrement();
+    return true;
+  }
+
+  /**
+   * Ищет элемент с таким же значением в хеш-таблице, не беря блокировок.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо поискать
+   * @return true, если такой элемент содержится в хеш-таблице
+   */
+  @Override
+  public boolean contains(Object object) {
+    int hash = hash(object);
+    return segmentFor(hash).contains(object, hash);
+  }
+
+  /**
+   * @return количество элементов; при одновременных изменениях - приблизительное
+   */
+  @Override
+  public int size() {
+    return (int) Math.max(0, Math.min(size.sum(), Integer.MAX_VALUE));
+  }
+
+  @Override
+  public void clear() {
+    for (Segment<E> segment : segments) {
+      synchronized (segment) {
+        size.add(-segment.count);
+        segment.count = 0;
+        segment.table = new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+      }
+    }
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new TableIterator();
+  }
+
+  private static final class Node<E> {
+    final E value;
+    final int hash;
+    volatile Node<E> next;
+
+    Node(E value, int hash, Node<E> next) {
+      this.value = value;
+      this.hash = hash;
+      this.next = next;
+    }
+  }
+
+  /**
+   * Часть корзин со своей блокировкой. Поля меняются только под монитором сегмента
+   */
+  private static final class Segment<E> {
+    volatile AtomicReferenceArray<Node<E>> table = new AtomicReferenceArray<>(INITIAL_SEGMENT_CAPACITY);
+    int count;
+
+    boolean contains(Object value, int hash) {
+      AtomicReferenceArray<Node<E>> buckets = table;
+      for (Node<E> curr = buckets.get(hash & (buckets.length() - 1)); curr != null; curr = curr.next) {
+        if (curr.hash == hash && value.equals(curr.value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    synchronized boolean add(E value, int hash) {
+      AtomicReferenceArray<Node<E>> buckets = table;
+      int idx = hash & (buckets.length() - 1);
+      Node<E> head = buckets.get(idx);
+      for (Node<E> curr = head; curr != null; curr = curr.next) {
+        if (curr.hash == hash && value.equals(curr.value)) {
+          return false;
+        }
+      }
+      // the node is fully built before the volatile write publishes it to readers
+      buckets.set(idx, new Node<>(value, hash, head));
+      if (++count * 2 >= buckets.length()) {
+        resize();
+      }
+      return true;
+    }
+
+    synchronized boolean remove(Object value, int hash) {
+      AtomicReferenceArray<Node<E>> buckets = table;
+      int idx = hash & (buckets.length() - 1);
+      Node<E> prev = null;
+      for (Node<E> curr = buckets.get(idx); curr != null; prev = curr, curr = curr.next) {
+        if (curr.hash == hash && value.equals(curr.value)) {
+          // a reader standing on curr still reaches the rest of the chain through curr.next
+          if (prev == null) {
+            buckets.set(idx, curr.next);
+          } else {
+            prev.next = curr.next;
+          }
+          count--;
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /**
+     * Копирует узлы в массив вдвое больше: старые узлы не меняются, поэтому читатели старого массива
+     * видят все его элементы до публикации нового
+     */
+    private void resize() {
+      AtomicReferenceArray<Node<E>> old = table;
+      AtomicReferenceArray<Node<E>> buckets = new AtomicReferenceArray<>(old.length() * 2);
+      int mask = buckets.length() - 1;
+      for (int i = 0; i < old.length(); i++) {
+        for (Node<E> curr = old.get(i); curr != null; curr = curr.next) {
+          int idx = curr.hash & mask;
+          buckets.set(idx, new Node<>(curr.value, curr.hash, buckets.get(idx)));
+        }
+      }
+      table = buckets;
+    }
+  }
+
+  /**
+   * Слабо согласованный обход сегментов и их корзин
+   */
+  private class TableIterator implements Iterator<E> {
+    private int segment = -1;
+    private int bucket;
+    private AtomicReferenceArray<Node<E>> buckets;
+    private Node<E> next;
+    private E lastReturned;
+
+    TableIterator() {
+      advance();
+    }
+
+    private void advance() {
+      if (next != null) {
+        next = next.next;
+      }
+      while (next == null) {
+        if (buckets == null || bucket == buckets.length()) {
+          if (++segment == segments.length) {
+            return;
+          }
+          buckets = segments[segment].table;
+          bucket = 0;
+        } else {
+          next = buckets.get(bucket++);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public E next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next.value;
+      advance();
+      return lastReturned;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      ConcurrentChainHashTable.this.remove(lastReturned);
+      lastReturned = null;
+    }
+  }
+
+}
@@ -0,0 +1,408 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасная хеш-таблица с открытой адресацией на CAS, без блокировок.
+ * Последовательность проб та же, что у {@link OpenHashTable}: {@link OpenHashTableEntity#hashCode(int, int)}.
+ * <p>
+ * Ячейка только один раз уходит из null в элемент, а удаление заменяет элемент надгробием,
+ * поэтому два потока, вставляющие равные элементы, борются CAS-ом за одну и ту же первую пустую
+ * ячейку и дубликатов не бывает. Надгробие помнит удалённый элемент, так что ячейка навсегда
+ * остаётся за своим ключом. Надгробия не переиспользуются, их убирает расширение.
+ * <p>
+ * Расширение совместное: поток, заметивший новую таблицу, забирает куски старой по
+ * {@value #MIGRATION_CHUNK} ячеек, замораживает каждую ячейку CAS-ом (после этого в неё нельзя
+ * вставить или удалить), копирует живой элемент и отмечает ячейку перенесённой.
+ * Когда свободных кусков не осталось, поток не ждёт их владельцев, а сам доводит до конца каждую
+ * ещё не перенесённую ячейку, поэтому остановившийся поток не задерживает остальных.
+ * Копия, вставленная дважды или опоздавшая, находит ячейку своего ключа (элемент или надгробие)
+ * и ничего не меняет. Новая таблица публикуется, когда перенесены все ячейки старой.
+ * <p>
+ * Итераторы слабо согласованы, как у {@link ConcurrentAVLTree}.
+ */
+public class ConcurrentOpenHashTable<E extends OpenHashTableEntity> extends AbstractSet<E> implements Set<E> {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int MIGRATION_CHUNK = 64;
+
+  private static final Moved MOVED_EMPTY = new Moved(null, true);
+
+  // results of a single attempt on one table
+  private static final int DONE = 0;
+  private static final int NOT_DONE = 1;
+  private static final int RETRY = 2;
+
+  private final AtomicReference<Table> table = new AtomicReference<>(new Table(INITIAL_CAPACITY));
+  private final LongAdder size = new LongAdder();
+
+  /**
+   * Надгробие удалённого элемента
+   */
+  private static final class Removed {
+    final Object value;
+
+    Removed(Object value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Замороженная ячейка с прежним содержимым: элементом, надгробием или null.
+   * Значение остаётся для итераторов и для поиска ключа опоздавшими копиями
+   */
+  private static final class Moved {
+    final Object value;
+    final boolean copied; // the value is already in the next table, or there is nothing to copy
+
+    Moved(Object value, boolean copied) {
+      this.value = value;
+      this.copied = copied;
+    }
+  }
+
+  private static boolean isLive(Object slot) {
+    return slot != null && !(slot instanceof Removed) && !(slot instanceof Moved);
+  }
+
+  /**
+   * @return true, если ячейка принадлежит ключу value: живому, удалённому или замороженному
+   */
+  private static boolean holdsKey(Object slot, Object value) {
+    if (slot instanceof Moved) {
+      slot = ((Moved) slot).value;
+    }
+    if (slot instanceof Removed) {
+      slot = ((Removed) slot).value;
+    }
+    return slot != null && value.equals(slot);
+  }
+
+  private static final class Table {
+    final AtomicReferenceArray<Object> slots;
+    final int capacity;
+    final AtomicInteger claimed = new AtomicInteger(); // slots that are no longer null
+    final AtomicReference<Table> next = new AtomicReference<>();
+    final AtomicInteger migrationIndex = new AtomicInteger(); // start of the next chunk to migrate
+    final AtomicInteger migrated = new AtomicInteger(); // slots marked as copied
+
+    Table(int capacity) {
+      this.capacity = capacity;
+      this.slots = new AtomicReferenceArray<>(capacity);
+    }
+  }
+
+  /**
+   * Вставляет элемент в хеш-таблицу.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в хеш-таблице отсутствовал
+   */
+  @Override
+  public boolean add(E value) {
+    for (Table t = table.get(); ; t = helpResize(t)) {
+      int result = tryAdd(t, value);
+      if (result != RETRY) {
+        return result == DONE;
+      }
+    }
+  }
+
+  private int tryAdd(Table t, E value) {
+    if (t.next.get() != null) {
+      return RETRY;
+    }
+    int capacity = t.capacity;
+    int step = value.probeStep(capacity);
+    int hash = value.probeStart(capacity);
+    for (int i = 0; i < capacity; i++, hash = OpenHashTable.nextProbe(value, hash, step, i, capacity)) {
+      Object current = t.slots.get(hash);
+      while (current == null) {
+        if (t.claimed.get() >= capacity / 2) {
+          startResize(t);
+          return RETRY;
+        }
+        if (t.slots.compareAndSet(hash, null, value)) {
+          t.claimed.incrementAndGet();
+          size.increment();
+          return DONE;
+        }
+        // lost the slot: it now holds another element, maybe an equal one, or is frozen
+        current = t.slots.get(hash);
+      }
+      if (current instanceof Moved) {
+        return RETRY;
+      }
+      if (isLive(current) && value.equals(current)) {
+        return NOT_DONE;
+      }
+    }
+    startResize(t);
+    return RETRY;
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из хеш-таблицы.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо удалить
+   * @return true, если элемент содержался в хеш-таблице
+   */
+  @Override
+  public boolean remove(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    for (Table t = table.get(); ; t = helpResize(t)) {
+      int result = tryRemove(t, value);
+      if (result != RETRY) {
+        return result == DONE;
+      }
+    }
+  }
+
+  private int tryRemove(Table t, E value) {
+    if (t.next.get() != null) {
+      return RETRY;
+    }
+    int capacity = t.capacity;
+    int step = value.probeStep(capacity);
+    int hash = value.probeStart(capacity);
+    for (int i = 0; i < capacity; i++, hash = OpenHashTable.nextProbe(value, hash, step, i, capacity)) {
+      Object current = t.slots.get(hash);
+      if (current == null) {
+        return NOT_DONE;
+      }
+      if (current instanceof Moved) {
+        return RETRY;
+      }
+      if (isLive(current) && value.equals(current)) {
+        if (t.slots.compareAndSet(hash, current, new Removed(current))) {
+          size.decrement();
+          return DONE;
+        }
+        // removed by another thread or frozen by a resize
+        return t.slots.get(hash) instanceof Moved ? RETRY : NOT_DONE;
+      }
+    }
+    return NOT_DONE;
+  }
+
+  /**
+   * Ищет элемент с таким же значением в хеш-таблице. Не пишет в таблицу и помогает расширению,
+   * только если встретил перенесённую ячейку.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо поискать
+   * @return true, если такой элемент содержится в хеш-таблице
+   */
+  @Override
+  public boolean contains(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    for (Table t = table.get(); ; t = helpResize(t)) {
+      int result = tryContains(t, value);
+      if (result != RETRY) {
+        return result == DONE;
+      }
+    }
+  }
+
+  private int tryContains(Table t, E value) {
+    int capacity = t.capacity;
+    int step = value.probeStep(capacity);
+    int hash = value.probeStart(capacity);
+    for (int i = 0; i < capacity; i++, hash = OpenHashTable.nextProbe(value, hash, step, i, capacity)) {
+      Object current = t.slots.get(hash);
+      if (current == null) {
+        return NOT_DONE;
+      }
+      if (current instanceof Moved) {
+        return RETRY;
+      }
+      if (isLive(current) && value.equals(current)) {
+        return DONE;
+      }
+    }
+    return NOT_DONE;
+  }
+
+  /**
+   * Как и в {@link OpenHashTable}, таблица удваивается, если живых элементов больше четверти,
+   * иначе надгробия вычищаются на месте того же размера
+   */
+  private void startResize(Table t) {
+    if (t.next.get() == null) {
+      int capacity = size.sum() > t.capacity / 4 ? t.capacity * 2 : t.capacity;
+      t.next.compareAndSet(null, new Table(capacity));
+    }
+  }
+
+  /**
+   * Переносит свободные куски t, затем сам доводит перенос оставшихся ячеек, не дожидаясь
+   * потоков, забравших их куски, и публикует следующую таблицу
+   *
+   * @return таблица, на которой нужно повторить операцию
+   */
+  private Table helpResize(Table t) {
+    Table next = t.next.get();
+    if (next == null) {
+      return table.get();
+    }
+    int start;
+    while (t.migrationIndex.get() < t.capacity
+        && (start = t.migrationIndex.getAndAdd(MIGRATION_CHUNK)) < t.capacity) {
+      int end = Math.min(start + MIGRATION_CHUNK, t.capacity);
+      for (int i = start; i < end; i++) {
+        moveSlot(t, i, next);
+      }
+    }
+    if (t.migrated.get() < t.capacity && table.get() == t) {
+      // some chunks are still in progress: finish their slots instead of waiting for the owners
+      for (int i = 0; i < t.capacity; i++) {
+        moveSlot(t, i, next);
+      }
+    }
+    table.compareAndSet(t, next);
+    return next;
+  }
+
+  /**
+   * Замораживает ячейку, копирует её живой элемент и отмечает ячейку перенесённой.
+   * Любой поток может продолжить с любого шага, на котором остановился другой
+   */
+  private void moveSlot(Table t, int i, Table next) {
+    while (true) {
+      Object current = t.slots.get(i);
+      Moved moved;
+      if (current instanceof Moved) {
+        moved = (Moved) current;
+        if (moved.copied) {
+          return;
+        }
+      } else {
+        boolean live = isLive(current);
+        moved = current == null ? MOVED_EMPTY : new Moved(current, !live);
+        if (!t.slots.compareAndSet(i, current, moved)) {
+          continue;
+        }
+        if (!live) {
+          t.migrated.incrementAndGet();
+          return;
+        }
+      }
+      @SuppressWarnings("unchecked")
+      E value = (E) moved.value;
+      copy(next, value);
+      if (t.slots.compareAndSet(i, moved, new Moved(value, true))) {
+        t.migrated.incrementAndGet();
+      }
+      return;
+    }
+  }
+
+  /**
+   * Вставка перенесённого элемента в первую пустую ячейку, если его ключа ещё нет на пути проб.
+   * Ячейки не становятся пустыми снова, поэтому повторная или опоздавшая копия, даже после публикации
+   * таблицы, удаления элемента или следующего расширения, встречает ячейку ключа раньше пустой
+   */
+  private void copy(Table t, E value) {
+    int capacity = t.capacity;
+    int step = value.probeStep(capacity);
+    int hash = value.probeStart(capacity);
+    for (int i = 0; i < capacity; i++, hash = OpenHashTable.nextProbe(value, hash, step, i, capacity)) {
+      Object current = t.slots.get(hash);
+      while (current == null) {
+        if (t.slots.compareAndSet(hash, null, value)) {
+          t.claimed.incrementAndGet();
+          return;
+        }
+        current = t.slots.get(hash);
+      }
+      if (holdsKey(current, value)) {
+        return;
+      }
+    }
+    // the new table is at least as large as the old one, which held this element
+    throw new IllegalStateException("no free slot for a migrated element");
+  }
+
+  /**
+   * @return количество элементов; при одновременных изменениях - приблизительное
+   */
+  @Override
+  public int size() {
+    return (int) Math.max(0, Math.min(size.sum(), Integer.MAX_VALUE));
+  }
+
+  public int getCapacity() {
+    return table.get().capacity;
+  }
+
+  /**
+   * Слабо согласованный обход ячеек одной таблицы. Если во время обхода её перенесли,
+   * элементы берутся из замороженных ячеек
+   */
+  @Override
+  public Iterator<E> iterator() {
+    return new TableIterator(table.get());
+  }
+
+  private class TableIterator implements Iterator<E> {
+    private final Table t;
+    private int index;
+    private E next;
+    private E lastReturned;
+
+    TableIterator(Table t) {
+      this.t = t;
+      advance();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void advance() {
+      next = null;
+      while (next == null && index < t.capacity) {
+        Object current = t.slots.get(index++);
+        if (current instanceof Moved) {
+          current = ((Moved) current).value;
+        }
+        if (isLive(current)) {
+          next = (E) current;
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public E next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      advance();
+      return lastReturned;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      ConcurrentOpenHashTable.this.remove(lastReturned);
+      lastReturned = null;
+    }
+  }
+
+}
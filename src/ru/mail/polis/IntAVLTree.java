@@ -0,0 +1,571 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SortedSet;
+
+/**
+ * АВЛ-дерево для примитивных int ключей.
+ * Узлы хранятся в параллельных массивах (ключ, левый, правый сын, высота),
+ * ссылкой на узел служит его индекс, индекс 0 зарезервирован под пустой узел.
+ * Порядок всегда естественный, {@link #comparator()} возвращает null.
+ */
+public class IntAVLTree extends AbstractSet<Integer> implements BalancedSortedSet<Integer>, OrderedTree<Integer> {
+
+  private static final int NIL = 0;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private int[] keys;
+  private int[] left;
+  private int[] right;
+  private byte[] height; // height of AVL tree with 2^31 nodes is less than 45
+  private int root = NIL;
+  private int size;
+  private int modCount;
+  private int nextIndex = 1; // first never used slot
+  private int freeList = NIL; // removed slots chained through left[]
+
+  public IntAVLTree() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public IntAVLTree(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("initialCapacity < 0");
+    }
+    keys = new int[initialCapacity + 1];
+    left = new int[initialCapacity + 1];
+    right = new int[initialCapacity + 1];
+    height = new byte[initialCapacity + 1];
+  }
+
+  /**
+   * Вставляет элемент в дерево.
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в дереве отсутствовал
+   */
+  public boolean add(int value) {
+    int oldSize = size;
+    root = insert(value, root);
+    if (oldSize == size) {
+      return false;
+    }
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean add(Integer value) {
+    return add(value.intValue());
+  }
+
+  private int insert(int value, int node) {
+    if (node == NIL) {
+      size++;
+      return newNode(value);
+    }
+    int cmp = Integer.compare(value, keys[node]);
+    if (cmp == 0) {
+      return node;
+    }
+    // the arrays may be reallocated by the nested call, so read the field after it returns
+    if (cmp < 0) {
+      int child = insert(value, left[node]);
+      left[node] = child;
+    } else {
+      int child = insert(value, right[node]);
+      right[node] = child;
+    }
+    return balanceNode(node);
+  }
+
+  private int newNode(int value) {
+    int node;
+    if (freeList != NIL) {
+      node = freeList;
+      freeList = left[node];
+    } else {
+      if (nextIndex == keys.length) {
+        grow();
+      }
+      node = nextIndex++;
+    }
+    keys[node] = value;
+    left[node] = NIL;
+    right[node] = NIL;
+    height[node] = 1;
+    return node;
+  }
+
+  private void freeNode(int node) {
+    left[node] = freeList;
+    right[node] = NIL;
+    height[node] = 0;
+    freeList = node;
+  }
+
+  private void grow() {
+    int newLength = Math.max(keys.length << 1, INITIAL_CAPACITY + 1);
+    keys = Arrays.copyOf(keys, newLength);
+    left = Arrays.copyOf(left, newLength);
+    right = Arrays.copyOf(right, newLength);
+    height = Arrays.copyOf(height, newLength);
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из дерева.
+   *
+   * @param value элемент который необходимо удалить
+   * @return true, если элемент содержался в дереве
+   */
+  public boolean remove(int value) {
+    int oldSize = size;
+    root = remove(root, value);
+    if (oldSize == size) {
+      return false;
+    }
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object object) {
+    return object instanceof Integer && remove(((Integer) object).intValue());
+  }
+
+  private int remove(int node, int value) {
+    if (node == NIL) {
+      return NIL;
+    }
+    int cmp = Integer.compare(value, keys[node]);
+    if (cmp == 0) {
+      int l = left[node];
+      int r = right[node];
+      size--;
+      freeNode(node);
+      if (r == NIL) {
+        return l;
+      }
+      int minNode = getMinNode(r);
+      right[minNode] = removeMinNode(r);
+      left[minNode] = l;
+      return balanceNode(minNode);
+    }
+    if (cmp > 0) {
+      right[node] = remove(right[node], value);
+    } else {
+      left[node] = remove(left[node], value);
+    }
+    return balanceNode(node);
+  }
+
+  private int removeMinNode(int node) {
+    if (left[node] == NIL) {
+      return right[node];
+    }
+    left[node] = removeMinNode(left[node]);
+    return balanceNode(node);
+  }
+
+  private int getMinNode(int node) {
+    while (left[node] != NIL) {
+      node = left[node];
+    }
+    return node;
+  }
+
+  private int getMaxNode(int node) {
+    while (right[node] != NIL) {
+      node = right[node];
+    }
+    return node;
+  }
+
+  /**
+   * Ищет элемент с таким же значением в дереве. Не выделяет память.
+   *
+   * @param value элемент который необходимо поискать
+   * @return true, если такой элемент содержится в дереве
+   */
+  public boolean contains(int value) {
+    int curr = root;
+    while (curr != NIL) {
+      int key = keys[curr];
+      if (value == key) {
+        return true;
+      }
+      curr = value < key ? left[curr] : right[curr];
+    }
+    return false;
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    return object instanceof Integer && contains(((Integer) object).intValue());
+  }
+
+  /**
+   * Ищет наименьший элемент в дереве
+   *
+   * @return Возвращает наименьший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  public int firstInt() {
+    if (root == NIL) {
+      throw new NoSuchElementException("first");
+    }
+    return keys[getMinNode(root)];
+  }
+
+  /**
+   * Ищет наибольший элемент в дереве
+   *
+   * @return Возвращает наибольший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  public int lastInt() {
+    if (root == NIL) {
+      throw new NoSuchElementException("last");
+    }
+    return keys[getMaxNode(root)];
+  }
+
+  @Override
+  public Integer first() {
+    return firstInt();
+  }
+
+  @Override
+  public Integer last() {
+    return lastInt();
+  }
+
+  @Override
+  public Comparator<? super Integer> comparator() {
+    return null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    root = NIL;
+    size = 0;
+    nextIndex = 1;
+    freeList = NIL;
+    modCount++;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stringBuilder = new StringBuilder();
+    stringBuilder.append("IntAVLTree{size=").append(size).append(", elements: ");
+    traverseTree(root, stringBuilder);
+    stringBuilder.append('}');
+    return stringBuilder.toString();
+  }
+
+  private void traverseTree(int node, StringBuilder stringBuilder) {
+    if (node == NIL)
+      return;
+    traverseTree(left[node], stringBuilder);
+    stringBuilder.append(keys[node]);
+    stringBuilder.append(" ");
+    traverseTree(right[node], stringBuilder);
+  }
+
+  /**
+   * Живое представление элементов из диапазона [fromElement, toElement).
+   * Границы и first/last находятся спуском от корня, а размеров поддеревьев в узлах нет,
+   * поэтому size представления обходит его элементы
+   *
+   * @throws IllegalArgumentException если fromElement больше toElement
+   */
+  @Override
+  public SortedSet<Integer> subSet(Integer fromElement, Integer toElement) {
+    return new SubSetView<>(this, fromElement, true, toElement, false);
+  }
+
+  /**
+   * Живое представление элементов, меньших toElement
+   *
+   * @see #subSet(Integer, Integer)
+   */
+  @Override
+  public SortedSet<Integer> headSet(Integer toElement) {
+    return new SubSetView<>(this, null, false, toElement, false);
+  }
+
+  /**
+   * Живое представление элементов, не меньших fromElement
+   *
+   * @see #subSet(Integer, Integer)
+   */
+  @Override
+  public SortedSet<Integer> tailSet(Integer fromElement) {
+    return new SubSetView<>(this, fromElement, true, null, false);
+  }
+
+  @Override
+  public Integer lowest(Integer from, boolean inclusive) {
+    int curr = root;
+    int result = NIL;
+    while (curr != NIL) {
+      int cmp = from == null ? -1 : Integer.compare(from, keys[curr]);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = left[curr];
+      } else {
+        curr = right[curr];
+      }
+    }
+    return result == NIL ? null : keys[result];
+  }
+
+  @Override
+  public Integer highest(Integer to, boolean inclusive) {
+    int curr = root;
+    int result = NIL;
+    while (curr != NIL) {
+      int cmp = to == null ? 1 : Integer.compare(to, keys[curr]);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = right[curr];
+      } else {
+        curr = left[curr];
+      }
+    }
+    return result == NIL ? null : keys[result];
+  }
+
+  /**
+   * Считается обходом элементов, меньших value, за O(rank + log n)
+   */
+  @Override
+  public int rank(Integer value, boolean inclusive) {
+    return count(null, false, value, inclusive);
+  }
+
+  /**
+   * Считается обходом диапазона за O(k + log n), где k - ответ
+   */
+  @Override
+  public int count(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+    int count = 0;
+    for (PrimitiveIterator.OfInt iterator = iterator(from, fromInclusive, to, toInclusive); iterator.hasNext(); ) {
+      iterator.nextInt();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Итератор по возрастанию, начинающийся с from и заканчивающийся на to. Граница null - нет ограничения
+   */
+  @Override
+  public PrimitiveIterator.OfInt iterator(Integer from, boolean fromInclusive, Integer to, boolean toInclusive) {
+    return new TreeIterator(true, from, fromInclusive, to, toInclusive);
+  }
+
+  /**
+   * Итератор по возрастанию элементов. {@link PrimitiveIterator.OfInt#nextInt()} не выделяет память.
+   *
+   * @throws java.util.ConcurrentModificationException если дерево изменилось в обход итератора
+   */
+  @Override
+  public PrimitiveIterator.OfInt iterator() {
+    return new TreeIterator(true);
+  }
+
+  /**
+   * Итератор по убыванию элементов
+   *
+   * @see #iterator()
+   */
+  public PrimitiveIterator.OfInt descendingIterator() {
+    return new TreeIterator(false);
+  }
+
+  private class TreeIterator implements PrimitiveIterator.OfInt {
+    private final boolean ascending;
+    private final boolean bounded; // false - up to the last element in the iteration order
+    private final int end;
+    private final boolean endInclusive;
+    private int[] stack;
+    private int depth;
+    private int lastReturned = NIL;
+    private int expectedModCount = modCount;
+
+    TreeIterator(boolean ascending) {
+      this(ascending, null, false, null, false);
+    }
+
+    TreeIterator(boolean ascending, Integer start, boolean startInclusive, Integer end, boolean endInclusive) {
+      this.ascending = ascending;
+      this.bounded = end != null;
+      this.end = bounded ? end : 0;
+      this.endInclusive = endInclusive;
+      this.stack = new int[height[root]];
+      if (start == null) {
+        pushPath(root);
+      } else {
+        seek(start, startInclusive);
+      }
+    }
+
+    /**
+     * Кладёт в стек путь к первому в порядке обхода элементу после bound
+     */
+    private void seek(int bound, boolean inclusive) {
+      int curr = root;
+      while (curr != NIL) {
+        int cmp = Integer.compare(bound, keys[curr]);
+        if (!ascending) {
+          cmp = -cmp;
+        }
+        if (cmp < 0 || (cmp == 0 && inclusive)) {
+          push(curr);
+          curr = ascending ? left[curr] : right[curr];
+        } else {
+          curr = ascending ? right[curr] : left[curr];
+        }
+      }
+    }
+
+    private void pushPath(int node) {
+      while (node != NIL) {
+        push(node);
+        node = ascending ? left[node] : right[node];
+      }
+    }
+
+    private void push(int node) {
+      if (depth == stack.length) {
+        stack = Arrays.copyOf(stack, Math.max(depth << 1, 1));
+      }
+      stack[depth++] = node;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (depth == 0) {
+        return false;
+      }
+      if (!bounded) {
+        return true;
+      }
+      int cmp = Integer.compare(keys[stack[depth - 1]], end);
+      if (!ascending) {
+        cmp = -cmp;
+      }
+      return cmp < 0 || (cmp == 0 && endInclusive);
+    }
+
+    @Override
+    public int nextInt() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      int node = stack[--depth];
+      pushPath(ascending ? right[node] : left[node]);
+      lastReturned = node;
+      return keys[node];
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == NIL) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      int value = keys[lastReturned];
+      lastReturned = NIL;
+      IntAVLTree.this.remove(value);
+      expectedModCount = modCount;
+      // rotations invalidate the saved path, rebuild it for the elements after the removed one
+      depth = 0;
+      seek(value, false);
+    }
+  }
+
+  /**
+   * Обходит дерево и проверяет что высоты двух поддеревьев
+   * различны по высоте не более чем на 1
+   *
+   * @throws NotBalancedTreeException если высоты отличаются более чем на один
+   */
+  @Override
+  public void checkBalanced() throws NotBalancedTreeException {
+    traverseTreeAndCheckBalanced(root);
+  }
+
+  private int traverseTreeAndCheckBalanced(int curr) throws NotBalancedTreeException {
+    if (curr == NIL) {
+      return 1;
+    }
+    int leftHeight = traverseTreeAndCheckBalanced(left[curr]);
+    int rightHeight = traverseTreeAndCheckBalanced(right[curr]);
+    if (Math.abs(leftHeight - rightHeight) > 1) {
+      throw NotBalancedTreeException.create("The heights of the two child subtrees of any node must be differ by at most one",
+              leftHeight, rightHeight, "key = " + keys[curr]);
+    }
+    return Math.max(leftHeight, rightHeight) + 1;
+  }
+
+  private int rotateLeft(int node) {
+    int newRoot = right[node];
+    right[node] = left[newRoot];
+    left[newRoot] = node;
+    fixHeight(node);
+    fixHeight(newRoot);
+    return newRoot;
+  }
+
+  private int rotateRight(int node) {
+    int newRoot = left[node];
+    left[node] = right[newRoot];
+    right[newRoot] = node;
+    fixHeight(node);
+    fixHeight(newRoot);
+    return newRoot;
+  }
+
+  private int balanceNode(int node) {
+    fixHeight(node);
+    int diff = calcDiff(node);
+    if (diff == 2) {
+      if (calcDiff(right[node]) < 0) {
+        right[node] = rotateRight(right[node]);
+      }
+      return rotateLeft(node);
+    } else if (diff == -2) {
+      if (calcDiff(left[node]) > 0) {
+        left[node] = rotateLeft(left[node]);
+      }
+      return rotateRight(node);
+    }
+    return node;
+  }
+
+  private void fixHeight(int node) {
+    height[node] = (byte) (Math.max(height[left[node]], height[right[node]]) + 1);
+  }
+
+  private int calcDiff(int node) {
+    return height[right[node]] - height[left[node]];
+  }
+
+}
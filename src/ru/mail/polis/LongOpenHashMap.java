@@ -0,0 +1,405 @@
+package ru.mail.polis;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Хеш-таблица с открытой адресацией и двойным хешированием для примитивных long ключей,
+ * например идентификаторов студентов.
+ * <p>
+ * Ключи лежат в одном long[]: 0 означает свободную ячейку, {@link Long#MIN_VALUE} - надгробие,
+ * а сами эти два ключа хранятся за концом таблицы, в ячейках capacity и capacity + 1,
+ * поэтому любой long может быть ключом, а проба читает одно слово.
+ * С {@link Student} общий только нечётный шаг {@link #probeStep(long, int)} из id,
+ * начало проб - фибоначчиево хеширование ключа, а не hashCode по всем полям.
+ * Размер таблицы - степень двойки, перехеширование при заполнении 1/2 вместе с надгробиями.
+ * Методы с примитивным ключом не упаковывают его и не выделяют память.
+ */
+public class LongOpenHashMap<V> extends AbstractMap<Long, V> {
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final long FREE = 0L;
+  private static final long DELETED = Long.MIN_VALUE;
+
+  private final boolean storeValues; // false for the key-only table behind LongOpenHashSet
+  private long[] keys; // capacity slots, then the keys FREE and DELETED themselves
+  private Object[] values;
+  private boolean containsFreeKey;
+  private boolean containsDeletedKey;
+  private int size;
+  private int tombstones;
+  private int modCount;
+  private Set<Entry<Long, V>> entrySet;
+
+  public LongOpenHashMap() {
+    this(true);
+  }
+
+  LongOpenHashMap(boolean storeValues) {
+    this.storeValues = storeValues;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity + 2];
+    keys[capacity + 1] = DELETED;
+    values = storeValues ? new Object[capacity + 2] : null;
+  }
+
+  private int capacity() {
+    return keys.length - 2;
+  }
+
+  private boolean isFull(int idx) {
+    int capacity = capacity();
+    if (idx < capacity) {
+      return keys[idx] != FREE && keys[idx] != DELETED;
+    }
+    return idx == capacity ? containsFreeKey : containsDeletedKey;
+  }
+
+  /**
+   * Первая проба - фибоначчиево хеширование: старшие log2(tableSize) бит произведения ключа на 2^64 / phi,
+   * идущие подряд идентификаторы расходятся по всей таблице
+   */
+  static int probeStart(long key, int tableSize) {
+    return (int) ((key * 0x9E3779B97F4A7C15L) >>> (Long.numberOfLeadingZeros(tableSize) + 1));
+  }
+
+  /**
+   * Нечётный шаг из [1, tableSize), поэтому при размере таблицы - степени двойки пробы обходят все ячейки
+   */
+  static int probeStep(long key, int tableSize) {
+    int h = (int) (1 + Math.floorMod(key, (long) tableSize - 1));
+    if (h % 2 == 0) {
+      h -= 1;
+    }
+    return h;
+  }
+
+  /**
+   * @return индекс занятой ячейки с ключом key или -1
+   */
+  private int indexOf(long key) {
+    int capacity = capacity();
+    if (key == FREE || key == DELETED) {
+      int idx = key == FREE ? capacity : capacity + 1;
+      return isFull(idx) ? idx : -1;
+    }
+    int step = probeStep(key, capacity);
+    int idx = probeStart(key, capacity);
+    for (int i = 0; i < capacity; i++, idx = (idx + step) & (capacity - 1)) {
+      long k = keys[idx];
+      if (k == key) {
+        return idx;
+      }
+      if (k == FREE) {
+        return -1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return индекс ячейки с ключом key или -(i + 1), где i - ячейка для вставки:
+   * первое надгробие на пути проб или свободная ячейка
+   */
+  private int slotFor(long key) {
+    int capacity = capacity();
+    if (key == FREE || key == DELETED) {
+      int idx = key == FREE ? capacity : capacity + 1;
+      return isFull(idx) ? idx : -(idx + 1);
+    }
+    int step = probeStep(key, capacity);
+    int idx = probeStart(key, capacity);
+    int firstTombstone = -1;
+    for (int i = 0; i < capacity; i++, idx = (idx + step) & (capacity - 1)) {
+      long k = keys[idx];
+      if (k == key) {
+        return idx;
+      }
+      if (k == FREE) {
+        break;
+      }
+      if (k == DELETED && firstTombstone < 0) {
+        firstTombstone = idx;
+      }
+    }
+    return -((firstTombstone >= 0 ? firstTombstone : idx) + 1);
+  }
+
+  private void insertAt(int idx, long key, Object value) {
+    int capacity = capacity();
+    if (idx == capacity) {
+      containsFreeKey = true;
+    } else if (idx == capacity + 1) {
+      containsDeletedKey = true;
+    } else {
+      if (keys[idx] == DELETED) {
+        tombstones--;
+      }
+      keys[idx] = key;
+    }
+    if (storeValues) {
+      values[idx] = value;
+    }
+    size++;
+    modCount++;
+    if (size + tombstones > capacity / 2) {
+      resize();
+    }
+  }
+
+  /**
+   * Как и в {@link OpenHashTable}, таблица удваивается, если живых ключей больше четверти,
+   * иначе надгробия вычищаются на месте того же размера
+   */
+  private void resize() {
+    long[] oldKeys = keys;
+    Object[] oldValues = values;
+    int oldCapacity = capacity();
+    allocate(size > oldCapacity / 4 ? oldCapacity * 2 : oldCapacity);
+    int capacity = capacity();
+    for (int i = 0; i < oldCapacity; i++) {
+      long key = oldKeys[i];
+      if (key == FREE || key == DELETED) {
+        continue;
+      }
+      int step = probeStep(key, capacity);
+      int idx = probeStart(key, capacity);
+      while (keys[idx] != FREE) {
+        idx = (idx + step) & (capacity - 1);
+      }
+      keys[idx] = key;
+      if (storeValues) {
+        values[idx] = oldValues[i];
+      }
+    }
+    if (storeValues) {
+      values[capacity] = oldValues[oldCapacity];
+      values[capacity + 1] = oldValues[oldCapacity + 1];
+    }
+    tombstones = 0;
+  }
+
+  private void removeAt(int idx) {
+    int capacity = capacity();
+    if (idx == capacity) {
+      containsFreeKey = false;
+    } else if (idx == capacity + 1) {
+      containsDeletedKey = false;
+    } else {
+      keys[idx] = DELETED;
+      tombstones++;
+    }
+    if (storeValues) {
+      values[idx] = null;
+    }
+    size--;
+    modCount++;
+  }
+
+  /**
+   * @return true, если ключ отсутствовал; значение не меняется
+   */
+  boolean addKey(long key) {
+    int idx = slotFor(key);
+    if (idx >= 0) {
+      return false;
+    }
+    insertAt(-(idx + 1), key, null);
+    return true;
+  }
+
+  boolean removeKey(long key) {
+    int idx = indexOf(key);
+    if (idx < 0) {
+      return false;
+    }
+    removeAt(idx);
+    return true;
+  }
+
+  /**
+   * Связывает значение с ключом.
+   *
+   * @return предыдущее значение или null, если ключа не было
+   */
+  public V put(long key, V value) {
+    int idx = slotFor(key);
+    if (idx >= 0) {
+      V old = valueAt(idx);
+      values[idx] = value;
+      return old;
+    }
+    insertAt(-(idx + 1), key, value);
+    return null;
+  }
+
+  @Override
+  public V put(Long key, V value) {
+    return put(key.longValue(), value);
+  }
+
+  /**
+   * Ищет значение по ключу. Не выделяет память.
+   *
+   * @return значение или null, если ключа нет
+   */
+  public V get(long key) {
+    int idx = indexOf(key);
+    return idx < 0 ? null : valueAt(idx);
+  }
+
+  @Override
+  public V get(Object key) {
+    return key instanceof Long ? get(((Long) key).longValue()) : null;
+  }
+
+  /**
+   * Проверяет наличие ключа. Не выделяет память.
+   */
+  public boolean containsKey(long key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return key instanceof Long && containsKey(((Long) key).longValue());
+  }
+
+  /**
+   * Удаляет ключ вместе со значением.
+   *
+   * @return удалённое значение или null, если ключа не было
+   */
+  public V remove(long key) {
+    int idx = indexOf(key);
+    if (idx < 0) {
+      return null;
+    }
+    V old = valueAt(idx);
+    removeAt(idx);
+    return old;
+  }
+
+  @Override
+  public V remove(Object key) {
+    return key instanceof Long ? remove(((Long) key).longValue()) : null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    allocate(INITIAL_CAPACITY);
+    containsFreeKey = false;
+    containsDeletedKey = false;
+    size = 0;
+    tombstones = 0;
+    modCount++;
+  }
+
+  public int getCapacity() {
+    return capacity();
+  }
+
+  @SuppressWarnings("unchecked")
+  private V valueAt(int idx) {
+    return storeValues ? (V) values[idx] : null;
+  }
+
+  @Override
+  public Set<Entry<Long, V>> entrySet() {
+    if (entrySet == null) {
+      entrySet = new AbstractSet<Entry<Long, V>>() {
+        @Override
+        public Iterator<Entry<Long, V>> iterator() {
+          return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+          return size;
+        }
+      };
+    }
+    return entrySet;
+  }
+
+  /**
+   * Обход занятых ячеек, общий для записей отображения и ключей {@link LongOpenHashSet}
+   */
+  class SlotIterator {
+    private int next;
+    private int lastReturned = -1;
+    private int expectedModCount = modCount;
+
+    SlotIterator() {
+      next = skipFree(0);
+    }
+
+    private int skipFree(int idx) {
+      while (idx < keys.length && !isFull(idx)) {
+        idx++;
+      }
+      return idx;
+    }
+
+    public boolean hasNext() {
+      return next < keys.length;
+    }
+
+    int nextSlot() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      next = skipFree(next + 1);
+      return lastReturned;
+    }
+
+    long keyAt(int idx) {
+      return keys[idx];
+    }
+
+    public void remove() {
+      if (lastReturned < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      // a tombstone keeps the other slots in place
+      removeAt(lastReturned);
+      expectedModCount = modCount;
+      lastReturned = -1;
+    }
+  }
+
+  private class EntryIterator extends SlotIterator implements Iterator<Entry<Long, V>> {
+    @Override
+    public Entry<Long, V> next() {
+      int idx = nextSlot();
+      return new SimpleEntry<Long, V>(keys[idx], valueAt(idx)) {
+        @Override
+        public V setValue(V value) {
+          values[idx] = value;
+          return super.setValue(value);
+        }
+      };
+    }
+  }
+
+}
@@ -0,0 +1,99 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+
+/**
+ * Множество примитивных long ключей на таблице {@link LongOpenHashMap} без массива значений.
+ * Подходит для проверки "есть ли студент с таким id" без объекта {@link Student}:
+ * методы с примитивным ключом не упаковывают его и не выделяют память.
+ */
+public class LongOpenHashSet extends AbstractSet<Long> implements Set<Long> {
+
+  private final LongOpenHashMap<Void> map = new LongOpenHashMap<>(false);
+
+  /**
+   * Вставляет элемент в множество.
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в множестве отсутствовал
+   */
+  public boolean add(long value) {
+    return map.addKey(value);
+  }
+
+  @Override
+  public boolean add(Long value) {
+    return add(value.longValue());
+  }
+
+  /**
+   * Удаляет элемент из множества.
+   *
+   * @param value элемент который необходимо удалить
+   * @return true, если элемент содержался в множестве
+   */
+  public boolean remove(long value) {
+    return map.removeKey(value);
+  }
+
+  @Override
+  public boolean remove(Object object) {
+    return object instanceof Long && remove(((Long) object).longValue());
+  }
+
+  /**
+   * Ищет элемент в множестве. Не выделяет память.
+   *
+   * @param value элемент который необходимо поискать
+   * @return true, если такой элемент содержится в множестве
+   */
+  public boolean contains(long value) {
+    return map.containsKey(value);
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    return object instanceof Long && contains(((Long) object).longValue());
+  }
+
+  @Override
+  public int size() {
+    return map.size();
+  }
+
+  @Override
+  public void clear() {
+    map.clear();
+  }
+
+  public int getCapacity() {
+    return map.getCapacity();
+  }
+
+  @Override
+  public PrimitiveIterator.OfLong iterator() {
+    return new KeyIterator();
+  }
+
+  private class KeyIterator implements PrimitiveIterator.OfLong {
+    private final LongOpenHashMap<Void>.SlotIterator slots = map.new SlotIterator();
+
+    @Override
+    public boolean hasNext() {
+      return slots.hasNext();
+    }
+
+    @Override
+    public long nextLong() {
+      return slots.keyAt(slots.nextSlot());
+    }
+
+    @Override
+    public void remove() {
+      slots.remove();
+    }
+  }
+
+}
@@ -0,0 +1,684 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SortedSet;
+
+/**
+ * Красно-чёрное дерево для примитивных long ключей.
+ * Узлы хранятся в параллельных массивах (ключ, левый, правый сын, родитель, цвет),
+ * ссылкой на узел служит его индекс. Индекс 0 — общий чёрный лист (sentinel).
+ * Порядок всегда естественный, {@link #comparator()} возвращает null.
+ */
+public class LongRedBlackTree extends AbstractSet<Long> implements BalancedSortedSet<Long>, OrderedTree<Long> {
+
+  private static final int NIL = 0;
+  private static final int INITIAL_CAPACITY = 16;
+  private static final boolean RED = false;
+  private static final boolean BLACK = true;
+
+  private long[] keys;
+  private int[] left;
+  private int[] right;
+  private int[] parent;
+  private boolean[] color;
+  private int root = NIL;
+  private int size;
+  private int modCount;
+  private int nextIndex = 1; // first never used slot
+  private int freeList = NIL; // removed slots chained through left[]
+
+  public LongRedBlackTree() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public LongRedBlackTree(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("initialCapacity < 0");
+    }
+    keys = new long[initialCapacity + 1];
+    left = new int[initialCapacity + 1];
+    right = new int[initialCapacity + 1];
+    parent = new int[initialCapacity + 1];
+    color = new boolean[initialCapacity + 1];
+    color[NIL] = BLACK;
+  }
+
+  /**
+   * Вставляет элемент в дерево.
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в дереве отсутствовал
+   */
+  public boolean add(long value) {
+    int curr = root;
+    int p = NIL;
+    boolean goLeft = false;
+    while (curr != NIL) {
+      p = curr;
+      long key = keys[curr];
+      if (value == key) {
+        return false;
+      }
+      goLeft = value < key;
+      curr = goLeft ? left[curr] : right[curr];
+    }
+    int node = newNode(value, p);
+    if (p == NIL) {
+      root = node;
+    } else if (goLeft) {
+      left[p] = node;
+    } else {
+      right[p] = node;
+    }
+    fixAfterInsert(node);
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override
+  public boolean add(Long value) {
+    return add(value.longValue());
+  }
+
+  private int newNode(long value, int p) {
+    int node;
+    if (freeList != NIL) {
+      node = freeList;
+      freeList = left[node];
+    } else {
+      if (nextIndex == keys.length) {
+        grow();
+      }
+      node = nextIndex++;
+    }
+    keys[node] = value;
+    left[node] = NIL;
+    right[node] = NIL;
+    parent[node] = p;
+    color[node] = RED;
+    return node;
+  }
+
+  private void freeNode(int node) {
+    left[node] = freeList;
+    right[node] = NIL;
+    parent[node] = NIL;
+    freeList = node;
+  }
+
+  private void grow() {
+    int newLength = Math.max(keys.length << 1, INITIAL_CAPACITY + 1);
+    keys = Arrays.copyOf(keys, newLength);
+    left = Arrays.copyOf(left, newLength);
+    right = Arrays.copyOf(right, newLength);
+    parent = Arrays.copyOf(parent, newLength);
+    color = Arrays.copyOf(color, newLength);
+  }
+
+  private void fixAfterInsert(int curr) {
+    while (color[parent[curr]] == RED) {
+      int p = parent[curr];
+      int grand = parent[p];
+      if (p == left[grand]) {
+        int uncle = right[grand];
+        if (color[uncle] == RED) {
+          color[p] = BLACK;
+          color[uncle] = BLACK;
+          color[grand] = RED;
+          curr = grand;
+        } else {
+          if (curr == right[p]) {
+            curr = p;
+            rotateLeft(curr);
+            p = parent[curr];
+          }
+          color[p] = BLACK;
+          color[grand] = RED;
+          rotateRight(grand);
+        }
+      } else {
+        int uncle = left[grand];
+        if (color[uncle] == RED) {
+          color[p] = BLACK;
+          color[uncle] = BLACK;
+          color[grand] = RED;
+          curr = grand;
+        } else {
+          if (curr == left[p]) {
+            curr = p;
+            rotateRight(curr);
+            p = parent[curr];
+          }
+          color[p] = BLACK;
+          color[grand] = RED;
+          rotateLeft(grand);
+        }
+      }
+    }
+    color[root] = BLACK;
+  }
+
+  private void rotateLeft(int node) {
+    int newRoot = right[node];
+    right[node] = left[newRoot];
+    if (left[newRoot] != NIL) {
+      parent[left[newRoot]] = node;
+    }
+    replaceChild(node, newRoot);
+    left[newRoot] = node;
+    parent[node] = newRoot;
+  }
+
+  private void rotateRight(int node) {
+    int newRoot = left[node];
+    left[node] = right[newRoot];
+    if (right[newRoot] != NIL) {
+      parent[right[newRoot]] = node;
+    }
+    replaceChild(node, newRoot);
+    right[newRoot] = node;
+    parent[node] = newRoot;
+  }
+
+  /**
+   * Подвешивает replacement на место node у родителя node
+   */
+  private void replaceChild(int node, int replacement) {
+    int p = parent[node];
+    if (p == NIL) {
+      root = replacement;
+    } else if (node == left[p]) {
+      left[p] = replacement;
+    } else {
+      right[p] = replacement;
+    }
+    parent[replacement] = p; // may write to the sentinel, it is read back by fixAfterRemove
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из дерева.
+   *
+   * @param value элемент который необходимо удалить
+   * @return true, если элемент содержался в дереве
+   */
+  public boolean remove(long value) {
+    int node = findNode(value);
+    if (node == NIL) {
+      return false;
+    }
+    removeNode(node);
+    return true;
+  }
+
+  /**
+   * Вырезает узел, перевешивая узлы, а не копируя ключи,
+   * поэтому индексы остальных узлов (например, в итераторе) остаются корректными
+   */
+  private void removeNode(int node) {
+    int removed = node;
+    boolean removedColor = color[removed];
+    int child;
+    if (left[node] == NIL) {
+      child = right[node];
+      replaceChild(node, child);
+    } else if (right[node] == NIL) {
+      child = left[node];
+      replaceChild(node, child);
+    } else {
+      removed = getMinNode(right[node]);
+      removedColor = color[removed];
+      child = right[removed];
+      if (parent[removed] == node) {
+        parent[child] = removed;
+      } else {
+        replaceChild(removed, child);
+        right[removed] = right[node];
+        parent[right[removed]] = removed;
+      }
+      replaceChild(node, removed);
+      left[removed] = left[node];
+      parent[left[removed]] = removed;
+      color[removed] = color[node];
+    }
+    if (removedColor == BLACK) {
+      fixAfterRemove(child);
+    }
+    parent[NIL] = NIL;
+    freeNode(node);
+    size--;
+    modCount++;
+  }
+
+  @Override
+  public boolean remove(Object object) {
+    return object instanceof Long && remove(((Long) object).longValue());
+  }
+
+  private void fixAfterRemove(int curr) {
+    while (curr != root && color[curr] == BLACK) {
+      int p = parent[curr];
+      if (curr == left[p]) {
+        int brother = right[p];
+        if (color[brother] == RED) {
+          color[brother] = BLACK;
+          color[p] = RED;
+          rotateLeft(p);
+          brother = right[p];
+        }
+        if (color[left[brother]] == BLACK && color[right[brother]] == BLACK) {
+          color[brother] = RED;
+          curr = p;
+        } else {
+          if (color[right[brother]] == BLACK) {
+            color[left[brother]] = BLACK;
+            color[brother] = RED;
+            rotateRight(brother);
+            brother = right[p];
+          }
+          color[brother] = color[p];
+          color[p] = BLACK;
+          color[right[brother]] = BLACK;
+          rotateLeft(p);
+          curr = root;
+        }
+      } else {
+        int brother = left[p];
+        if (color[brother] == RED) {
+          color[brother] = BLACK;
+          color[p] = RED;
+          rotateRight(p);
+          brother = left[p];
+        }
+        if (color[right[brother]] == BLACK && color[left[brother]] == BLACK) {
+          color[brother] = RED;
+          curr = p;
+        } else {
+          if (color[left[brother]] == BLACK) {
+            color[right[brother]] = BLACK;
+            color[brother] = RED;
+            rotateLeft(brother);
+            brother = left[p];
+          }
+          color[brother] = color[p];
+          color[p] = BLACK;
+          color[left[brother]] = BLACK;
+          rotateRight(p);
+          curr = root;
+        }
+      }
+    }
+    color[curr] = BLACK;
+  }
+
+  private int findNode(long value) {
+    int curr = root;
+    while (curr != NIL) {
+      long key = keys[curr];
+      if (value == key) {
+        return curr;
+      }
+      curr = value < key ? left[curr] : right[curr];
+    }
+    return NIL;
+  }
+
+  private int getMinNode(int node) {
+    while (left[node] != NIL) {
+      node = left[node];
+    }
+    return node;
+  }
+
+  private int getMaxNode(int node) {
+    while (right[node] != NIL) {
+      node = right[node];
+    }
+    return node;
+  }
+
+  private int successor(int node) {
+    if (right[node] != NIL) {
+      return getMinNode(right[node]);
+    }
+    int p = parent[node];
+    while (p != NIL && node == right[p]) {
+      node = p;
+      p = parent[p];
+    }
+    return p;
+  }
+
+  private int predecessor(int node) {
+    if (left[node] != NIL) {
+      return getMaxNode(left[node]);
+    }
+    int p = parent[node];
+    while (p != NIL && node == left[p]) {
+      node = p;
+      p = parent[p];
+    }
+    return p;
+  }
+
+  /**
+   * Ищет элемент с таким же значением в дереве. Не выделяет память.
+   *
+   * @param value элемент который необходимо поискать
+   * @return true, если такой элемент содержится в дереве
+   */
+  public boolean contains(long value) {
+    return findNode(value) != NIL;
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    return object instanceof Long && contains(((Long) object).longValue());
+  }
+
+  /**
+   * Ищет наименьший элемент в дереве
+   *
+   * @return Возвращает наименьший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  public long firstLong() {
+    if (size == 0) {
+      throw new NoSuchElementException("first");
+    }
+    return keys[getMinNode(root)];
+  }
+
+  /**
+   * Ищет наибольший элемент в дереве
+   *
+   * @return Возвращает наибольший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  public long lastLong() {
+    if (size == 0) {
+      throw new NoSuchElementException("last");
+    }
+    return keys[getMaxNode(root)];
+  }
+
+  @Override
+  public Long first() {
+    return firstLong();
+  }
+
+  @Override
+  public Long last() {
+    return lastLong();
+  }
+
+  @Override
+  public Comparator<? super Long> comparator() {
+    return null;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    root = NIL;
+    size = 0;
+    nextIndex = 1;
+    freeList = NIL;
+    modCount++;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("LongRBTree{size=").append(size).append(", elements: ");
+    traverseTree(root, sb);
+    return sb.append('}').toString();
+  }
+
+  private void traverseTree(int node, StringBuilder sb) {
+    if (node == NIL) {
+      return;
+    }
+    traverseTree(left[node], sb);
+    sb.append(keys[node]).append(color[node] == RED ? "(R) " : "(B) ");
+    traverseTree(right[node], sb);
+  }
+
+  /**
+   * Живое представление элементов из диапазона [fromElement, toElement).
+   * Границы и first/last находятся спуском от корня, а размеров поддеревьев в узлах нет,
+   * поэтому size представления обходит его элементы
+   *
+   * @throws IllegalArgumentException если fromElement больше toElement
+   */
+  @Override
+  public SortedSet<Long> subSet(Long fromElement, Long toElement) {
+    return new SubSetView<>(this, fromElement, true, toElement, false);
+  }
+
+  /**
+   * Живое представление элементов, меньших toElement
+   *
+   * @see #subSet(Long, Long)
+   */
+  @Override
+  public SortedSet<Long> headSet(Long toElement) {
+    return new SubSetView<>(this, null, false, toElement, false);
+  }
+
+  /**
+   * Живое представление элементов, не меньших fromElement
+   *
+   * @see #subSet(Long, Long)
+   */
+  @Override
+  public SortedSet<Long> tailSet(Long fromElement) {
+    return new SubSetView<>(this, fromElement, true, null, false);
+  }
+
+  @Override
+  public Long lowest(Long from, boolean inclusive) {
+    int node = lowestNode(from, inclusive);
+    return node == NIL ? null : keys[node];
+  }
+
+  private int lowestNode(Long from, boolean inclusive) {
+    if (from == null) {
+      return root == NIL ? NIL : getMinNode(root);
+    }
+    int curr = root;
+    int result = NIL;
+    while (curr != NIL) {
+      int cmp = Long.compare(from, keys[curr]);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = left[curr];
+      } else {
+        curr = right[curr];
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public Long highest(Long to, boolean inclusive) {
+    int node = highestNode(to, inclusive);
+    return node == NIL ? null : keys[node];
+  }
+
+  private int highestNode(Long to, boolean inclusive) {
+    if (to == null) {
+      return root == NIL ? NIL : getMaxNode(root);
+    }
+    int curr = root;
+    int result = NIL;
+    while (curr != NIL) {
+      int cmp = Long.compare(to, keys[curr]);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = right[curr];
+      } else {
+        curr = left[curr];
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Считается обходом элементов, меньших value, за O(rank + log n)
+   */
+  @Override
+  public int rank(Long value, boolean inclusive) {
+    return count(null, false, value, inclusive);
+  }
+
+  /**
+   * Считается обходом диапазона за O(k + log n), где k - ответ
+   */
+  @Override
+  public int count(Long from, boolean fromInclusive, Long to, boolean toInclusive) {
+    int count = 0;
+    for (PrimitiveIterator.OfLong iterator = iterator(from, fromInclusive, to, toInclusive); iterator.hasNext(); ) {
+      iterator.nextLong();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Итератор по возрастанию, начинающийся с from и заканчивающийся на to. Граница null - нет ограничения
+   */
+  @Override
+  public PrimitiveIterator.OfLong iterator(Long from, boolean fromInclusive, Long to, boolean toInclusive) {
+    return new TreeIterator(lowestNode(from, fromInclusive), true, to, toInclusive);
+  }
+
+  /**
+   * Итератор по возрастанию элементов. Переходит к следующему узлу по массиву parent,
+   * {@link PrimitiveIterator.OfLong#nextLong()} не выделяет память.
+   *
+   * @throws java.util.ConcurrentModificationException если дерево изменилось в обход итератора
+   */
+  @Override
+  public PrimitiveIterator.OfLong iterator() {
+    return new TreeIterator(lowestNode(null, false), true);
+  }
+
+  /**
+   * Итератор по убыванию элементов
+   *
+   * @see #iterator()
+   */
+  public PrimitiveIterator.OfLong descendingIterator() {
+    return new TreeIterator(highestNode(null, false), false);
+  }
+
+  private class TreeIterator implements PrimitiveIterator.OfLong {
+    private final boolean ascending;
+    private final boolean bounded; // false - up to the last element in the iteration order
+    private final long end;
+    private final boolean endInclusive;
+    private int next;
+    private int lastReturned = NIL;
+    private int expectedModCount = modCount;
+
+    TreeIterator(int first, boolean ascending) {
+      this(first, ascending, null, false);
+    }
+
+    TreeIterator(int first, boolean ascending, Long end, boolean endInclusive) {
+      this.next = first;
+      this.ascending = ascending;
+      this.bounded = end != null;
+      this.end = bounded ? end : 0;
+      this.endInclusive = endInclusive;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == NIL) {
+        return false;
+      }
+      if (!bounded) {
+        return true;
+      }
+      int cmp = Long.compare(keys[next], end);
+      if (!ascending) {
+        cmp = -cmp;
+      }
+      return cmp < 0 || (cmp == 0 && endInclusive);
+    }
+
+    @Override
+    public long nextLong() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      next = ascending ? successor(next) : predecessor(next);
+      return keys[lastReturned];
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == NIL) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeNode(lastReturned);
+      lastReturned = NIL;
+      expectedModCount = modCount;
+    }
+  }
+
+  /**
+   * Обходит дерево и проверяет выполнение свойств сбалансированного красно-чёрного дерева
+   * <p>
+   * 1) Корень всегда чёрный.
+   * 2) Если узел красный, то его потомки должны быть чёрными (обратное не всегда верно)
+   * 3) Все пути от узла до листьев содержат одинаковое количество чёрных узлов (чёрная высота)
+   *
+   * @throws NotBalancedTreeException если какое-либо свойство невыполнено
+   */
+  @Override
+  public void checkBalanced() throws NotBalancedTreeException {
+    if (root != NIL) {
+      if (color[root] != BLACK) {
+        throw new NotBalancedTreeException("Root must be black");
+      }
+      traverseTreeAndCheckBalanced(root);
+    }
+  }
+
+  private int traverseTreeAndCheckBalanced(int node) throws NotBalancedTreeException {
+    if (node == NIL) {
+      return 1;
+    }
+    int leftBlackHeight = traverseTreeAndCheckBalanced(left[node]);
+    int rightBlackHeight = traverseTreeAndCheckBalanced(right[node]);
+    if (leftBlackHeight != rightBlackHeight) {
+      throw NotBalancedTreeException.create("Black height must be equal.", leftBlackHeight, rightBlackHeight, "key = " + keys[node]);
+    }
+    if (color[node] == RED) {
+      if (color[left[node]] != BLACK || color[right[node]] != BLACK) {
+        throw new NotBalancedTreeException("If a node is red, then both children must be black.\nkey = " + keys[node]);
+      }
+      return leftBlackHeight;
+    }
+    return leftBlackHeight + 1;
+  }
+
+}
@@ -0,0 +1,485 @@
+package ru.mail.polis;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Хеш-таблица с открытой адресацией и двойным хешированием для строк из строчных латинских букв,
+ * хранящая данные вне кучи.
+ * <p>
+ * Буква занимает 5 бит (a = 1, ..., z = 26), поэтому строка до {@value #INLINE_LETTERS} букв целиком
+ * помещается в long ячейки таблицы, а длина восстанавливается по первой нулевой группе бит.
+ * Более длинные строки лежат в отдельной области: длина и упакованные слова по 12 букв,
+ * а ячейка хранит флаг {@link #INDIRECT} и адрес записи. Таблица и область - прямые буферы,
+ * поэтому в куче остаются только несколько объектов, сколько бы ключей ни было.
+ * <p>
+ * Как требует README: размер таблицы - степень двойки (изначально 8), шаг второго хеша нечётный,
+ * перехеширование при заполнении 1/2 (вместе с надгробиями). Записи удалённых длинных строк
+ * освобождаются при перехешировании, которое переписывает область заново.
+ */
+public class OffHeapStringSet extends AbstractSet<String> implements Set<String> {
+
+  private static final int INITIAL_CAPACITY = 8;
+  private static final int LETTER_BITS = 5;
+  private static final int INLINE_LETTERS = 12;
+
+  private static final long EMPTY = 0L;
+  private static final long TOMBSTONE = 1L << 62; // inline keys use only the low 60 bits
+  private static final long INDIRECT = 1L << 63;
+
+  private static final int SLOT_PAGE_BITS = 20;
+  private static final int ARENA_PAGE_BITS = 16;
+
+  private LongPages slots;
+  private int capacity;
+  private LongPages arena; // records of long keys: length, then packed words
+  private long arenaTop;
+  private boolean containsEmpty; // "" packs to EMPTY, so it is kept aside
+  private int size;
+  private int tombstones;
+  private int modCount;
+
+  public OffHeapStringSet() {
+    capacity = INITIAL_CAPACITY;
+    slots = new LongPages(capacity, SLOT_PAGE_BITS);
+    arena = new LongPages(0, ARENA_PAGE_BITS);
+  }
+
+  /**
+   * Массив long вне кучи, разбитый на страницы, чтобы не упираться в размер одного буфера
+   */
+  private static final class LongPages {
+    private final int pageBits;
+    private LongBuffer[] pages = new LongBuffer[0];
+    private long length;
+
+    /**
+     * Массив меньше страницы получает одну страницу ровно своей длины и дальше не растёт
+     */
+    LongPages(long length, int pageBits) {
+      this.pageBits = pageBits;
+      if (length > 0 && length < 1 << pageBits) {
+        pages = new LongBuffer[]{allocate((int) length)};
+        this.length = length;
+      } else {
+        ensureLength(length);
+      }
+    }
+
+    private static LongBuffer allocate(int length) {
+      return ByteBuffer.allocateDirect(length * Long.BYTES).order(ByteOrder.nativeOrder()).asLongBuffer();
+    }
+
+    /**
+     * Дописывает целые страницы, пока длина не станет не меньше required
+     */
+    void ensureLength(long required) {
+      while (length < required) {
+        LongBuffer[] grown = new LongBuffer[pages.length + 1];
+        System.arraycopy(pages, 0, grown, 0, pages.length);
+        grown[pages.length] = allocate(1 << pageBits);
+        pages = grown;
+        length += 1 << pageBits;
+      }
+    }
+
+    long get(long index) {
+      return pages[(int) (index >>> pageBits)].get((int) index & ((1 << pageBits) - 1));
+    }
+
+    void set(long index, long value) {
+      pages[(int) (index >>> pageBits)].put((int) index & ((1 << pageBits) - 1), value);
+    }
+  }
+
+  private static boolean isValid(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 'a' || c > 'z') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Слово с буквами [from, from + 12) строки, первая буква - в младших битах
+   */
+  private static long pack(String value, int from) {
+    long word = 0;
+    int to = Math.min(from + INLINE_LETTERS, value.length());
+    for (int i = to - 1; i >= from; i--) {
+      word = (word << LETTER_BITS) | (value.charAt(i) - 'a' + 1);
+    }
+    return word;
+  }
+
+  private static int wordCount(int length) {
+    return (length + INLINE_LETTERS - 1) / INLINE_LETTERS;
+  }
+
+  /**
+   * Финальное перемешивание MurmurHash3
+   */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xFF51AFD7ED558CCDL;
+    h ^= h >>> 33;
+    h *= 0xC4CEB9FE1A85EC53L;
+    return h ^ (h >>> 33);
+  }
+
+  /**
+   * Хеш считается по упакованным словам, поэтому его можно получить и из строки, и из записи
+   */
+  private static long hashOf(String value) {
+    if (value.length() <= INLINE_LETTERS) {
+      return mix(pack(value, 0));
+    }
+    long h = mix(value.length());
+    for (int from = 0; from < value.length(); from += INLINE_LETTERS) {
+      h = mix(h ^ pack(value, from));
+    }
+    return h;
+  }
+
+  private static long hashOfSlot(LongPages arena, long slot) {
+    if ((slot & INDIRECT) == 0) {
+      return mix(slot);
+    }
+    long address = slot & ~INDIRECT;
+    int length = (int) arena.get(address);
+    long h = mix(length);
+    for (int i = 1; i <= wordCount(length); i++) {
+      h = mix(h ^ arena.get(address + i));
+    }
+    return h;
+  }
+
+  private int probeStart(long hash) {
+    return (int) hash & (capacity - 1);
+  }
+
+  /**
+   * Нечётный шаг обходит все ячейки таблицы размера степени двойки
+   */
+  private int probeStep(long hash) {
+    return ((int) (hash >>> 32) | 1) & (capacity - 1);
+  }
+
+  private boolean matches(long slot, String value, long inline) {
+    if (value.length() <= INLINE_LETTERS) {
+      return slot == inline;
+    }
+    if ((slot & INDIRECT) == 0) {
+      return false;
+    }
+    long address = slot & ~INDIRECT;
+    if (arena.get(address) != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < wordCount(value.length()); i++) {
+      if (arena.get(address + 1 + i) != pack(value, i * INLINE_LETTERS)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return индекс ячейки со строкой value или -1
+   */
+  private int indexOf(String value, long hash) {
+    long inline = value.length() <= INLINE_LETTERS ? pack(value, 0) : 0;
+    int step = probeStep(hash);
+    int idx = probeStart(hash);
+    for (int i = 0; i < capacity; i++, idx = (idx + step) & (capacity - 1)) {
+      long slot = slots.get(idx);
+      if (slot == EMPTY) {
+        return -1;
+      }
+      if (slot != TOMBSTONE && matches(slot, value, inline)) {
+        return idx;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Вставляет строку в хеш-таблицу.
+   *
+   * @param value строка из строчных латинских букв
+   * @return true, если строка в хеш-таблице отсутствовала
+   * @throws IllegalArgumentException если в строке есть другие символы
+   */
+  @Override
+  public boolean add(String value) {
+    if (!isValid(value)) {
+      throw new IllegalArgumentException("Not a lowercase latin string: " + value);
+    }
+    if (value.isEmpty()) {
+      if (containsEmpty) {
+        return false;
+      }
+      containsEmpty = true;
+      size++;
+      modCount++;
+      return true;
+    }
+    long hash = hashOf(value);
+    long inline = value.length() <= INLINE_LETTERS ? pack(value, 0) : 0;
+    int step = probeStep(hash);
+    int idx = probeStart(hash);
+    int firstTombstone = -1;
+    for (int i = 0; i < capacity; i++, idx = (idx + step) & (capacity - 1)) {
+      long slot = slots.get(idx);
+      if (slot == EMPTY) {
+        break;
+      }
+      if (slot == TOMBSTONE) {
+        if (firstTombstone < 0) {
+          firstTombstone = idx;
+        }
+      } else if (matches(slot, value, inline)) {
+        return false;
+      }
+    }
+    if (firstTombstone >= 0) {
+      idx = firstTombstone;
+      tombstones--;
+    }
+    slots.set(idx, value.length() <= INLINE_LETTERS ? inline : store(value));
+    size++;
+    modCount++;
+    if (size + tombstones > capacity / 2) {
+      resize();
+    }
+    return true;
+  }
+
+  private long store(String value) {
+    long address = arenaTop;
+    int words = wordCount(value.length());
+    arena.ensureLength(address + 1 + words);
+    arena.set(address, value.length());
+    for (int i = 0; i < words; i++) {
+      arena.set(address + 1 + i, pack(value, i * INLINE_LETTERS));
+    }
+    arenaTop = address + 1 + words;
+    return INDIRECT | address;
+  }
+
+  /**
+   * Удваивает таблицу, если живых строк больше четверти, иначе только вычищает надгробия.
+   * Записи длинных строк переписываются в новую область
+   */
+  private void resize() {
+    LongPages oldSlots = slots;
+    LongPages oldArena = arena;
+    int oldCapacity = capacity;
+    int liveSlots = size - (containsEmpty ? 1 : 0);
+    if (liveSlots > oldCapacity / 4) {
+      capacity = oldCapacity << 1;
+    }
+    slots = new LongPages(capacity, SLOT_PAGE_BITS);
+    arena = new LongPages(0, ARENA_PAGE_BITS);
+    arenaTop = 0;
+    for (int i = 0; i < oldCapacity; i++) {
+      long slot = oldSlots.get(i);
+      if (slot == EMPTY || slot == TOMBSTONE) {
+        continue;
+      }
+      long hash = hashOfSlot(oldArena, slot);
+      if ((slot & INDIRECT) != 0) {
+        slot = copyRecord(oldArena, slot & ~INDIRECT);
+      }
+      int step = probeStep(hash);
+      int idx = probeStart(hash);
+      while (slots.get(idx) != EMPTY) {
+        idx = (idx + step) & (capacity - 1);
+      }
+      slots.set(idx, slot);
+    }
+    tombstones = 0;
+  }
+
+  private long copyRecord(LongPages from, long address) {
+    int words = wordCount((int) from.get(address)) + 1;
+    long copy = arenaTop;
+    arena.ensureLength(copy + words);
+    for (int i = 0; i < words; i++) {
+      arena.set(copy + i, from.get(address + i));
+    }
+    arenaTop = copy + words;
+    return INDIRECT | copy;
+  }
+
+  /**
+   * Удаляет строку из хеш-таблицы.
+   *
+   * @param object строка, которую необходимо удалить
+   * @return true, если строка содержалась в хеш-таблице
+   */
+  @Override
+  public boolean remove(Object object) {
+    if (!(object instanceof String) || !isValid((String) object)) {
+      return false;
+    }
+    String value = (String) object;
+    if (value.isEmpty()) {
+      if (!containsEmpty) {
+        return false;
+      }
+      containsEmpty = false;
+      size--;
+      modCount++;
+      return true;
+    }
+    int idx = indexOf(value, hashOf(value));
+    if (idx < 0) {
+      return false;
+    }
+    markDeleted(idx);
+    return true;
+  }
+
+  private void markDeleted(int idx) {
+    slots.set(idx, TOMBSTONE);
+    tombstones++;
+    size--;
+    modCount++;
+  }
+
+  /**
+   * Ищет строку в хеш-таблице, не создавая объектов.
+   *
+   * @param object строка, которую необходимо поискать
+   * @return true, если такая строка содержится в хеш-таблице
+   */
+  @Override
+  public boolean contains(Object object) {
+    if (!(object instanceof String) || !isValid((String) object)) {
+      return false;
+    }
+    String value = (String) object;
+    if (value.isEmpty()) {
+      return containsEmpty;
+    }
+    return indexOf(value, hashOf(value)) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    capacity = INITIAL_CAPACITY;
+    slots = new LongPages(capacity, SLOT_PAGE_BITS);
+    arena = new LongPages(0, ARENA_PAGE_BITS);
+    arenaTop = 0;
+    containsEmpty = false;
+    size = 0;
+    tombstones = 0;
+    modCount++;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  private String decode(long slot) {
+    if ((slot & INDIRECT) == 0) {
+      char[] chars = new char[(64 - Long.numberOfLeadingZeros(slot) + LETTER_BITS - 1) / LETTER_BITS];
+      unpack(slot, chars, 0);
+      return new String(chars);
+    }
+    long address = slot & ~INDIRECT;
+    char[] chars = new char[(int) arena.get(address)];
+    for (int i = 0; i < wordCount(chars.length); i++) {
+      unpack(arena.get(address + 1 + i), chars, i * INLINE_LETTERS);
+    }
+    return new String(chars);
+  }
+
+  private static void unpack(long word, char[] chars, int from) {
+    for (int i = from; word != 0; i++, word >>>= LETTER_BITS) {
+      chars[i] = (char) ('a' - 1 + (word & ((1 << LETTER_BITS) - 1)));
+    }
+  }
+
+  /**
+   * Итератор создаёт строки из упакованных ключей
+   *
+   * @throws ConcurrentModificationException при изменении таблицы не через итератор
+   */
+  @Override
+  public Iterator<String> iterator() {
+    return new TableIterator();
+  }
+
+  private class TableIterator implements Iterator<String> {
+    private int index = -1; // -1 stands for the empty string
+    private int lastReturned = -2;
+    private int expectedModCount = modCount;
+
+    TableIterator() {
+      if (!containsEmpty) {
+        index = skipFree(0);
+      }
+    }
+
+    private int skipFree(int idx) {
+      while (idx < capacity && (slots.get(idx) == EMPTY || slots.get(idx) == TOMBSTONE)) {
+        idx++;
+      }
+      return idx;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return index < capacity;
+    }
+
+    @Override
+    public String next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = index;
+      index = skipFree(index + 1);
+      return lastReturned < 0 ? "" : decode(slots.get(lastReturned));
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned < -1) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (lastReturned < 0) {
+        containsEmpty = false;
+        size--;
+        modCount++;
+      } else {
+        // a tombstone keeps the other slots in place
+        markDeleted(lastReturned);
+      }
+      expectedModCount = modCount;
+      lastReturned = -2;
+    }
+  }
+
+}
@@ -1,16 +1,36 @@
 package ru.mail.polis;
 
 import java.util.*;
+import java.util.function.Consumer;
 
 public class OpenHashTable<E extends OpenHashTableEntity> extends AbstractSet<E> implements Set<E> {
   private static final int INITIAL_CAPACITY = 16;
+  private static final int MIGRATION_STEP = 32; // old slots moved per add/remove during an incremental resize
+  private final boolean incrementalResize;
   private int capacity = INITIAL_CAPACITY;
   private int size = 0;
+  private int tombstones = 0; // deleted slots, they keep probe sequences going until the next rehash
+  private int modCount;
   private E[] table;
   private boolean[] deleted = new boolean[INITIAL_CAPACITY];
+  // the previous table while an incremental resize is in progress, otherwise null
+  private E[] oldTable;
+  private boolean[] oldDeleted;
+  private int migrated; // old slots [0, migrated) are already moved
 
-  @SuppressWarnings("unchecked")
   public OpenHashTable() {
+    this(false);
+  }
+
+  /**
+   * @param incrementalResize если true, то при расширении старая таблица остаётся рядом с новой
+   *                          и переносится по {@value #MIGRATION_STEP} ячеек за каждую вставку или удаление,
+   *                          а поиск до конца переноса смотрит в обе таблицы.
+   *                          Так ни одна операция не перехеширует всю таблицу целиком
+   */
+  @SuppressWarnings("unchecked")
+  public OpenHashTable(boolean incrementalResize) {
+    this.incrementalResize = incrementalResize;
     table = (E[]) new OpenHashTableEntity[INITIAL_CAPACITY];
   }
 
@@ -23,39 +43,219 @@ public class OpenHashTable<E extends OpenHashTableEntity> extends AbstractSet<E>
    */
   @Override
   public boolean add(E value) {
+    migrateStep();
+    if (oldTable != null && indexOf(oldTable, oldDeleted, value) >= 0) {
+      return false;
+    }
     //Используйте value.hashCode(capacity, probId) для вычисления хеша
-    for (int i = 0; i < capacity; i++) {
-      int hash = value.hashCode(capacity, i);
-      if (table[hash] == null || deleted[hash]) {
-        table[value.hashCode(capacity, i)] = value;
-        deleted[hash] = false;
-        size++;
-        if (size > capacity/2) {
-          increaseCapacity();
+    int firstTombstone = -1;
+    int step = value.probeStep(capacity);
+    int hash = value.probeStart(capacity);
+    for (int i = 0; i < capacity; i++, hash = nextProbe(value, hash, step, i, capacity)) {
+      if (table[hash] == null) {
+        if (firstTombstone < 0) {
+          insertAt(hash, value);
+        } else {
+          insertAt(firstTombstone, value);
         }
         return true;
       }
-      if (table[hash].equals(value))
+      if (deleted[hash]) {
+        // the value may still be further along the probe sequence, so only remember the slot
+        if (firstTombstone < 0) {
+          firstTombstone = hash;
+        }
+      } else if (table[hash].equals(value)) {
         return false;
+      }
     }
-    return false;
+    if (firstTombstone < 0) {
+      return false;
+    }
+    insertAt(firstTombstone, value);
+    return true;
+  }
+
+  private void insertAt(int hash, E value) {
+    place(hash, value);
+    size++;
+    modCount++;
+    // tombstones end no probe sequence, so they count towards the load as well
+    if (size + tombstones > capacity / 2) {
+      resize(size > capacity / 4 ? capacity * 2 : capacity);
+    }
+  }
+
+  private void place(int hash, E value) {
+    if (deleted[hash]) {
+      deleted[hash] = false;
+      tombstones--;
+    }
+    table[hash] = value;
+  }
+
+  private void resize(int newCapacity) {
+    if (!incrementalResize) {
+      rehash(newCapacity);
+      return;
+    }
+    // a migration is always finished long before the new table fills up, this is only a safeguard
+    completeResize();
+    startResize(newCapacity);
   }
 
   /**
-   * Rehashing and increasing capacity
+   * Перехеширует живые элементы в таблицу размера newCapacity и убирает все надгробия.
+   * При том же размере таблица уплотняется на месте, без выделения новых массивов
    */
   @SuppressWarnings("unchecked")
-  private void increaseCapacity() {
-    E[] tempTable = Arrays.copyOf(table, table.length); //DO BETTER
-    boolean[] oldDeleted = Arrays.copyOf(deleted, deleted.length);
-    table = (E[]) new OpenHashTableEntity[capacity*=2];
-    deleted = new boolean[capacity];
-    size = 0;
-    for (int i = 0; i < tempTable.length; i++) {
-      if (tempTable[i] != null && !oldDeleted[i]) {
-        add(tempTable[i]);
+  private void rehash(int newCapacity) {
+    if (newCapacity == capacity) {
+      compact();
+      return;
+    }
+    Object[] live = new Object[size];
+    int count = 0;
+    for (int i = 0; i < capacity; i++) {
+      if (table[i] != null && !deleted[i]) {
+        live[count++] = table[i];
+      }
+    }
+    table = (E[]) new OpenHashTableEntity[newCapacity];
+    deleted = new boolean[newCapacity];
+    capacity = newCapacity;
+    tombstones = 0;
+    for (Object value : live) {
+      // all values are distinct and there are no tombstones yet, so take the first empty slot
+      placeNew((E) value);
+    }
+    modCount++;
+  }
+
+  /**
+   * Убирает надгробия и заново раскладывает живые элементы в тех же массивах.
+   * Пока идёт раскладка, deleted[i] означает, что элемент в ячейке i ещё не переложен
+   */
+  private void compact() {
+    for (int i = 0; i < capacity; i++) {
+      if (deleted[i]) {
+        table[i] = null;
+        deleted[i] = false;
+      } else if (table[i] != null) {
+        deleted[i] = true;
+      }
+    }
+    for (int i = 0; i < capacity; i++) {
+      if (!deleted[i]) {
+        continue;
+      }
+      E value = table[i];
+      table[i] = null;
+      deleted[i] = false;
+      // every swap settles one element for good, so the loop ends after at most size swaps
+      while (value != null) {
+        int step = value.probeStep(capacity);
+        int hash = value.probeStart(capacity);
+        for (int probe = 1; table[hash] != null && !deleted[hash]; probe++) {
+          if (probe == capacity) {
+            throw new IllegalStateException("Probe sequence of " + value + " misses free slots");
+          }
+          hash = nextProbe(value, hash, step, probe, capacity);
+        }
+        E displaced = table[hash];
+        table[hash] = value;
+        deleted[hash] = false;
+        value = displaced;
+      }
+    }
+    tombstones = 0;
+    modCount++;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void startResize(int newCapacity) {
+    oldTable = table;
+    oldDeleted = deleted;
+    migrated = 0;
+    table = (E[]) new OpenHashTableEntity[newCapacity];
+    deleted = new boolean[newCapacity];
+    capacity = newCapacity;
+    tombstones = 0;
+    modCount++;
+  }
+
+  /**
+   * Переносит следующие MIGRATION_STEP ячеек старой таблицы в новую
+   */
+  private void migrateStep() {
+    if (oldTable != null) {
+      migrate(Math.min(migrated + MIGRATION_STEP, oldTable.length));
+    }
+  }
+
+  private void completeResize() {
+    if (oldTable != null) {
+      migrate(oldTable.length);
+    }
+  }
+
+  private void migrate(int end) {
+    for (; migrated < end; migrated++) {
+      E value = oldTable[migrated];
+      if (value != null && !oldDeleted[migrated]) {
+        placeNew(value);
+        // a tombstone, not null: the slot may lie on probe sequences of elements not moved yet
+        oldDeleted[migrated] = true;
+      }
+    }
+    if (migrated == oldTable.length) {
+      oldTable = null;
+      oldDeleted = null;
+    }
+    modCount++;
+  }
+
+  /**
+   * Кладёт элемент, которого точно нет в новой таблице, в первую свободную или удалённую ячейку
+   */
+  private void placeNew(E value) {
+    int step = value.probeStep(capacity);
+    int hash = value.probeStart(capacity);
+    for (int i = 0; i < capacity; i++, hash = nextProbe(value, hash, step, i, capacity)) {
+      if (table[hash] == null || deleted[hash]) {
+        place(hash, value);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Индекс пробы probId по индексу предыдущей пробы. Размер таблицы - степень двойки,
+   * поэтому для линейной последовательности проб это сложение и маска
+   */
+  static int nextProbe(OpenHashTableEntity value, int hash, int step, int probId, int tableSize) {
+    if (step != 0) {
+      return (hash + step) & (tableSize - 1);
+    }
+    return probId < tableSize ? value.hashCode(tableSize, probId) : hash;
+  }
+
+  /**
+   * @return индекс живой ячейки с элементом, равным value, или -1
+   */
+  private int indexOf(E[] slots, boolean[] tombstoneFlags, E value) {
+    int slotCount = slots.length;
+    int step = value.probeStep(slotCount);
+    int hash = value.probeStart(slotCount);
+    for (int i = 0; i < slotCount; i++, hash = nextProbe(value, hash, step, i, slotCount)) {
+      if (slots[hash] == null) {
+        return -1;
+      }
+      if (!tombstoneFlags[hash] && slots[hash].equals(value)) {
+        return hash;
       }
     }
+    return -1;
   }
 
   /**
@@ -69,21 +269,31 @@ public class OpenHashTable<E extends OpenHashTableEntity> extends AbstractSet<E>
   public boolean remove(Object object) {
     @SuppressWarnings("unchecked")
     E value = (E) object;
-    for (int i = 0; i < capacity; i++) {
-      int hash = value.hashCode(capacity, i);
-      if (table[hash] != null ) {
-        if (table[hash].equals(value) && !deleted[hash]) {
-          deleted[hash] = true;
-          size--;
-          return true;
-        }
-      } else {
-        return false;
+    migrateStep();
+    int hash = indexOf(table, deleted, value);
+    if (hash >= 0) {
+      markDeleted(hash);
+      return true;
+    }
+    if (oldTable != null) {
+      hash = indexOf(oldTable, oldDeleted, value);
+      if (hash >= 0) {
+        oldDeleted[hash] = true;
+        size--;
+        modCount++;
+        return true;
       }
     }
     return false;
   }
 
+  private void markDeleted(int hash) {
+    deleted[hash] = true;
+    tombstones++;
+    size--;
+    modCount++;
+  }
+
   /**
    * Ищет элемент с таким же значением в хеш-таблице.
    * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
@@ -95,31 +305,181 @@ public class OpenHashTable<E extends OpenHashTableEntity> extends AbstractSet<E>
   public boolean contains(Object object) {
     @SuppressWarnings("unchecked")
     E value = (E) object;
-    for (int i = 0; i < capacity; i++) {
-      int hash = value.hashCode(capacity, i);
-      if (table[hash] != null) {
-        if (table[hash].equals(value) && !deleted[hash]) {
-          return true;
-        }
-      } else {
-        return false;
-      }
-    }
-    return false;
+    return indexOf(table, deleted, value) >= 0 || (oldTable != null && indexOf(oldTable, oldDeleted, value) >= 0);
   }
 
   public int getCapacity() {
     return capacity;
   }
 
+  /**
+   * @return количество удалённых ячеек, ещё не убранных перехешированием
+   */
+  public int getTombstoneCount() {
+    return tombstones;
+  }
+
   @Override
   public int size() {
     return size;
   }
 
+  /**
+   * Итератор по ячейкам таблицы, пропускает пустые и удалённые ячейки.
+   * Незаконченное постепенное расширение перед обходом доводится до конца
+   *
+   * @throws ConcurrentModificationException при изменении таблицы не через итератор
+   */
   @Override
   public Iterator<E> iterator() {
-    throw new UnsupportedOperationException();
+    completeResize();
+    return new TableIterator();
+  }
+
+  /**
+   * Делится по диапазонам индексов таблицы, поэтому parallelStream обрабатывает части таблицы независимо.
+   * Как и у {@link HashMap}, точный размер известен только до первого деления, дальше - оценка
+   */
+  @Override
+  public Spliterator<E> spliterator() {
+    completeResize();
+    return new TableSpliterator(0, -1, 0, 0);
+  }
+
+  private class TableIterator implements Iterator<E> {
+    private int next; // index of the next occupied slot or capacity
+    private int lastReturned = -1;
+    private int expectedModCount = modCount;
+
+    TableIterator() {
+      next = skipEmpty(0);
+    }
+
+    private int skipEmpty(int index) {
+      while (index < table.length && (table[index] == null || deleted[index])) {
+        index++;
+      }
+      return index;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < table.length;
+    }
+
+    @Override
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      next = skipEmpty(next + 1);
+      return table[lastReturned];
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      // the slot becomes a tombstone, other elements stay where they are
+      markDeleted(lastReturned);
+      expectedModCount = modCount;
+      lastReturned = -1;
+    }
+  }
+
+  private class TableSpliterator implements Spliterator<E> {
+    private int index;
+    private int fence; // -1 until the first use, then the end of the range
+    private int estimate;
+    private int expectedModCount;
+
+    TableSpliterator(int origin, int fence, int estimate, int expectedModCount) {
+      this.index = origin;
+      this.fence = fence;
+      this.estimate = estimate;
+      this.expectedModCount = expectedModCount;
+    }
+
+    private int getFence() {
+      if (fence < 0) {
+        // bind to the table at the first use rather than at creation
+        fence = table.length;
+        estimate = size;
+        expectedModCount = modCount;
+      }
+      return fence;
+    }
+
+    @Override
+    public Spliterator<E> trySplit() {
+      int high = getFence();
+      int mid = (index + high) >>> 1;
+      if (index >= mid) {
+        return null;
+      }
+      estimate >>>= 1;
+      Spliterator<E> prefix = new TableSpliterator(index, mid, estimate, expectedModCount);
+      index = mid;
+      return prefix;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super E> action) {
+      Objects.requireNonNull(action);
+      int high = getFence();
+      E[] slots = table;
+      boolean[] tombstones = deleted;
+      while (index < high) {
+        E value = slots[index];
+        boolean live = value != null && !tombstones[index];
+        index++;
+        if (live) {
+          action.accept(value);
+          if (modCount != expectedModCount) {
+            throw new ConcurrentModificationException();
+          }
+          return true;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super E> action) {
+      Objects.requireNonNull(action);
+      int high = getFence();
+      E[] slots = table;
+      boolean[] tombstones = deleted;
+      for (int i = index; i < high; i++) {
+        E value = slots[i];
+        if (value != null && !tombstones[i]) {
+          action.accept(value);
+        }
+      }
+      index = high;
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+    }
+
+    @Override
+    public long estimateSize() {
+      getFence();
+      return estimate;
+    }
+
+    @Override
+    public int characteristics() {
+      return (fence < 0 || estimate == size ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.NONNULL;
+    }
   }
 
 }
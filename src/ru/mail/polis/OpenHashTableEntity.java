@@ -26,4 +26,27 @@ public interface OpenHashTableEntity {
    */
   int hashCode(int tableSize, int probId) throws IllegalArgumentException;
 
+  /**
+   * Индекс первой пробы, совпадает с hashCode(tableSize, 0).
+   * Таблица вызывает его один раз за операцию
+   *
+   * @param tableSize — текущий размер хеш-таблицы
+   * @return индекс ячейки для пробы 0
+   */
+  default int probeStart(int tableSize) {
+    return hashCode(tableSize, 0);
+  }
+
+  /**
+   * Шаг двойного хеширования. Если он не равен 0, то для любого probId
+   * hashCode(tableSize, probId) == (probeStart(tableSize) + probId * probeStep(tableSize)) % tableSize,
+   * и таблица вычисляет следующие пробы сложением, не вызывая hashCode(tableSize, probId)
+   *
+   * @param tableSize — текущий размер хеш-таблицы
+   * @return шаг из [1, tableSize) или 0, если последовательность проб не линейная
+   */
+  default int probeStep(int tableSize) {
+    return 0;
+  }
+
 }
@@ -0,0 +1,40 @@
+package ru.mail.polis;
+
+import java.util.Iterator;
+import java.util.SortedSet;
+
+/**
+ * Навигация по дереву поиска, на которой строятся представления {@link SubSetView}.
+ * Граница, равная null, означает отсутствие ограничения с этой стороны.
+ */
+interface OrderedTree<E> extends SortedSet<E> {
+
+  /**
+   * @return наименьший элемент, больший from (или равный ему, если inclusive), либо null
+   */
+  E lowest(E from, boolean inclusive);
+
+  /**
+   * @return наибольший элемент, меньший to (или равный ему, если inclusive), либо null
+   */
+  E highest(E to, boolean inclusive);
+
+  /**
+   * @return количество элементов меньших value (или не больших, если inclusive)
+   */
+  int rank(E value, boolean inclusive);
+
+  /**
+   * @return итератор по возрастанию, начинающийся с from и заканчивающийся на to
+   */
+  Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive);
+
+  /**
+   * Количество элементов в диапазоне, вычисляется через {@link #rank(Object, boolean)}
+   */
+  default int count(E from, boolean fromInclusive, E to, boolean toInclusive) {
+    int high = to == null ? size() : rank(to, toInclusive);
+    int low = from == null ? 0 : rank(from, !fromInclusive);
+    return Math.max(high - low, 0);
+  }
+}
@@ -0,0 +1,148 @@
+package ru.mail.polis;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import ru.mail.polis.Student.Gender;
+
+import static ru.mail.polis.SimpleStudentGenerator.EMAIL_SUFFIX;
+import static ru.mail.polis.SimpleStudentGenerator.EMAIL_USERNAME_LENGTH;
+import static ru.mail.polis.SimpleStudentGenerator.MAX_LETTER_CODE;
+import static ru.mail.polis.SimpleStudentGenerator.MAX_YEARS_AFTER_ADMISSION;
+import static ru.mail.polis.SimpleStudentGenerator.MAX_YEARS_AFTER_BIRTHDAY;
+import static ru.mail.polis.SimpleStudentGenerator.MIN_GROUP_ID;
+import static ru.mail.polis.SimpleStudentGenerator.MIN_LETTER_CODE;
+import static ru.mail.polis.SimpleStudentGenerator.MIN_PHONE_NUMBER;
+import static ru.mail.polis.SimpleStudentGenerator.MIN_YEAR_OF_ADMISSION;
+import static ru.mail.polis.SimpleStudentGenerator.MIN_YEAR_OF_BIRTHDAY;
+import static ru.mail.polis.SimpleStudentGenerator.URL_PREFIX;
+import static ru.mail.polis.SimpleStudentGenerator.femaleFirstNames;
+import static ru.mail.polis.SimpleStudentGenerator.lastNames;
+import static ru.mail.polis.SimpleStudentGenerator.maleFirstNames;
+
+/**
+ * Воспроизводимый генератор студентов с теми же распределениями полей, что у {@link SimpleStudentGenerator}.
+ * <p>
+ * Студенты делятся на блоки по {@link #CHUNK_SIZE}. Блок номер i генерируется своим {@link SplittableRandom},
+ * чьё зерно зависит только от seed и i, и получает свой диапазон идентификаторов. Поэтому блоки
+ * генерируются на разных ядрах без общего состояния, а результат для одного seed не зависит
+ * от количества потоков и порядка обработки блоков.
+ */
+public class ParallelStudentGenerator {
+
+  /**
+   * Количество студентов в блоке - единице параллельной работы
+   */
+  static final int CHUNK_SIZE = 1 << 12;
+
+  private final long seed;
+
+  public ParallelStudentGenerator(long seed) {
+    this.seed = seed;
+  }
+
+  /**
+   * Поток count студентов с идентификаторами из диапазона, зарезервированного в {@link Student}.
+   * Поток последовательный, вызов {@link Stream#parallel()} раздаёт блоки ядрам, порядок сохраняется
+   */
+  public Stream<Student> stream(long count) {
+    return stream(Student.reserveIds(count), count);
+  }
+
+  /**
+   * Поток count студентов с идентификаторами firstId, firstId + 1, ...
+   * Для одинаковых seed, firstId и count выдаёт одинаковых студентов.
+   * Перед генерацией блока счётчик {@link Student} один раз сдвигается за его последний идентификатор,
+   * чтобы новые студенты их не получили. Уже выданные идентификаторы не проверяются:
+   * вызывающий отвечает за то, чтобы диапазон с ними не пересекался
+   */
+  public Stream<Student> stream(long firstId, long count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0");
+    }
+    long chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    return LongStream.range(0, chunks)
+        .mapToObj(chunk -> {
+          Student[] students = new Student[(int) Math.min(CHUNK_SIZE, count - chunk * CHUNK_SIZE)];
+          fill(students, 0, firstId, chunk);
+          return students;
+        })
+        .flatMap(Arrays::stream);
+  }
+
+  /**
+   * Генерирует count студентов параллельно прямо в результирующий массив. Идентификаторы резервируются
+   * в {@link Student}, остальные поля те же, что у {@link #stream(long, long)} с тем же seed
+   */
+  public Student[] generate(int count) {
+    if (count < 0) {
+      throw new IllegalArgumentException("count < 0");
+    }
+    Student[] students = new Student[count];
+    long firstId = Student.reserveIds(count);
+    int chunks = (count + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    IntStream.range(0, chunks).parallel().forEach(chunk -> fill(students, chunk * CHUNK_SIZE, firstId, chunk));
+    return students;
+  }
+
+  /**
+   * Заполняет блок chunk, начиная с from, пока не кончится блок или массив.
+   * Счётчик идентификаторов сдвигается один раз на блок, а не на каждого студента
+   */
+  private void fill(Student[] students, int from, long firstId, long chunk) {
+    SplittableRandom random = new SplittableRandom(chunkSeed(chunk));
+    long id = firstId + chunk * CHUNK_SIZE;
+    int to = (int) Math.min(students.length, from + (long) CHUNK_SIZE);
+    Student.advanceIds(id + (to - from));
+    char[] username = new char[EMAIL_USERNAME_LENGTH];
+    for (int i = from; i < to; i++) {
+      students[i] = generate(random, id++, username);
+    }
+  }
+
+  /**
+   * Зерно блока: перемешанные seed и номер блока, так что соседние блоки и зёрна дают несвязанные последовательности
+   */
+  private long chunkSeed(long chunk) {
+    long z = seed + (chunk + 1) * 0x9E3779B97F4A7C15L;
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+
+  private static Student generate(SplittableRandom random, long id, char[] username) {
+    Gender gender = random.nextBoolean() ? Gender.MALE : Gender.FEMALE;
+    String[] firstNames = gender == Gender.MALE ? maleFirstNames : femaleFirstNames;
+    String firstName = firstNames[random.nextInt(firstNames.length)];
+    String lastName = lastNames[random.nextInt(lastNames.length)];
+    // same dates as SimpleStudentGenerator: 1 Jan of the year plus 1..12 months plus 1..28 days
+    int months = 1 + random.nextInt(12);
+    LocalDate birthday = LocalDate.of(
+        MIN_YEAR_OF_BIRTHDAY.getYear() + random.nextInt(MAX_YEARS_AFTER_BIRTHDAY + 1) + months / 12, months % 12 + 1, 1)
+        .plusDays(1 + random.nextInt(28));
+    int groupId = MIN_GROUP_ID + random.nextInt(100);
+    int yearOfAdmission = MIN_YEAR_OF_ADMISSION.getYear() + random.nextInt(MAX_YEARS_AFTER_ADMISSION + 1);
+    String photoReference = null;
+    String email = null;
+    String mobile = null;
+    if (random.nextBoolean()) {
+      photoReference = URL_PREFIX + 1000000 + random.nextInt(1000000);
+    }
+    if (random.nextBoolean()) {
+      for (int i = 0; i < username.length; i++) {
+        username[i] = (char) (MIN_LETTER_CODE + random.nextInt(MAX_LETTER_CODE - MIN_LETTER_CODE + 1));
+      }
+      email = new String(username) + EMAIL_SUFFIX;
+    }
+    if (random.nextBoolean()) {
+      mobile = Integer.toString(MIN_PHONE_NUMBER + random.nextInt(MIN_PHONE_NUMBER));
+    }
+    return Student.withReservedId(id, firstName, lastName, gender, birthday, groupId, yearOfAdmission,
+        photoReference, email, mobile);
+  }
+
+}
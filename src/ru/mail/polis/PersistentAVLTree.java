@@ -0,0 +1,489 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * Персистентное АВЛ-дерево: узлы неизменяемы, вставка и удаление копируют только путь
+ * от корня до изменённого узла (и узлы поворотов на нём), остальные поддеревья разделяются между версиями.
+ * <p>
+ * {@link #snapshot()} за O(1) возвращает неизменяемую версию дерева,
+ * читать которую можно из любых потоков без синхронизации, пока писатель продолжает изменять дерево.
+ * Изменяющие методы синхронизированы между собой, новая версия публикуется через volatile корень.
+ * <p>
+ * Расход памяти: вставка создаёт не более h + 2 новых узлов, где h ≤ 1.44·log2(n + 2) — высота дерева
+ * (путь плюс два узла единственного большого поворота), удаление - обычно столько же и не более 3h,
+ * если повороты понадобились на каждом уровне.
+ * Узел занимает 32 байта (заголовок 12, ссылки value/left/right по 4, height и size по 4, со сжатыми ссылками),
+ * то есть версия дерева из миллиона элементов обычно стоит 20-30 узлов ≈ 1 КБ сверх предыдущей.
+ * Версии, на которые не ссылается ни один снимок, сразу становятся мусором.
+ */
+public class PersistentAVLTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E>, OrderedTree<E> {
+
+  private final Comparator<E> comparator;
+  private final boolean readOnly;
+  private volatile Node<E> root;
+  private int modCount;
+
+  static final class Node<E> {
+    final E value;
+    final Node<E> left;
+    final Node<E> right;
+    final int height;
+    final int size; // number of nodes in the subtree
+
+    Node(E value, Node<E> left, Node<E> right) {
+      this.value = value;
+      this.left = left;
+      this.right = right;
+      this.height = Math.max(getHeight(left), getHeight(right)) + 1;
+      this.size = getSize(left) + getSize(right) + 1;
+    }
+
+    @Override
+    public String toString() {
+      return "Node{" +
+              "value=" + value +
+              ", left=" + left +
+              ", right=" + right +
+              ", height=" + height +
+              '}';
+    }
+  }
+
+  public PersistentAVLTree() {
+    this(null);
+  }
+
+  public PersistentAVLTree(Comparator<E> comparator) {
+    this(comparator, null, false);
+  }
+
+  private PersistentAVLTree(Comparator<E> comparator, Node<E> root, boolean readOnly) {
+    this.comparator = comparator;
+    this.root = root;
+    this.readOnly = readOnly;
+  }
+
+  /**
+   * Возвращает неизменяемый снимок текущей версии дерева за O(1).
+   * Последующие изменения дерева не видны в снимке
+   */
+  public PersistentAVLTree<E> snapshot() {
+    return readOnly ? this : new PersistentAVLTree<>(comparator, root, true);
+  }
+
+  private void checkWritable() {
+    if (readOnly) {
+      throw new UnsupportedOperationException("snapshot is read-only");
+    }
+  }
+
+  /**
+   * Вставляет элемент в дерево.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в дереве отсутствовал
+   * @throws UnsupportedOperationException если это снимок
+   */
+  @Override
+  public synchronized boolean add(E value) {
+    checkWritable();
+    Node<E> oldRoot = root;
+    Node<E> newRoot = insert(value, oldRoot);
+    if (newRoot == oldRoot) {
+      return false;
+    }
+    root = newRoot;
+    modCount++;
+    return true;
+  }
+
+  private Node<E> insert(E value, Node<E> node) {
+    if (node == null) {
+      return new Node<>(value, null, null);
+    }
+    int cmp = compare(value, node.value);
+    if (cmp == 0) {
+      return node;
+    }
+    if (cmp < 0) {
+      Node<E> left = insert(value, node.left);
+      return left == node.left ? node : balance(node.value, left, node.right);
+    }
+    Node<E> right = insert(value, node.right);
+    return right == node.right ? node : balance(node.value, node.left, right);
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из дерева.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо удалить
+   * @return true, если элемент содержался в дереве
+   * @throws UnsupportedOperationException если это снимок
+   */
+  @Override
+  public synchronized boolean remove(Object object) {
+    checkWritable();
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    Node<E> oldRoot = root;
+    Node<E> newRoot = remove(oldRoot, value);
+    if (newRoot == oldRoot) {
+      return false;
+    }
+    root = newRoot;
+    modCount++;
+    return true;
+  }
+
+  private Node<E> remove(Node<E> node, E value) {
+    if (node == null) {
+      return null;
+    }
+    int cmp = compare(value, node.value);
+    if (cmp == 0) {
+      if (node.right == null) {
+        return node.left;
+      }
+      if (node.left == null) {
+        return node.right;
+      }
+      Node<E> minNode = getMinNode(node.right);
+      return balance(minNode.value, node.left, removeMinNode(node.right));
+    }
+    if (cmp < 0) {
+      Node<E> left = remove(node.left, value);
+      return left == node.left ? node : balance(node.value, left, node.right);
+    }
+    Node<E> right = remove(node.right, value);
+    return right == node.right ? node : balance(node.value, node.left, right);
+  }
+
+  private Node<E> removeMinNode(Node<E> node) {
+    if (node.left == null) {
+      return node.right;
+    }
+    return balance(node.value, removeMinNode(node.left), node.right);
+  }
+
+  @Override
+  public synchronized void clear() {
+    checkWritable();
+    if (root != null) {
+      root = null;
+      modCount++;
+    }
+  }
+
+  /**
+   * Создаёт узел (value, left, right), при необходимости выполняя малый или большой поворот.
+   * Повороты создают новые узлы вместо изменения существующих
+   */
+  private Node<E> balance(E value, Node<E> left, Node<E> right) {
+    int diff = getHeight(right) - getHeight(left);
+    if (diff == 2) {
+      if (getHeight(right.right) < getHeight(right.left)) {
+        Node<E> newRoot = right.left;
+        return new Node<>(newRoot.value,
+                new Node<>(value, left, newRoot.left),
+                new Node<>(right.value, newRoot.right, right.right));
+      }
+      return new Node<>(right.value, new Node<>(value, left, right.left), right.right);
+    } else if (diff == -2) {
+      if (getHeight(left.left) < getHeight(left.right)) {
+        Node<E> newRoot = left.right;
+        return new Node<>(newRoot.value,
+                new Node<>(left.value, left.left, newRoot.left),
+                new Node<>(value, newRoot.right, right));
+      }
+      return new Node<>(left.value, left.left, new Node<>(value, left.right, right));
+    }
+    return new Node<>(value, left, right);
+  }
+
+  private static int getHeight(Node<?> node) {
+    return node == null ? 0 : node.height;
+  }
+
+  private static int getSize(Node<?> node) {
+    return node == null ? 0 : node.size;
+  }
+
+  private static <E> Node<E> getMinNode(Node<E> node) {
+    while (node.left != null) {
+      node = node.left;
+    }
+    return node;
+  }
+
+  private static <E> Node<E> getMaxNode(Node<E> node) {
+    while (node.right != null) {
+      node = node.right;
+    }
+    return node;
+  }
+
+  /**
+   * Ищет элемент с таким же значением в дереве.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо поискать
+   * @return true, если такой элемент содержится в дереве
+   */
+  @Override
+  public boolean contains(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    Node<E> curr = root;
+    while (curr != null) {
+      int cmp = compare(value, curr.value);
+      if (cmp == 0) {
+        return true;
+      }
+      curr = cmp > 0 ? curr.right : curr.left;
+    }
+    return false;
+  }
+
+  /**
+   * Ищет наименьший элемент в дереве
+   *
+   * @return Возвращает наименьший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  @Override
+  public E first() {
+    Node<E> curr = root;
+    if (curr == null) {
+      throw new NoSuchElementException("first");
+    }
+    return getMinNode(curr).value;
+  }
+
+  /**
+   * Ищет наибольший элемент в дереве
+   *
+   * @return Возвращает наибольший элемент в дереве
+   * @throws NoSuchElementException если дерево пустое
+   */
+  @Override
+  public E last() {
+    Node<E> curr = root;
+    if (curr == null) {
+      throw new NoSuchElementException("last");
+    }
+    return getMaxNode(curr).value;
+  }
+
+  private int compare(E v1, E v2) {
+    return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+  }
+
+  @Override
+  public Comparator<? super E> comparator() {
+    return comparator;
+  }
+
+  @Override
+  public int size() {
+    return getSize(root);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder stringBuilder = new StringBuilder("PersistentAVLTree{size=").append(size()).append(", elements: ");
+    for (E value : this) {
+      stringBuilder.append(value).append(' ');
+    }
+    return stringBuilder.append('}').toString();
+  }
+
+  /**
+   * Живое представление элементов из диапазона [fromElement, toElement)
+   *
+   * @throws IllegalArgumentException если fromElement больше toElement
+   */
+  @Override
+  public SortedSet<E> subSet(E fromElement, E toElement) {
+    return new SubSetView<>(this, fromElement, true, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> headSet(E toElement) {
+    return new SubSetView<>(this, null, false, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> tailSet(E fromElement) {
+    return new SubSetView<>(this, fromElement, true, null, false);
+  }
+
+  @Override
+  public E lowest(E from, boolean inclusive) {
+    Node<E> curr = root;
+    Node<E> result = null;
+    while (curr != null) {
+      int cmp = from == null ? -1 : compare(from, curr.value);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = curr.left;
+      } else {
+        curr = curr.right;
+      }
+    }
+    return result == null ? null : result.value;
+  }
+
+  @Override
+  public E highest(E to, boolean inclusive) {
+    Node<E> curr = root;
+    Node<E> result = null;
+    while (curr != null) {
+      int cmp = to == null ? 1 : compare(to, curr.value);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = curr.right;
+      } else {
+        curr = curr.left;
+      }
+    }
+    return result == null ? null : result.value;
+  }
+
+  @Override
+  public int rank(E value, boolean inclusive) {
+    int rank = 0;
+    Node<E> curr = root;
+    while (curr != null) {
+      int cmp = compare(value, curr.value);
+      if (cmp < 0) {
+        curr = curr.left;
+      } else if (cmp > 0) {
+        rank += getSize(curr.left) + 1;
+        curr = curr.right;
+      } else {
+        return rank + getSize(curr.left) + (inclusive ? 1 : 0);
+      }
+    }
+    return rank;
+  }
+
+  /**
+   * Итератор по версии дерева на момент создания итератора.
+   * Для изменяемого дерева итератор fail-fast, для снимка изменений быть не может
+   */
+  @Override
+  public Iterator<E> iterator() {
+    return new TreeIterator(null, false, null, false);
+  }
+
+  @Override
+  public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+    return new TreeIterator(from, fromInclusive, to, toInclusive);
+  }
+
+  private class TreeIterator implements Iterator<E> {
+    private final E end; // null - up to the last element
+    private final boolean endInclusive;
+    private Object[] stack;
+    private int depth;
+    private E lastReturned;
+    private int expectedModCount = modCount;
+
+    TreeIterator(E start, boolean startInclusive, E end, boolean endInclusive) {
+      this.end = end;
+      this.endInclusive = endInclusive;
+      Node<E> curr = root;
+      this.stack = new Object[getHeight(curr)];
+      while (curr != null) {
+        int cmp = start == null ? -1 : compare(start, curr.value);
+        if (cmp < 0 || (cmp == 0 && startInclusive)) {
+          stack[depth++] = curr;
+          curr = curr.left;
+        } else {
+          curr = curr.right;
+        }
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean hasNext() {
+      if (depth == 0) {
+        return false;
+      }
+      if (end == null) {
+        return true;
+      }
+      int cmp = compare(((Node<E>) stack[depth - 1]).value, end);
+      return cmp < 0 || (cmp == 0 && endInclusive);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Node<E> node = (Node<E>) stack[--depth];
+      stack[depth] = null;
+      for (Node<E> curr = node.right; curr != null; curr = curr.left) {
+        stack[depth++] = curr; // the path in one version never exceeds its height
+      }
+      lastReturned = node.value;
+      return lastReturned;
+    }
+
+    /**
+     * Удаляет элемент из дерева. Итератор продолжает обход своей версии,
+     * в которой оставшиеся элементы те же самые
+     */
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      PersistentAVLTree.this.remove(lastReturned);
+      lastReturned = null;
+      expectedModCount = modCount;
+    }
+  }
+
+  /**
+   * Обходит дерево и проверяет что высоты двух поддеревьев
+   * различны по высоте не более чем на 1
+   *
+   * @throws NotBalancedTreeException если высоты отличаются более чем на один
+   */
+  @Override
+  public void checkBalanced() throws NotBalancedTreeException {
+    traverseTreeAndCheckBalanced(root);
+  }
+
+  private int traverseTreeAndCheckBalanced(Node<E> curr) throws NotBalancedTreeException {
+    if (curr == null) {
+      return 1;
+    }
+    int leftHeight = traverseTreeAndCheckBalanced(curr.left);
+    int rightHeight = traverseTreeAndCheckBalanced(curr.right);
+    if (Math.abs(leftHeight - rightHeight) > 1) {
+      throw NotBalancedTreeException.create("The heights of the two child subtrees of any node must be differ by at most one",
+              leftHeight, rightHeight, curr.toString());
+    }
+    return Math.max(leftHeight, rightHeight) + 1;
+  }
+
+}
@@ -1,17 +1,22 @@
 package ru.mail.polis;
 
 import java.util.AbstractSet;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
 
 
-public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E> {
+public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implements BalancedSortedSet<E>, OrderedTree<E> {
 
   private final Comparator<E> comparator;
   private Node root;
   private int size;
+  private int modCount;
 
   public RedBlackTree() {
     this(null);
@@ -21,6 +26,413 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     this.comparator = comparator;
   }
 
+  /**
+   * Строит сбалансированное дерево из элементов, упорядоченных строго по возрастанию, за O(n)
+   *
+   * @param sorted     элементы в порядке comparator без повторов
+   * @param comparator порядок элементов, null - естественный порядок
+   * @throws IllegalArgumentException если элементы не упорядочены строго по возрастанию
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(Collection<? extends E> sorted, Comparator<E> comparator) {
+    RedBlackTree<E> tree = new RedBlackTree<>(comparator);
+    Object[] values = sorted.toArray();
+    for (int i = 1; i < values.length; i++) {
+      if (tree.compare((E) values[i - 1], (E) values[i]) >= 0) {
+        throw new IllegalArgumentException("Elements must be sorted and distinct, index = " + i);
+      }
+    }
+    tree.rebuild(values);
+    return tree;
+  }
+
+  /**
+   * Строит сбалансированное дерево с тем же порядком, что и у sortedSet, за O(n)
+   */
+  @SuppressWarnings("unchecked")
+  public static <E extends Comparable<E>> RedBlackTree<E> fromSorted(SortedSet<E> sortedSet) {
+    RedBlackTree<E> tree = new RedBlackTree<>((Comparator<E>) sortedSet.comparator());
+    tree.rebuild(sortedSet.toArray());
+    return tree;
+  }
+
+  /**
+   * Если collection - SortedSet с тем же порядком и не меньше дерева,
+   * то элементы сливаются с деревом за O(n + m) и дерево строится заново,
+   * иначе элементы вставляются по одному
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean addAll(Collection<? extends E> collection) {
+    if (isCompatibleTree(collection)) {
+      return union((RedBlackTree<E>) collection);
+    }
+    if (!SplitJoin.isMergeable(this, collection)) {
+      return super.addAll(collection);
+    }
+    int oldSize = size;
+    Object[] values = collection.toArray();
+    rebuild(size == 0 ? values : SplitJoin.merge(this, values));
+    return oldSize != size;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean retainAll(Collection<?> collection) {
+    if (isCompatibleTree(collection)) {
+      return intersection((RedBlackTree<E>) collection);
+    }
+    return super.retainAll(collection);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean removeAll(Collection<?> collection) {
+    if (isCompatibleTree(collection)) {
+      return difference((RedBlackTree<E>) collection);
+    }
+    return super.removeAll(collection);
+  }
+
+  private boolean isCompatibleTree(Collection<?> collection) {
+    return collection instanceof RedBlackTree && Objects.equals(comparator, ((RedBlackTree<?>) collection).comparator);
+  }
+
+  /**
+   * Добавляет в дерево все элементы other.
+   * Работает через split/join по чёрной высоте,
+   * независимые поддеревья обрабатываются параллельно в {@link ForkJoinPool#commonPool()}.
+   * Дерево other не изменяется, но копируется за O(size of other).
+   *
+   * @return true, если дерево изменилось
+   * @throws IllegalArgumentException если у деревьев разный порядок элементов
+   */
+  public boolean union(RedBlackTree<E> other) {
+    return applySetOperation(SetOperation.UNION, other);
+  }
+
+  /**
+   * Оставляет в дереве только элементы, содержащиеся в other
+   *
+   * @see #union(RedBlackTree)
+   */
+  public boolean intersection(RedBlackTree<E> other) {
+    return applySetOperation(SetOperation.INTERSECTION, other);
+  }
+
+  /**
+   * Удаляет из дерева все элементы, содержащиеся в other
+   *
+   * @see #union(RedBlackTree)
+   */
+  public boolean difference(RedBlackTree<E> other) {
+    return applySetOperation(SetOperation.DIFFERENCE, other);
+  }
+
+  private boolean applySetOperation(SetOperation operation, RedBlackTree<E> other) {
+    if (!Objects.equals(comparator, other.comparator)) {
+      throw new IllegalArgumentException("Trees must have the same comparator");
+    }
+    int oldSize = size;
+    // split and join relink nodes, so work on a private copy of the other tree
+    Node otherRoot = copyOf(other.root, null);
+    Subtree result = new SetOperations().apply(operation,
+        subtree(root, blackHeight(root)), subtree(otherRoot, blackHeight(otherRoot)));
+    root = result == null ? null : result.root;
+    if (root != null) {
+      root.parent = null;
+      root.color = Color.BLACK;
+    }
+    size = getSize(root);
+    if (oldSize == size) {
+      return false;
+    }
+    modCount++;
+    return true;
+  }
+
+  private Node copyOf(Node node, Node parent) {
+    if (node == null) {
+      return null;
+    }
+    Node copy = new Node(node.value);
+    copy.parent = parent;
+    copy.color = node.color;
+    copy.size = node.size;
+    copy.left = copyOf(node.left, copy);
+    copy.right = copyOf(node.right, copy);
+    return copy;
+  }
+
+  /**
+   * Разрезает дерево с чёрной высотой blackHeight на элементы меньшие value,
+   * равный value узел и элементы большие value.
+   * Чёрные высоты кусков считаются по ходу спуска, поэтому склейки не обходят деревья заново
+   */
+  private SplitJoin.Split<Subtree> split(Node node, int blackHeight, E value) {
+    if (node == null) {
+      return new SplitJoin.Split<>();
+    }
+    int childBlackHeight = childBlackHeight(node, blackHeight);
+    int cmp = compare(value, node.value);
+    SplitJoin.Split<Subtree> split;
+    if (cmp == 0) {
+      split = new SplitJoin.Split<>();
+      split.left = subtree(detach(node.left), childBlackHeight);
+      split.found = new Subtree(node, blackHeight);
+      split.right = subtree(detach(node.right), childBlackHeight);
+    } else if (cmp < 0) {
+      split = split(node.left, childBlackHeight, value);
+      split.right = join(split.right, node, subtree(detach(node.right), childBlackHeight));
+    } else {
+      split = split(node.right, childBlackHeight, value);
+      split.left = join(subtree(detach(node.left), childBlackHeight), node, split.left);
+    }
+    return split;
+  }
+
+  private Node detach(Node node) {
+    if (node != null) {
+      node.parent = null;
+    }
+    return node;
+  }
+
+  /**
+   * Чёрная высота поддерева: количество чёрных узлов на пути до листа, сам лист не считается
+   */
+  private int blackHeight(Node node) {
+    int blackHeight = 0;
+    for (; node != null; node = node.left) {
+      if (node.color == Color.BLACK) {
+        blackHeight++;
+      }
+    }
+    return blackHeight;
+  }
+
+  /**
+   * Чёрная высота любого из детей узла с чёрной высотой blackHeight
+   */
+  private int childBlackHeight(Node node, int blackHeight) {
+    return node.color == Color.BLACK ? blackHeight - 1 : blackHeight;
+  }
+
+  private Subtree subtree(Node node, int blackHeight) {
+    return node == null ? null : new Subtree(node, blackHeight);
+  }
+
+  /**
+   * Склеивает два дерева через разделяющий узел middle (все элементы left меньше middle, а right - больше).
+   * Спускается по дереву с большей чёрной высотой до поддерева с равной чёрной высотой
+   * и восстанавливает правило красного узла одним поворотом на каждом уровне подъёма,
+   * поэтому работает за O(|bh(left) - bh(right)| + 1).
+   * Корень результата может быть красным
+   */
+  private Subtree join(Subtree left, Node middle, Subtree right) {
+    Node leftRoot = left == null ? null : left.root;
+    Node rightRoot = right == null ? null : right.root;
+    int leftBlackHeight = left == null ? 0 : left.blackHeight;
+    int rightBlackHeight = right == null ? 0 : right.blackHeight;
+    Node result;
+    int blackHeight;
+    if (leftBlackHeight > rightBlackHeight) {
+      result = joinRight(leftRoot, leftBlackHeight, middle, rightRoot, rightBlackHeight);
+      blackHeight = leftBlackHeight;
+      if (result.color == Color.RED && colorOf(result.right) == Color.RED) {
+        result.color = Color.BLACK;
+        blackHeight++;
+      }
+    } else if (rightBlackHeight > leftBlackHeight) {
+      result = joinLeft(leftRoot, leftBlackHeight, middle, rightRoot, rightBlackHeight);
+      blackHeight = rightBlackHeight;
+      if (result.color == Color.RED && colorOf(result.left) == Color.RED) {
+        result.color = Color.BLACK;
+        blackHeight++;
+      }
+    } else {
+      middle.color = colorOf(leftRoot) == Color.BLACK && colorOf(rightRoot) == Color.BLACK ? Color.RED : Color.BLACK;
+      link(middle, leftRoot, rightRoot);
+      result = middle;
+      blackHeight = middle.color == Color.BLACK ? leftBlackHeight + 1 : leftBlackHeight;
+    }
+    result.parent = null;
+    return new Subtree(result, blackHeight);
+  }
+
+  /**
+   * Возвращает дерево с чёрной высотой leftBlackHeight, корень которого может быть красным с красным правым ребёнком
+   */
+  private Node joinRight(Node left, int leftBlackHeight, Node middle, Node right, int rightBlackHeight) {
+    if (colorOf(left) == Color.BLACK && leftBlackHeight == rightBlackHeight) {
+      middle.color = Color.RED;
+      link(middle, left, right);
+      return middle;
+    }
+    Node joined = joinRight(left.right, childBlackHeight(left, leftBlackHeight), middle, right, rightBlackHeight);
+    link(left, left.left, joined);
+    if (left.color == Color.BLACK && joined.color == Color.RED && colorOf(joined.right) == Color.RED) {
+      joined.right.color = Color.BLACK;
+      return rotateLeftSubtree(left);
+    }
+    return left;
+  }
+
+  private Node joinLeft(Node left, int leftBlackHeight, Node middle, Node right, int rightBlackHeight) {
+    if (colorOf(right) == Color.BLACK && leftBlackHeight == rightBlackHeight) {
+      middle.color = Color.RED;
+      link(middle, left, right);
+      return middle;
+    }
+    Node joined = joinLeft(left, leftBlackHeight, middle, right.left, childBlackHeight(right, rightBlackHeight));
+    link(right, joined, right.right);
+    if (right.color == Color.BLACK && joined.color == Color.RED && colorOf(joined.left) == Color.RED) {
+      joined.left.color = Color.BLACK;
+      return rotateRightSubtree(right);
+    }
+    return right;
+  }
+
+  /**
+   * Склеивает два дерева без разделяющего элемента: им становится минимум right
+   */
+  private Subtree join(Subtree left, Subtree right) {
+    if (right == null) {
+      return left;
+    }
+    if (left == null) {
+      return right;
+    }
+    SplitJoin.Split<Subtree> split = splitFirst(right.root, right.blackHeight);
+    return join(left, split.found.root, split.right);
+  }
+
+  private SplitJoin.Split<Subtree> splitFirst(Node node, int blackHeight) {
+    int childBlackHeight = childBlackHeight(node, blackHeight);
+    SplitJoin.Split<Subtree> split;
+    if (node.left == null) {
+      split = new SplitJoin.Split<>();
+      split.found = new Subtree(node, blackHeight);
+      split.right = subtree(detach(node.right), childBlackHeight);
+    } else {
+      split = splitFirst(node.left, childBlackHeight);
+      split.right = join(split.right, node, subtree(detach(node.right), childBlackHeight));
+    }
+    return split;
+  }
+
+  /**
+   * Подвешивает детей к узлу и пересчитывает размер поддерева.
+   * В отличие от rotateLeft/rotateRight не трогает root, поэтому годится для отрезанных поддеревьев
+   */
+  private void link(Node node, Node left, Node right) {
+    node.left = left;
+    node.right = right;
+    if (left != null) {
+      left.parent = node;
+    }
+    if (right != null) {
+      right.parent = node;
+    }
+    node.size = getSize(left) + getSize(right) + 1;
+  }
+
+  private Node rotateLeftSubtree(Node node) {
+    Node newRoot = node.right;
+    link(node, node.left, newRoot.left);
+    link(newRoot, node, newRoot.right);
+    newRoot.parent = null;
+    return newRoot;
+  }
+
+  private Node rotateRightSubtree(Node node) {
+    Node newRoot = node.left;
+    link(node, newRoot.right, node.right);
+    link(newRoot, newRoot.left, node);
+    newRoot.parent = null;
+    return newRoot;
+  }
+
+  /**
+   * Отрезанное поддерево вместе с его чёрной высотой.
+   * По корню её не узнать быстрее спуска до листа, поэтому split и join передают её явно
+   */
+  private final class Subtree {
+    final Node root;
+    final int blackHeight;
+
+    Subtree(Node root, int blackHeight) {
+      this.root = root;
+      this.blackHeight = blackHeight;
+    }
+  }
+
+  /**
+   * Поддеревья этого дерева для общих операций над множествами {@link SplitJoin}
+   */
+  private class SetOperations extends SplitJoin<E, Subtree> {
+    @Override
+    Subtree left(Subtree tree) {
+      return subtree(tree.root.left, childBlackHeight(tree.root, tree.blackHeight));
+    }
+
+    @Override
+    Subtree right(Subtree tree) {
+      return subtree(tree.root.right, childBlackHeight(tree.root, tree.blackHeight));
+    }
+
+    @Override
+    E value(Subtree tree) {
+      return tree.root.value;
+    }
+
+    @Override
+    int size(Subtree tree) {
+      return tree == null ? 0 : getSize(tree.root);
+    }
+
+    @Override
+    Split<Subtree> split(Subtree tree, E value) {
+      return RedBlackTree.this.split(tree.root, tree.blackHeight, value);
+    }
+
+    @Override
+    Subtree join(Subtree left, Subtree middle, Subtree right) {
+      return RedBlackTree.this.join(left, middle.root, right);
+    }
+
+    @Override
+    Subtree join(Subtree left, Subtree right) {
+      return RedBlackTree.this.join(left, right);
+    }
+  }
+
+  /**
+   * Заменяет содержимое дерева отсортированными различными элементами values
+   */
+  private void rebuild(Object[] values) {
+    // all levels but the deepest one are full, painting that level red keeps black height equal
+    int redDepth = 31 - Integer.numberOfLeadingZeros(values.length + 1);
+    root = build(values, 0, values.length, 0, redDepth, null);
+    size = values.length;
+    modCount++;
+  }
+
+  @SuppressWarnings("unchecked")
+  private Node build(Object[] values, int from, int to, int depth, int redDepth, Node parent) {
+    if (from >= to) {
+      return null;
+    }
+    int mid = (from + to) >>> 1;
+    Node node = new Node((E) values[mid]);
+    node.parent = parent;
+    node.color = depth == redDepth ? Color.RED : Color.BLACK;
+    node.size = to - from;
+    node.left = build(values, from, mid, depth + 1, redDepth, node);
+    node.right = build(values, mid + 1, to, depth + 1, redDepth, node);
+    return node;
+  }
+
   /**
    * Вставляет элемент в дерево.
    * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
@@ -36,6 +448,7 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
       root = new Node(value);
       root.color = Color.BLACK;
       size++;
+      modCount++;
       return true;
     }
     while (curr != null) {
@@ -57,10 +470,14 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
       curr = parent.left;
       curr.parent = parent;
     }
+    for (Node node = parent; node != null; node = node.parent) {
+      node.size++;
+    }
     if (parent.color != Color.BLACK) {
       fixColors(curr);
     }
     size++;
+    modCount++;
     return true;
   }
 
@@ -124,6 +541,8 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     }
     node.right = newRoot.left;
     newRoot.left = node;
+    newRoot.size = node.size;
+    node.size = getSize(node.left) + getSize(node.right) + 1;
   }
 
   private void rotateRight(Node node) {
@@ -142,6 +561,12 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     }
     node.left = newRoot.right;
     newRoot.right = node;
+    newRoot.size = node.size;
+    node.size = getSize(node.left) + getSize(node.right) + 1;
+  }
+
+  private int getSize(Node node) {
+    return node == null ? 0 : node.size;
   }
 
   /**
@@ -155,8 +580,188 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
   public boolean remove(Object object) {
     @SuppressWarnings("unchecked")
     E value = (E) object;
-    //todo: следует реализовать
-    return false;
+    Node node = findNode(value);
+    if (node == null) {
+      return false;
+    }
+    removeNode(node);
+    return true;
+  }
+
+  /**
+   * Вырезает узел из дерева, перевешивая узлы, а не копируя значения,
+   * поэтому ссылки на остальные узлы (например, в итераторе) остаются корректными
+   */
+  private void removeNode(Node node) {
+    Node child;
+    Node childParent;
+    Color removedColor;
+    // the node that leaves its position is either node itself or its successor
+    Node detached = node.left == null || node.right == null ? node : getMinNode(node.right);
+    for (Node curr = detached.parent; curr != null; curr = curr.parent) {
+      curr.size--;
+    }
+    if (node.left == null || node.right == null) {
+      child = node.left != null ? node.left : node.right;
+      childParent = node.parent;
+      removedColor = node.color;
+      replaceNode(node, child);
+    } else {
+      Node successor = detached;
+      removedColor = successor.color;
+      child = successor.right;
+      if (successor.parent == node) {
+        childParent = successor;
+      } else {
+        childParent = successor.parent;
+        replaceNode(successor, child);
+        successor.right = node.right;
+        successor.right.parent = successor;
+      }
+      replaceNode(node, successor);
+      successor.left = node.left;
+      successor.left.parent = successor;
+      successor.color = node.color;
+      successor.size = node.size;
+    }
+    if (removedColor == Color.BLACK) {
+      fixColorsAfterRemove(child, childParent);
+    }
+    node.left = null;
+    node.right = null;
+    node.parent = null;
+    size--;
+    modCount++;
+  }
+
+  private void replaceNode(Node node, Node replacement) {
+    if (node.parent == null) {
+      root = replacement;
+    } else if (node == node.parent.left) {
+      node.parent.left = replacement;
+    } else {
+      node.parent.right = replacement;
+    }
+    if (replacement != null) {
+      replacement.parent = node.parent;
+    }
+  }
+
+  /**
+   * Восстанавливает чёрную высоту, когда на месте удалённого чёрного узла стоит curr.
+   * curr может быть null (пустой лист), поэтому его родитель передаётся отдельно
+   */
+  private void fixColorsAfterRemove(Node curr, Node parent) {
+    Node brother;
+    while (curr != root && colorOf(curr) == Color.BLACK) {
+      if (curr == parent.left) {
+        brother = parent.right; // not null, coz black height of this side is at least one
+        if (brother.color == Color.RED) {
+          brother.color = Color.BLACK;
+          parent.color = Color.RED;
+          rotateLeft(parent);
+          brother = parent.right;
+        }
+        if (colorOf(brother.left) == Color.BLACK && colorOf(brother.right) == Color.BLACK) {
+          brother.color = Color.RED; // move the lack of black one level up
+          curr = parent;
+          parent = curr.parent;
+        } else {
+          if (colorOf(brother.right) == Color.BLACK) {
+            brother.left.color = Color.BLACK;
+            brother.color = Color.RED;
+            rotateRight(brother);
+            brother = parent.right;
+          }
+          brother.color = parent.color;
+          parent.color = Color.BLACK;
+          brother.right.color = Color.BLACK;
+          rotateLeft(parent);
+          curr = root;
+        }
+      } else { // same as left just change left->right
+        brother = parent.left;
+        if (brother.color == Color.RED) {
+          brother.color = Color.BLACK;
+          parent.color = Color.RED;
+          rotateRight(parent);
+          brother = parent.left;
+        }
+        if (colorOf(brother.right) == Color.BLACK && colorOf(brother.left) == Color.BLACK) {
+          brother.color = Color.RED;
+          curr = parent;
+          parent = curr.parent;
+        } else {
+          if (colorOf(brother.left) == Color.BLACK) {
+            brother.right.color = Color.BLACK;
+            brother.color = Color.RED;
+            rotateLeft(brother);
+            brother = parent.left;
+          }
+          brother.color = parent.color;
+          parent.color = Color.BLACK;
+          brother.left.color = Color.BLACK;
+          rotateRight(parent);
+          curr = root;
+        }
+      }
+    }
+    if (curr != null) {
+      curr.color = Color.BLACK;
+    }
+  }
+
+  private Color colorOf(Node node) {
+    return node == null ? Color.BLACK : node.color;
+  }
+
+  private Node findNode(E value) {
+    Node curr = root;
+    while (curr != null) {
+      int cmp = compare(value, curr.value);
+      if (cmp == 0)
+        return curr;
+      curr = cmp > 0 ? curr.right : curr.left;
+    }
+    return null;
+  }
+
+  private Node getMinNode(Node node) {
+    while (node.left != null) {
+      node = node.left;
+    }
+    return node;
+  }
+
+  private Node getMaxNode(Node node) {
+    while (node.right != null) {
+      node = node.right;
+    }
+    return node;
+  }
+
+  private Node successor(Node node) {
+    if (node.right != null) {
+      return getMinNode(node.right);
+    }
+    Node parent = node.parent;
+    while (parent != null && node == parent.right) {
+      node = parent;
+      parent = parent.parent;
+    }
+    return parent;
+  }
+
+  private Node predecessor(Node node) {
+    if (node.left != null) {
+      return getMaxNode(node.left);
+    }
+    Node parent = node.parent;
+    while (parent != null && node == parent.left) {
+      node = parent;
+      parent = parent.parent;
+    }
+    return parent;
   }
 
   /**
@@ -194,11 +799,7 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     if (size == 0) {
       throw new NoSuchElementException("first");
     }
-    Node curr = root;
-    while (curr.left != null) {
-      curr = curr.left;
-    }
-    return curr.value;
+    return getMinNode(root).value;
   }
 
   /**
@@ -212,11 +813,7 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     if (size == 0) {
       throw new NoSuchElementException("last");
     }
-    Node curr = root;
-    while (curr.right != null) {
-      curr = curr.right;
-    }
-    return curr.value;
+    return getMaxNode(root).value;
   }
 
   private int compare(E v1, E v2) {
@@ -241,24 +838,177 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
             '}';
   }
 
+  /**
+   * Живое представление элементов из диапазона [fromElement, toElement).
+   * Границы, first/last, contains и size представления работают за O(log n)
+   *
+   * @throws IllegalArgumentException если fromElement больше toElement
+   */
   @Override
   public SortedSet<E> subSet(E fromElement, E toElement) {
-    throw new UnsupportedOperationException("subSet");
+    return new SubSetView<>(this, fromElement, true, toElement, false);
   }
 
+  /**
+   * Живое представление элементов, меньших toElement
+   *
+   * @see #subSet(Comparable, Comparable)
+   */
   @Override
   public SortedSet<E> headSet(E toElement) {
-    throw new UnsupportedOperationException("headSet");
+    return new SubSetView<>(this, null, false, toElement, false);
   }
 
+  /**
+   * Живое представление элементов, не меньших fromElement
+   *
+   * @see #subSet(Comparable, Comparable)
+   */
   @Override
   public SortedSet<E> tailSet(E fromElement) {
-    throw new UnsupportedOperationException("tailSet");
+    return new SubSetView<>(this, fromElement, true, null, false);
   }
 
+  @Override
+  public E lowest(E from, boolean inclusive) {
+    Node node = lowestNode(from, inclusive);
+    return node == null ? null : node.value;
+  }
+
+  private Node lowestNode(E from, boolean inclusive) {
+    Node curr = root;
+    Node result = null;
+    while (curr != null) {
+      int cmp = from == null ? -1 : compare(from, curr.value);
+      if (cmp < 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = curr.left;
+      } else {
+        curr = curr.right;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public E highest(E to, boolean inclusive) {
+    Node node = highestNode(to, inclusive);
+    return node == null ? null : node.value;
+  }
+
+  private Node highestNode(E to, boolean inclusive) {
+    Node curr = root;
+    Node result = null;
+    while (curr != null) {
+      int cmp = to == null ? 1 : compare(to, curr.value);
+      if (cmp > 0 || (cmp == 0 && inclusive)) {
+        result = curr;
+        curr = curr.right;
+      } else {
+        curr = curr.left;
+      }
+    }
+    return result;
+  }
+
+  @Override
+  public int rank(E value, boolean inclusive) {
+    int rank = 0;
+    Node curr = root;
+    while (curr != null) {
+      int cmp = compare(value, curr.value);
+      if (cmp < 0) {
+        curr = curr.left;
+      } else if (cmp > 0) {
+        rank += getSize(curr.left) + 1;
+        curr = curr.right;
+      } else {
+        return rank + getSize(curr.left) + (inclusive ? 1 : 0);
+      }
+    }
+    return rank;
+  }
+
+  @Override
+  public Iterator<E> iterator(E from, boolean fromInclusive, E to, boolean toInclusive) {
+    return new TreeIterator(lowestNode(from, fromInclusive), true, to, toInclusive);
+  }
+
+  /**
+   * Итератор по возрастанию элементов. Переходит к следующему узлу по ссылкам parent,
+   * поэтому не использует ни рекурсию, ни стек
+   *
+   * @throws java.util.ConcurrentModificationException если дерево изменилось в обход итератора
+   */
   @Override
   public Iterator<E> iterator() {
-    throw new UnsupportedOperationException("iterator");
+    return new TreeIterator(root == null ? null : getMinNode(root), true, null, false);
+  }
+
+  /**
+   * Итератор по убыванию элементов
+   *
+   * @see #iterator()
+   */
+  public Iterator<E> descendingIterator() {
+    return new TreeIterator(root == null ? null : getMaxNode(root), false, null, false);
+  }
+
+  private class TreeIterator implements Iterator<E> {
+    private final boolean ascending;
+    private final E end; // null - up to the last element in the iteration order
+    private final boolean endInclusive;
+    private Node next;
+    private Node lastReturned;
+    private int expectedModCount = modCount;
+
+    TreeIterator(Node first, boolean ascending, E end, boolean endInclusive) {
+      this.next = first;
+      this.ascending = ascending;
+      this.end = end;
+      this.endInclusive = endInclusive;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
+        return false;
+      }
+      if (end == null) {
+        return true;
+      }
+      int cmp = compare(next.value, end);
+      if (!ascending) {
+        cmp = -cmp;
+      }
+      return cmp < 0 || (cmp == 0 && endInclusive);
+    }
+
+    @Override
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      next = ascending ? successor(next) : predecessor(next);
+      return lastReturned.value;
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned == null) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      removeNode(lastReturned); // nodes are relinked, so next stays valid
+      lastReturned = null;
+      expectedModCount = modCount;
+    }
   }
 
   /**
@@ -267,6 +1017,7 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
    * 1) Корень всегда чёрный.
    * 2) Если узел красный, то его потомки должны быть чёрными (обратное не всегда верно)
    * 3) Все пути от узла до листьев содержат одинаковое количество чёрных узлов (чёрная высота)
+   * 4) Размер каждого поддерева посчитан верно
    *
    * @throws NotBalancedTreeException если какое-либо свойство невыполнено
    */
@@ -289,6 +1040,10 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     if (leftBlackHeight != rightBlackHeight) {
       throw NotBalancedTreeException.create("Black height must be equal.", leftBlackHeight, rightBlackHeight, node.toString());
     }
+    if (node.size != getSize(node.left) + getSize(node.right) + 1) {
+      throw new NotBalancedTreeException("Subtree size must be equal to the sum of children sizes plus one.\n"
+              + "size = " + node.size + ", value = " + node.value);
+    }
     if (node.color == Color.RED) {
       checkRedNodeRule(node);
       return leftBlackHeight;
@@ -315,6 +1070,7 @@ public class RedBlackTree<E extends Comparable<E>> extends AbstractSet<E> implem
     Node right;
     Node parent;
     Color color = Color.RED;
+    int size = 1; // number of nodes in the subtree
 
     public Node(E value) {
       this.value = value;
@@ -0,0 +1,13 @@
+package ru.mail.polis;
+
+/**
+ * Операции над множествами, которые деревья выполняют через split/join
+ */
+enum SetOperation {
+  UNION, INTERSECTION, DIFFERENCE;
+
+  /**
+   * Суммарный размер двух поддеревьев, начиная с которого рекурсия разветвляется в ForkJoinPool
+   */
+  static final int PARALLEL_THRESHOLD = 1 << 13;
+}
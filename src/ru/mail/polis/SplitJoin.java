@@ -0,0 +1,168 @@
+package ru.mail.polis;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Операции над множествами через split/join, общие для сбалансированных деревьев.
+ * Дерево задаёт только доступ к своим узлам N, разрез и склейку, сохраняющие баланс,
+ * а рекурсия по половинам и её разветвление в ForkJoinPool живут здесь.
+ */
+abstract class SplitJoin<E, N> {
+
+  /**
+   * Результат разреза: элементы меньше ключа, узел с ключом (или null) и элементы больше ключа
+   */
+  static final class Split<N> {
+    N left;
+    N found;
+    N right;
+  }
+
+  abstract N left(N node);
+
+  abstract N right(N node);
+
+  abstract E value(N node);
+
+  abstract int size(N node);
+
+  /**
+   * Разрезает дерево на элементы меньшие value, равный value узел и элементы большие value
+   */
+  abstract Split<N> split(N node, E value);
+
+  /**
+   * Склеивает два дерева через разделяющий узел middle (все элементы left меньше middle, а right - больше)
+   */
+  abstract N join(N left, N middle, N right);
+
+  /**
+   * Склеивает два дерева без разделяющего элемента
+   */
+  abstract N join(N left, N right);
+
+  /**
+   * Выполняет операцию в {@link ForkJoinPool#commonPool()}, перевязывая узлы обоих деревьев
+   *
+   * @return корень результата
+   */
+  N apply(SetOperation operation, N first, N second) {
+    return ForkJoinPool.commonPool().invoke(new Task<>(this, operation, first, second));
+  }
+
+  /**
+   * Рекурсивно разбивает одно дерево корнем другого и склеивает результаты для половин.
+   * Элементы first имеют приоритет над равными элементами second
+   */
+  private N setOperation(SetOperation operation, N first, N second) {
+    if (first == null) {
+      return operation == SetOperation.UNION ? second : null;
+    }
+    if (second == null) {
+      return operation == SetOperation.INTERSECTION ? null : first;
+    }
+    N middle;
+    N firstLeft;
+    N firstRight;
+    N secondLeft;
+    N secondRight;
+    boolean keepMiddle;
+    if (operation == SetOperation.DIFFERENCE) {
+      // split first by the root of second, the equal element of first is dropped
+      Split<N> split = split(first, value(second));
+      middle = null;
+      keepMiddle = false;
+      firstLeft = split.left;
+      firstRight = split.right;
+      secondLeft = left(second);
+      secondRight = right(second);
+    } else {
+      Split<N> split = split(second, value(first));
+      middle = first;
+      keepMiddle = operation == SetOperation.UNION || split.found != null;
+      firstLeft = left(first);
+      firstRight = right(first);
+      secondLeft = split.left;
+      secondRight = split.right;
+    }
+    N left;
+    N right;
+    if (size(first) + size(second) >= SetOperation.PARALLEL_THRESHOLD) {
+      Task<E, N> leftTask = new Task<>(this, operation, firstLeft, secondLeft);
+      leftTask.fork();
+      right = setOperation(operation, firstRight, secondRight);
+      left = leftTask.join();
+    } else {
+      left = setOperation(operation, firstLeft, secondLeft);
+      right = setOperation(operation, firstRight, secondRight);
+    }
+    return keepMiddle ? join(left, middle, right) : join(left, right);
+  }
+
+  private static final class Task<E, N> extends RecursiveTask<N> {
+    private static final long serialVersionUID = 1L;
+
+    private final transient SplitJoin<E, N> tree;
+    private final SetOperation operation;
+    private final transient N first;
+    private final transient N second;
+
+    Task(SplitJoin<E, N> tree, SetOperation operation, N first, N second) {
+      this.tree = tree;
+      this.operation = operation;
+      this.first = first;
+      this.second = second;
+    }
+
+    @Override
+    protected N compute() {
+      return tree.setOperation(operation, first, second);
+    }
+  }
+
+  /**
+   * @return true, если collection - SortedSet с тем же порядком, что и set, и не меньше его:
+   * тогда их выгоднее слить через {@link #merge(SortedSet, Object[])}, чем вставлять по одному
+   */
+  static boolean isMergeable(SortedSet<?> set, Collection<?> collection) {
+    return collection instanceof SortedSet
+        && Objects.equals(set.comparator(), ((SortedSet<?>) collection).comparator())
+        && collection.size() >= set.size();
+  }
+
+  /**
+   * Сливает элементы set с отсортированными различными values за O(n + m).
+   * Из равных элементов остаётся элемент set
+   */
+  @SuppressWarnings("unchecked")
+  static <E> Object[] merge(SortedSet<E> set, Object[] values) {
+    Object[] own = set.toArray();
+    Object[] merged = new Object[own.length + values.length];
+    int i = 0;
+    int j = 0;
+    int k = 0;
+    while (i < own.length && j < values.length) {
+      int cmp = SubSetView.compare(set, (E) own[i], (E) values[j]);
+      if (cmp < 0) {
+        merged[k++] = own[i++];
+      } else if (cmp > 0) {
+        merged[k++] = values[j++];
+      } else {
+        merged[k++] = own[i++]; // the set keeps the element it already has
+        j++;
+      }
+    }
+    while (i < own.length) {
+      merged[k++] = own[i++];
+    }
+    while (j < values.length) {
+      merged[k++] = values[j++];
+    }
+    return k == merged.length ? merged : Arrays.copyOf(merged, k);
+  }
+}
@@ -0,0 +1,45 @@
+package ru.mail.polis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь строк: каждой различной строке выдаётся код 0, 1, 2, ... в порядке первого появления.
+ * Столбец с повторяющимися строками хранит вместо них int коды.
+ */
+final class StringDictionary {
+
+  private final Map<String, Integer> codes = new HashMap<>();
+  private final List<String> values = new ArrayList<>();
+
+  /**
+   * @return код строки, новый, если её ещё не было
+   */
+  int encode(String value) {
+    Integer code = codes.get(value);
+    if (code == null) {
+      code = values.size();
+      codes.put(value, code);
+      values.add(value);
+    }
+    return code;
+  }
+
+  /**
+   * @return код строки или -1, если её нет в словаре
+   */
+  int code(String value) {
+    Integer code = codes.get(value);
+    return code == null ? -1 : code;
+  }
+
+  String decode(int code) {
+    return values.get(code);
+  }
+
+  int size() {
+    return values.size();
+  }
+}
@@ -1,6 +1,7 @@
 package ru.mail.polis;
 
 import java.time.LocalDate;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Nechaev Mikhail
@@ -8,7 +9,7 @@ import java.time.LocalDate;
  */
 public class Student extends CheckedOpenHashTableEntity {
 
-  private static int counter = 0;
+  private static final AtomicLong counter = new AtomicLong(); //Следующий свободный идентификатор
 
   //NotNullable поля
   private long id; //Уникальный идентификатор студента
@@ -23,13 +24,29 @@ public class Student extends CheckedOpenHashTableEntity {
   private String email;
   private String mobile; //Номер телефона
 
+  //Кеш hashCode(), сбрасывается при изменении Nullable полей
+  //Как в String: 0 - ещё не вычислен, поэтому другой поток не увидит "вычислен" без самого значения
+  private int hash;
+  private boolean hashIsZero; //Вычисленный hashCode() равен 0
+
   @Override
   public int hashCode(int tableSize, int probId) throws IllegalArgumentException {
-    int h = (int) (1 + (id % (tableSize - 1)));
-    if (h % 2 == 0) {
-      h -= 1;
-    }
-    return (hashCode() + probId*h) % tableSize;
+    // long arithmetic: probId * h overflows int on large tables
+    return (int) Math.floorMod(probeStart(tableSize) + (long) probId * probeStep(tableSize), (long) tableSize);
+  }
+
+  @Override
+  public int probeStart(int tableSize) {
+    return Math.floorMod(hashCode(), tableSize);
+  }
+
+  /**
+   * Нечётный шаг из id, общий с {@link LongOpenHashMap}, поэтому при размере таблицы - степени двойки
+   * пробы обходят все ячейки
+   */
+  @Override
+  public int probeStep(int tableSize) {
+    return LongOpenHashMap.probeStep(id, tableSize);
   }
 
   public enum Gender {
@@ -37,7 +54,7 @@ public class Student extends CheckedOpenHashTableEntity {
   }
 
   public Student(String firstName, String lastName, Gender gender, LocalDate birthday, int groupId, int yearOfAdmission) {
-    this.id = counter++;
+    this.id = counter.getAndIncrement();
     this.firstName = firstName;
     this.lastName = lastName;
     this.gender = gender;
@@ -54,6 +71,61 @@ public class Student extends CheckedOpenHashTableEntity {
     this.mobile = mobile;
   }
 
+  /**
+   * Резервирует count идущих подряд идентификаторов, которые не выдаст ни один другой студент.
+   *
+   * @return первый зарезервированный идентификатор
+   */
+  static long reserveIds(long count) {
+    return counter.getAndAdd(count);
+  }
+
+  /**
+   * Сдвигает счётчик так, чтобы новые студенты получали идентификаторы не меньше next
+   */
+  static void advanceIds(long next) {
+    long current;
+    while ((current = counter.get()) < next && !counter.compareAndSet(current, next)) {
+      // another thread moved the counter, re-read it
+    }
+  }
+
+  /**
+   * Восстанавливает студента с известным идентификатором, например из {@link StudentStore}.
+   * Счётчик сдвигается за id, чтобы новые студенты не получили тот же идентификатор
+   */
+  Student(long id, String firstName, String lastName, Gender gender, LocalDate birthday, int groupId,
+          int yearOfAdmission, String photoReference, String email, String mobile) {
+    this(id, firstName, lastName, gender, birthday, groupId, yearOfAdmission, photoReference, email, mobile, true);
+  }
+
+  /**
+   * Студент с идентификатором, который уже не выдаст счётчик: из {@link #reserveIds(long)}
+   * или из диапазона, за который счётчик сдвинут через {@link #advanceIds(long)}. Счётчик не трогается
+   */
+  static Student withReservedId(long id, String firstName, String lastName, Gender gender, LocalDate birthday,
+                                int groupId, int yearOfAdmission, String photoReference, String email, String mobile) {
+    return new Student(id, firstName, lastName, gender, birthday, groupId, yearOfAdmission,
+        photoReference, email, mobile, false);
+  }
+
+  private Student(long id, String firstName, String lastName, Gender gender, LocalDate birthday, int groupId,
+                  int yearOfAdmission, String photoReference, String email, String mobile, boolean advanceCounter) {
+    this.id = id;
+    if (advanceCounter) {
+      advanceIds(id + 1);
+    }
+    this.firstName = firstName;
+    this.lastName = lastName;
+    this.gender = gender;
+    this.birthday = birthday;
+    this.groupId = groupId;
+    this.yearOfAdmission = yearOfAdmission;
+    this.photoReference = photoReference;
+    this.email = email;
+    this.mobile = mobile;
+  }
+
   public long getId() {
     return id;
   }
@@ -88,6 +160,8 @@ public class Student extends CheckedOpenHashTableEntity {
 
   public void setPhotoReference(String photoReference) {
     this.photoReference = photoReference;
+    hash = 0;
+    hashIsZero = false;
   }
 
   public String getEmail() {
@@ -96,6 +170,8 @@ public class Student extends CheckedOpenHashTableEntity {
 
   public void setEmail(String email) {
     this.email = email;
+    hash = 0;
+    hashIsZero = false;
   }
 
   public String getMobile() {
@@ -104,6 +180,8 @@ public class Student extends CheckedOpenHashTableEntity {
 
   public void setMobile(String mobile) {
     this.mobile = mobile;
+    hash = 0;
+    hashIsZero = false;
   }
 
   @Override
@@ -128,6 +206,19 @@ public class Student extends CheckedOpenHashTableEntity {
 
   @Override
   public int hashCode() {
+    int h = hash;
+    if (h == 0 && !hashIsZero) {
+      h = computeHashCode();
+      if (h == 0) {
+        hashIsZero = true;
+      } else {
+        hash = h;
+      }
+    }
+    return h;
+  }
+
+  private int computeHashCode() {
     int result = (int) (id ^ (id >>> 32));
     result = 31 * result + firstName.hashCode();
     result = 31 * result + lastName.hashCode();
@@ -0,0 +1,206 @@
+package ru.mail.polis;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Студенты по идентификатору и вторичные индексы по groupId, yearOfAdmission, birthday и lastName.
+ * <p>
+ * Основная таблица - {@link LongOpenHashMap} из id в студента. Каждый вторичный индекс - дерево поиска
+ * из пар (значение поля, id), упорядоченных сначала по значению, потом по id, поэтому одинаковые
+ * значения поля не сливаются. Запрос по диапазону спускается к первой паре за O(log n) и идёт
+ * итератором дерева, пока значение не выйдет за границу: O(log n + k) вместо просмотра всех студентов.
+ * Индексы изменяются вместе с основной таблицей в {@link #add(Student)} и {@link #remove(long)}.
+ * Индексируемые поля студента неизменяемы, поэтому индексы не устаревают.
+ */
+public class StudentIndex {
+
+  /**
+   * Дерево, на котором строятся вторичные индексы
+   */
+  public enum TreeKind {
+    AVL, RED_BLACK
+  }
+
+  /**
+   * Элемент вторичного индекса: значение поля и id студента
+   */
+  static final class Key<K extends Comparable<? super K>> implements Comparable<Key<K>> {
+    private final K value;
+    private final long id;
+
+    Key(K value, long id) {
+      this.value = value;
+      this.id = id;
+    }
+
+    @Override
+    public int compareTo(Key<K> other) {
+      int cmp = value.compareTo(other.value);
+      return cmp != 0 ? cmp : Long.compare(id, other.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (!(o instanceof Key)) return false;
+      Key<?> key = (Key<?>) o;
+      return id == key.id && value.equals(key.value);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * value.hashCode() + Long.hashCode(id);
+    }
+
+    @Override
+    public String toString() {
+      return value + ":" + id;
+    }
+  }
+
+  private final TreeKind treeKind;
+  private final LongOpenHashMap<Student> byId = new LongOpenHashMap<>();
+  private final OrderedTree<Key<Integer>> byGroupId;
+  private final OrderedTree<Key<Integer>> byYearOfAdmission;
+  private final OrderedTree<Key<LocalDate>> byBirthday;
+  private final OrderedTree<Key<String>> byLastName;
+
+  public StudentIndex() {
+    this(TreeKind.AVL);
+  }
+
+  public StudentIndex(TreeKind treeKind) {
+    this.treeKind = treeKind;
+    byGroupId = newTree();
+    byYearOfAdmission = newTree();
+    byBirthday = newTree();
+    byLastName = newTree();
+  }
+
+  private <K extends Comparable<? super K>> OrderedTree<Key<K>> newTree() {
+    return treeKind == TreeKind.AVL ? new AVLTree<>() : new RedBlackTree<>();
+  }
+
+  /**
+   * Добавляет студента в основную таблицу и во все индексы.
+   *
+   * @return true, если студента с таким id ещё не было
+   */
+  public boolean add(Student student) {
+    long id = student.getId();
+    if (byId.containsKey(id)) {
+      return false;
+    }
+    byId.put(id, student);
+    byGroupId.add(new Key<>(student.getGroupId(), id));
+    byYearOfAdmission.add(new Key<>(student.getYearOfAdmission(), id));
+    byBirthday.add(new Key<>(student.getBirthday(), id));
+    byLastName.add(new Key<>(student.getLastName(), id));
+    return true;
+  }
+
+  /**
+   * Удаляет студента из основной таблицы и из всех индексов.
+   *
+   * @return удалённый студент или null, если студента с таким id не было
+   */
+  public Student remove(long id) {
+    Student student = byId.remove(id);
+    if (student != null) {
+      byGroupId.remove(new Key<>(student.getGroupId(), id));
+      byYearOfAdmission.remove(new Key<>(student.getYearOfAdmission(), id));
+      byBirthday.remove(new Key<>(student.getBirthday(), id));
+      byLastName.remove(new Key<>(student.getLastName(), id));
+    }
+    return student;
+  }
+
+  public Student get(long id) {
+    return byId.get(id);
+  }
+
+  public boolean contains(long id) {
+    return byId.containsKey(id);
+  }
+
+  public int size() {
+    return byId.size();
+  }
+
+  /**
+   * @return студенты из групп [from, to] по возрастанию groupId, затем id
+   */
+  public List<Student> findByGroupId(int from, int to) {
+    return range(byGroupId, from, to);
+  }
+
+  /**
+   * @return количество студентов из групп [from, to]. Работает за O(log n)
+   */
+  public int countByGroupId(int from, int to) {
+    return count(byGroupId, from, to);
+  }
+
+  /**
+   * @return студенты, поступившие в годы [from, to], по возрастанию года, затем id
+   */
+  public List<Student> findByYearOfAdmission(int from, int to) {
+    return range(byYearOfAdmission, from, to);
+  }
+
+  /**
+   * @return студенты, родившиеся в дни [from, to], по возрастанию дня рождения, затем id
+   */
+  public List<Student> findByBirthday(LocalDate from, LocalDate to) {
+    return range(byBirthday, from, to);
+  }
+
+  /**
+   * @return количество студентов, родившихся в дни [from, to]. Работает за O(log n)
+   */
+  public int countByBirthday(LocalDate from, LocalDate to) {
+    return count(byBirthday, from, to);
+  }
+
+  public List<Student> findByLastName(String lastName) {
+    return range(byLastName, lastName, lastName);
+  }
+
+  /**
+   * @return студенты, чья фамилия начинается с prefix, по возрастанию фамилии, затем id
+   */
+  public List<Student> findByLastNamePrefix(String prefix) {
+    List<Student> result = new ArrayList<>();
+    // every name with the prefix sorts at or after (prefix, min id), and they all come in a row
+    Iterator<Key<String>> iterator = byLastName.iterator(new Key<>(prefix, Long.MIN_VALUE), true, null, false);
+    while (iterator.hasNext()) {
+      Key<String> key = iterator.next();
+      if (!key.value.startsWith(prefix)) {
+        break;
+      }
+      result.add(byId.get(key.id));
+    }
+    return result;
+  }
+
+  private <K extends Comparable<? super K>> List<Student> range(OrderedTree<Key<K>> tree, K from, K to) {
+    List<Student> result = new ArrayList<>();
+    if (from.compareTo(to) > 0) {
+      return result;
+    }
+    Iterator<Key<K>> iterator = tree.iterator(
+        new Key<>(from, Long.MIN_VALUE), true, new Key<>(to, Long.MAX_VALUE), true);
+    while (iterator.hasNext()) {
+      result.add(byId.get(iterator.next().id));
+    }
+    return result;
+  }
+
+  private <K extends Comparable<? super K>> int count(OrderedTree<Key<K>> tree, K from, K to) {
+    return tree.count(new Key<>(from, Long.MIN_VALUE), true, new Key<>(to, Long.MAX_VALUE), true);
+  }
+
+}
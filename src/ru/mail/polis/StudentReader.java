@@ -0,0 +1,198 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+
+import static ru.mail.polis.StudentWriter.BUFFER_SIZE;
+import static ru.mail.polis.StudentWriter.FEMALE;
+import static ru.mail.polis.StudentWriter.HAS_EMAIL;
+import static ru.mail.polis.StudentWriter.HAS_MOBILE;
+import static ru.mail.polis.StudentWriter.HAS_PHOTO;
+import static ru.mail.polis.StudentWriter.MAGIC;
+import static ru.mail.polis.StudentWriter.MAX_FIXED_RECORD_SIZE;
+import static ru.mail.polis.StudentWriter.VERSION;
+
+/**
+ * Читает студентов, записанных {@link StudentWriter}. Формат описан там же.
+ * <p>
+ * Записи разбираются прямо из буфера канала в поля {@link Student}, без промежуточных объектов на запись.
+ * Имена и фамилии берутся из словаря файла, так что одинаковые имена у всех прочитанных студентов -
+ * один и тот же объект строки.
+ */
+public class StudentReader implements Closeable {
+
+  private final FileChannel channel;
+  private final StringDictionary names = new StringDictionary();
+  private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  private boolean endOfChannel;
+  private long previousId;
+  private long count;
+
+  public StudentReader(Path path) throws IOException {
+    this(FileChannel.open(path, StandardOpenOption.READ));
+  }
+
+  /**
+   * Читает с текущей позиции канала. Канал закрывается вместе с читателем
+   *
+   * @throws IOException если в начале канала нет заголовка формата
+   */
+  public StudentReader(FileChannel channel) throws IOException {
+    this.channel = channel;
+    buffer.flip();
+    try {
+      if (!fill(5) || buffer.getInt() != MAGIC) {
+        throw new IOException("Not a student file");
+      }
+      byte version = buffer.get();
+      if (version != VERSION) {
+        throw new IOException("Unsupported version " + version);
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return следующий студент или null, если записи кончились
+   * @throws EOFException если файл обрывается посреди записи
+   */
+  public Student read() throws IOException {
+    if (!fill(1)) {
+      return null;
+    }
+    fill(MAX_FIXED_RECORD_SIZE); // the last records may be shorter
+    try {
+      int flags = buffer.get();
+      long id = previousId + getSignedVarLong();
+      String firstName = getName();
+      String lastName = getName();
+      LocalDate birthday = LocalDate.ofEpochDay(getSignedVarLong());
+      int groupId = getSignedVarInt();
+      int yearOfAdmission = getSignedVarInt();
+      String photoReference = (flags & HAS_PHOTO) != 0 ? getString() : null;
+      String email = (flags & HAS_EMAIL) != 0 ? getString() : null;
+      String mobile = (flags & HAS_MOBILE) != 0 ? getString() : null;
+      previousId = id;
+      count++;
+      return new Student(id, firstName, lastName,
+          (flags & FEMALE) != 0 ? Student.Gender.FEMALE : Student.Gender.MALE,
+          birthday, groupId, yearOfAdmission, photoReference, email, mobile);
+    } catch (BufferUnderflowException e) {
+      throw new EOFException("Truncated record " + count);
+    }
+  }
+
+  /**
+   * Передаёт всех оставшихся студентов в sink, например {@code set::add} любого множества проекта
+   *
+   * @return количество прочитанных студентов
+   */
+  public long readAll(Consumer<? super Student> sink) throws IOException {
+    long read = 0;
+    for (Student student = read(); student != null; student = read()) {
+      sink.accept(student);
+      read++;
+    }
+    return read;
+  }
+
+  private int getSignedVarInt() throws IOException {
+    int value = getVarInt();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private long getSignedVarLong() throws IOException {
+    long value = getVarLong();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private int getVarInt() throws IOException {
+    long value = getVarLong();
+    if (value >>> 32 != 0) {
+      throw new IOException("Corrupted varint in record " + count);
+    }
+    return (int) value;
+  }
+
+  private long getVarLong() throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw new IOException("Corrupted varint in record " + count);
+  }
+
+  private String getName() throws IOException {
+    int code = getVarInt();
+    if (code < names.size()) {
+      return names.decode(code);
+    }
+    if (code != names.size()) {
+      throw new IOException("Unknown name code " + code + " in record " + count);
+    }
+    String name = getString();
+    names.encode(name);
+    // the rest of the fixed part follows the string
+    fill(MAX_FIXED_RECORD_SIZE);
+    return name;
+  }
+
+  private String getString() throws IOException {
+    fill(5); // the length may cross the end of the buffer
+    int length = getVarInt();
+    if (length < 0) {
+      throw new IOException("Corrupted string length in record " + count);
+    }
+    if (!fill(length)) {
+      throw new EOFException("Truncated record " + count);
+    }
+    int position = buffer.position();
+    String value = new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+    buffer.position(position + length);
+    return value;
+  }
+
+  /**
+   * Дочитывает канал, пока в буфере не окажется хотя бы size байт или канал не кончится
+   *
+   * @return true, если size байт доступны
+   */
+  private boolean fill(int size) throws IOException {
+    if (buffer.remaining() >= size) {
+      return true;
+    }
+    buffer.compact();
+    if (buffer.capacity() < size) {
+      ByteBuffer larger = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+      buffer.flip();
+      larger.put(buffer);
+      buffer = larger;
+    }
+    while (buffer.position() < size && !endOfChannel) {
+      endOfChannel = channel.read(buffer) < 0;
+    }
+    buffer.flip();
+    return buffer.remaining() >= size;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+}
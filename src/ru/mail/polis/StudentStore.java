@@ -0,0 +1,314 @@
+package ru.mail.polis;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+import ru.mail.polis.Student.Gender;
+
+/**
+ * Столбцовое хранилище студентов: каждое поле лежит в своём примитивном массиве, строка - индекс в них.
+ * <p>
+ * Имена и фамилии закодированы словарями {@link StringDictionary}, день рождения хранится как
+ * номер дня от эпохи, пол - как ordinal. Фильтр {@link Filter} проверяет строку по нескольким
+ * соседним массивам, не трогая объекты, поэтому просмотр миллионов строк идёт по памяти подряд
+ * и делится на части между ядрами через {@link IntStream#parallel()}.
+ * Редко используемые Nullable поля хранятся как есть и нужны только для {@link #get(int)}.
+ */
+public class StudentStore {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final int PARALLEL_THRESHOLD = 1 << 16; // smaller stores are scanned sequentially
+  private static final int MAX_DENSE_GROUPS = 1 << 16; // wider group ranges are counted in a map
+
+  private long[] ids;
+  private int[] groupIds;
+  private short[] yearsOfAdmission;
+  private byte[] genders;
+  private int[] birthdays; // epoch days
+  private int[] firstNames;
+  private int[] lastNames;
+  private String[] photoReferences;
+  private String[] emails;
+  private String[] mobiles;
+  private final StringDictionary firstNameDictionary = new StringDictionary();
+  private final StringDictionary lastNameDictionary = new StringDictionary();
+  private int size;
+  private int minGroupId = Integer.MAX_VALUE;
+  private int maxGroupId = Integer.MIN_VALUE;
+
+  public StudentStore() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public StudentStore(int initialCapacity) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("initialCapacity < 0");
+    }
+    ids = new long[initialCapacity];
+    groupIds = new int[initialCapacity];
+    yearsOfAdmission = new short[initialCapacity];
+    genders = new byte[initialCapacity];
+    birthdays = new int[initialCapacity];
+    firstNames = new int[initialCapacity];
+    lastNames = new int[initialCapacity];
+    photoReferences = new String[initialCapacity];
+    emails = new String[initialCapacity];
+    mobiles = new String[initialCapacity];
+  }
+
+  /**
+   * Заполняет хранилище count студентами генератора, выделяя столбцы один раз
+   */
+  public static StudentStore generate(SimpleStudentGenerator generator, int count) {
+    StudentStore store = new StudentStore(count);
+    for (int i = 0; i < count; i++) {
+      store.add(generator.generate());
+    }
+    return store;
+  }
+
+  /**
+   * Добавляет студента в конец хранилища.
+   *
+   * @return номер строки студента
+   */
+  public int add(Student student) {
+    ensureCapacity(size + 1);
+    int row = size++;
+    ids[row] = student.getId();
+    groupIds[row] = student.getGroupId();
+    yearsOfAdmission[row] = (short) student.getYearOfAdmission();
+    genders[row] = (byte) student.getGender().ordinal();
+    birthdays[row] = (int) student.getBirthday().toEpochDay();
+    firstNames[row] = firstNameDictionary.encode(student.getFirstName());
+    lastNames[row] = lastNameDictionary.encode(student.getLastName());
+    photoReferences[row] = student.getPhotoReference();
+    emails[row] = student.getEmail();
+    mobiles[row] = student.getMobile();
+    minGroupId = Math.min(minGroupId, student.getGroupId());
+    maxGroupId = Math.max(maxGroupId, student.getGroupId());
+    return row;
+  }
+
+  public void addAll(Collection<? extends Student> students) {
+    ensureCapacity(size + students.size());
+    for (Student student : students) {
+      add(student);
+    }
+  }
+
+  private void ensureCapacity(int required) {
+    if (required <= ids.length) {
+      return;
+    }
+    int capacity = Math.max(required, ids.length + (ids.length >> 1));
+    ids = Arrays.copyOf(ids, capacity);
+    groupIds = Arrays.copyOf(groupIds, capacity);
+    yearsOfAdmission = Arrays.copyOf(yearsOfAdmission, capacity);
+    genders = Arrays.copyOf(genders, capacity);
+    birthdays = Arrays.copyOf(birthdays, capacity);
+    firstNames = Arrays.copyOf(firstNames, capacity);
+    lastNames = Arrays.copyOf(lastNames, capacity);
+    photoReferences = Arrays.copyOf(photoReferences, capacity);
+    emails = Arrays.copyOf(emails, capacity);
+    mobiles = Arrays.copyOf(mobiles, capacity);
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long getId(int row) {
+    return ids[checkRow(row)];
+  }
+
+  public int getGroupId(int row) {
+    return groupIds[checkRow(row)];
+  }
+
+  public int getYearOfAdmission(int row) {
+    return yearsOfAdmission[checkRow(row)];
+  }
+
+  public Gender getGender(int row) {
+    return Gender.values()[genders[checkRow(row)]];
+  }
+
+  public LocalDate getBirthday(int row) {
+    return LocalDate.ofEpochDay(birthdays[checkRow(row)]);
+  }
+
+  public String getFirstName(int row) {
+    return firstNameDictionary.decode(firstNames[checkRow(row)]);
+  }
+
+  public String getLastName(int row) {
+    return lastNameDictionary.decode(lastNames[checkRow(row)]);
+  }
+
+  /**
+   * Собирает объект студента из столбцов строки row, с тем же идентификатором
+   */
+  public Student get(int row) {
+    checkRow(row);
+    return new Student(ids[row], getFirstName(row), getLastName(row), getGender(row), getBirthday(row),
+        groupIds[row], yearsOfAdmission[row], photoReferences[row], emails[row], mobiles[row]);
+  }
+
+  private int checkRow(int row) {
+    if (row < 0 || row >= size) {
+      throw new IndexOutOfBoundsException("row = " + row + ", size = " + size);
+    }
+    return row;
+  }
+
+  /**
+   * Номера строк, подходящих под фильтр, по возрастанию. Поток можно сделать параллельным:
+   * диапазон строк делится на части
+   */
+  public IntStream rows(Filter filter) {
+    return IntStream.range(0, size).filter(filter.compile(this));
+  }
+
+  /**
+   * @return количество студентов, подходящих под фильтр; большое хранилище просматривается параллельно
+   */
+  public long count(Filter filter) {
+    IntStream rows = rows(filter);
+    return (size >= PARALLEL_THRESHOLD ? rows.parallel() : rows).count();
+  }
+
+  /**
+   * @return количество студентов, подходящих под фильтр, в каждой группе, где они есть, по возрастанию групп
+   */
+  public Map<Integer, Long> countByGroup(Filter filter) {
+    Map<Integer, Long> result = new TreeMap<>();
+    if (size == 0) {
+      return result;
+    }
+    int base = minGroupId;
+    long width = (long) maxGroupId - minGroupId + 1;
+    int[] groups = groupIds;
+    IntPredicate predicate = filter.compile(this);
+    IntStream range = IntStream.range(0, size);
+    if (size >= PARALLEL_THRESHOLD) {
+      range = range.parallel();
+    }
+    if (width > Math.min(4L * size, MAX_DENSE_GROUPS)) {
+      // sparse group ids: one counter per group that actually occurs
+      Map<Integer, Long> counts = range.filter(predicate).collect(
+          HashMap::new,
+          (acc, row) -> acc.merge(groups[row], 1L, Long::sum),
+          (left, right) -> right.forEach((group, count) -> left.merge(group, count, Long::sum)));
+      result.putAll(counts);
+      return result;
+    }
+    int denseWidth = (int) width;
+    // one counter array per part, merged at the end
+    long[] counts = range.collect(
+        () -> new long[denseWidth],
+        (acc, row) -> {
+          if (predicate.test(row)) {
+            acc[groups[row] - base]++;
+          }
+        },
+        (left, right) -> {
+          for (int i = 0; i < denseWidth; i++) {
+            left[i] += right[i];
+          }
+        });
+    for (int i = 0; i < denseWidth; i++) {
+      if (counts[i] > 0) {
+        result.put(base + i, counts[i]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Условия на столбцы, объединённые через "и". Не заданное условие пропускает любые значения,
+   * заданное заново заменяет прежнее
+   */
+  public static class Filter {
+    private int groupFrom = Integer.MIN_VALUE;
+    private int groupTo = Integer.MAX_VALUE;
+    private int yearFrom = Integer.MIN_VALUE;
+    private int yearTo = Integer.MAX_VALUE;
+    private int genderMask = -1; // bit i - Gender with ordinal i
+    private long birthdayFrom = Long.MIN_VALUE;
+    private long birthdayTo = Long.MAX_VALUE;
+    private String lastName;
+
+    public Filter groupId(int groupId) {
+      groupFrom = groupId;
+      groupTo = groupId;
+      return this;
+    }
+
+    public Filter yearOfAdmission(int year) {
+      return yearOfAdmission(year, year);
+    }
+
+    /**
+     * Год поступления из [from, to]
+     */
+    public Filter yearOfAdmission(int from, int to) {
+      yearFrom = from;
+      yearTo = to;
+      return this;
+    }
+
+    public Filter gender(Gender gender) {
+      genderMask = 1 << gender.ordinal();
+      return this;
+    }
+
+    /**
+     * День рождения из [from, to]
+     */
+    public Filter birthday(LocalDate from, LocalDate to) {
+      birthdayFrom = from.toEpochDay();
+      birthdayTo = to.toEpochDay();
+      return this;
+    }
+
+    public Filter lastName(String lastName) {
+      this.lastName = lastName;
+      return this;
+    }
+
+    /**
+     * Проверка строки, читающая только примитивные столбцы. Фамилия заменяется кодом словаря заранее
+     */
+    IntPredicate compile(StudentStore store) {
+      int groupFrom = this.groupFrom;
+      int groupTo = this.groupTo;
+      int yearFrom = this.yearFrom;
+      int yearTo = this.yearTo;
+      int genderMask = this.genderMask;
+      long birthdayFrom = this.birthdayFrom;
+      long birthdayTo = this.birthdayTo;
+      int lastNameCode = lastName == null ? -1 : store.lastNameDictionary.code(lastName);
+      if (lastName != null && lastNameCode < 0) {
+        return row -> false;
+      }
+      int[] groupIds = store.groupIds;
+      short[] years = store.yearsOfAdmission;
+      byte[] genders = store.genders;
+      int[] birthdays = store.birthdays;
+      int[] lastNames = store.lastNames;
+      return row -> groupIds[row] >= groupFrom && groupIds[row] <= groupTo
+          && years[row] >= yearFrom && years[row] <= yearTo
+          && (genderMask & (1 << genders[row])) != 0
+          && birthdays[row] >= birthdayFrom && birthdays[row] <= birthdayTo
+          && (lastNameCode < 0 || lastNames[row] == lastNameCode);
+    }
+  }
+
+}
@@ -0,0 +1,202 @@
+package ru.mail.polis;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Пишет студентов в компактный двоичный формат, который читает {@link StudentReader}.
+ * <p>
+ * Файл начинается с {@link #MAGIC} и {@link #VERSION}, затем идут записи подряд:
+ * <pre>
+ * flags           байт: {@link #FEMALE}, {@link #HAS_PHOTO}, {@link #HAS_EMAIL}, {@link #HAS_MOBILE}
+ * id              varint, zigzag разность с id предыдущей записи
+ * firstName       ссылка на имя
+ * lastName        ссылка на имя
+ * birthday        varint, zigzag номер дня от эпохи
+ * groupId         varint, zigzag
+ * yearOfAdmission varint, zigzag
+ * photoReference  строка, если есть
+ * email           строка, если есть
+ * mobile          строка, если есть
+ * </pre>
+ * Ссылка на имя - varint код в общем словаре имён и фамилий файла. Код, равный текущему размеру словаря,
+ * означает новое имя: за ним идёт строка, и она получает этот код. Строка - varint длина в байтах и UTF-8.
+ * Числа без знака пишутся по 7 бит на байт, старший бит - признак продолжения.
+ * Числа со знаком сначала проходят zigzag (0, -1, 1, -2, ... переходят в 0, 1, 2, 3, ...),
+ * поэтому небольшие по модулю отрицательные значения тоже занимают мало байт.
+ */
+public class StudentWriter implements Closeable {
+
+  static final int MAGIC = 0x53545544; // "STUD"
+  static final byte VERSION = 2;
+
+  static final int FEMALE = 1;
+  static final int HAS_PHOTO = 1 << 1;
+  static final int HAS_EMAIL = 1 << 2;
+  static final int HAS_MOBILE = 1 << 3;
+
+  /**
+   * Наибольший размер записи без строк: байт флагов, два varint long (id и день рождения)
+   * и четыре varint int (ссылки на имена, группа и год поступления)
+   */
+  static final int MAX_FIXED_RECORD_SIZE = 1 + 10 + 10 + 4 * 5;
+  static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final StringDictionary names = new StringDictionary();
+  private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private long previousId;
+  private long count;
+
+  public StudentWriter(Path path) throws IOException {
+    this(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING));
+  }
+
+  /**
+   * Пишет с текущей позиции канала. Канал закрывается вместе с писателем
+   */
+  public StudentWriter(FileChannel channel) throws IOException {
+    this.channel = channel;
+    buffer.putInt(MAGIC).put(VERSION);
+  }
+
+  public void write(Student student) throws IOException {
+    ensure(MAX_FIXED_RECORD_SIZE);
+    String photoReference = student.getPhotoReference();
+    String email = student.getEmail();
+    String mobile = student.getMobile();
+    int flags = (student.getGender() == Student.Gender.FEMALE ? FEMALE : 0)
+        | (photoReference != null ? HAS_PHOTO : 0)
+        | (email != null ? HAS_EMAIL : 0)
+        | (mobile != null ? HAS_MOBILE : 0);
+    buffer.put((byte) flags);
+    putSignedVarLong(student.getId() - previousId);
+    previousId = student.getId();
+    int firstName = names.code(student.getFirstName());
+    int lastName = names.code(student.getLastName());
+    putVarInt(firstName >= 0 ? firstName : names.size());
+    if (firstName < 0) {
+      names.encode(student.getFirstName());
+      putString(student.getFirstName());
+      ensure(MAX_FIXED_RECORD_SIZE);
+    }
+    if (lastName < 0) {
+      // the first name may have been the same new string
+      lastName = names.code(student.getLastName());
+    }
+    putVarInt(lastName >= 0 ? lastName : names.size());
+    if (lastName < 0) {
+      names.encode(student.getLastName());
+      putString(student.getLastName());
+      ensure(MAX_FIXED_RECORD_SIZE);
+    }
+    putSignedVarLong(student.getBirthday().toEpochDay());
+    putSignedVarInt(student.getGroupId());
+    putSignedVarInt(student.getYearOfAdmission());
+    if (photoReference != null) {
+      putString(photoReference);
+    }
+    if (email != null) {
+      putString(email);
+    }
+    if (mobile != null) {
+      putString(mobile);
+    }
+    count++;
+  }
+
+  public void writeAll(Iterable<? extends Student> students) throws IOException {
+    for (Student student : students) {
+      write(student);
+    }
+  }
+
+  /**
+   * @return количество записанных студентов
+   */
+  public long count() {
+    return count;
+  }
+
+  private void putSignedVarInt(int value) {
+    putVarInt((value << 1) ^ (value >> 31));
+  }
+
+  private void putSignedVarLong(long value) {
+    putVarLong((value << 1) ^ (value >> 63));
+  }
+
+  private void putVarInt(int value) {
+    putVarLong(value & 0xFFFFFFFFL);
+  }
+
+  private void putVarLong(long value) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+  private void putString(String value) throws IOException {
+    int length = value.length();
+    boolean ascii = true;
+    for (int i = 0; i < length && ascii; i++) {
+      ascii = value.charAt(i) < 0x80;
+    }
+    if (ascii) {
+      // the common case: one byte per char, no intermediate byte[]
+      ensure(5 + length);
+      putVarInt(length);
+      for (int i = 0; i < length; i++) {
+        buffer.put((byte) value.charAt(i));
+      }
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      ensure(5 + bytes.length);
+      putVarInt(bytes.length);
+      buffer.put(bytes);
+    }
+  }
+
+  /**
+   * Освобождает в буфере место под size байт, сбрасывая его в канал или увеличивая
+   */
+  private void ensure(int size) throws IOException {
+    if (buffer.remaining() >= size) {
+      return;
+    }
+    flushBuffer();
+    if (buffer.capacity() < size) {
+      buffer = ByteBuffer.allocateDirect(Math.max(size, buffer.capacity() * 2));
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flushBuffer();
+    } finally {
+      channel.close();
+    }
+  }
+
+}
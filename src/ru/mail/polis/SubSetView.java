@@ -0,0 +1,153 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+
+/**
+ * Живое представление диапазона дерева для subSet / headSet / tailSet.
+ * Не копирует элементы: все операции идут в исходное дерево,
+ * границы находятся спуском от корня за O(log n), размер считается по размерам поддеревьев.
+ */
+class SubSetView<E> extends AbstractSet<E> implements SortedSet<E> {
+
+  private final OrderedTree<E> tree;
+  private final E lo; // null - no lower bound
+  private final boolean loInclusive;
+  private final E hi; // null - no upper bound
+  private final boolean hiInclusive;
+
+  SubSetView(OrderedTree<E> tree, E lo, boolean loInclusive, E hi, boolean hiInclusive) {
+    if (lo != null && hi != null && compare(tree, lo, hi) > 0) {
+      throw new IllegalArgumentException("fromElement > toElement");
+    }
+    this.tree = tree;
+    this.lo = lo;
+    this.loInclusive = loInclusive;
+    this.hi = hi;
+    this.hiInclusive = hiInclusive;
+  }
+
+  @SuppressWarnings("unchecked")
+  static <E> int compare(SortedSet<E> set, E v1, E v2) {
+    Comparator<? super E> comparator = set.comparator();
+    return comparator == null ? ((Comparable<? super E>) v1).compareTo(v2) : comparator.compare(v1, v2);
+  }
+
+  private boolean tooLow(E value) {
+    if (lo == null) {
+      return false;
+    }
+    int cmp = compare(tree, value, lo);
+    return cmp < 0 || (cmp == 0 && !loInclusive);
+  }
+
+  private boolean tooHigh(E value) {
+    if (hi == null) {
+      return false;
+    }
+    int cmp = compare(tree, value, hi);
+    return cmp > 0 || (cmp == 0 && !hiInclusive);
+  }
+
+  private boolean inRange(E value) {
+    return !tooLow(value) && !tooHigh(value);
+  }
+
+  /**
+   * Граница вложенного представления может совпадать с исключённой границей текущего
+   */
+  private boolean inClosedRange(E value) {
+    return (lo == null || compare(tree, value, lo) >= 0) && (hi == null || compare(tree, value, hi) <= 0);
+  }
+
+  @Override
+  public boolean add(E value) {
+    if (!inRange(value)) {
+      throw new IllegalArgumentException("value out of range");
+    }
+    return tree.add(value);
+  }
+
+  @Override
+  public boolean remove(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    return inRange(value) && tree.remove(value);
+  }
+
+  @Override
+  public boolean contains(Object object) {
+    @SuppressWarnings("unchecked")
+    E value = (E) object;
+    return inRange(value) && tree.contains(value);
+  }
+
+  @Override
+  public E first() {
+    E value = tree.lowest(lo, loInclusive);
+    if (value == null || tooHigh(value)) {
+      throw new NoSuchElementException("first");
+    }
+    return value;
+  }
+
+  @Override
+  public E last() {
+    E value = tree.highest(hi, hiInclusive);
+    if (value == null || tooLow(value)) {
+      throw new NoSuchElementException("last");
+    }
+    return value;
+  }
+
+  @Override
+  public int size() {
+    return tree.count(lo, loInclusive, hi, hiInclusive);
+  }
+
+  @Override
+  public boolean isEmpty() {
+    E value = tree.lowest(lo, loInclusive);
+    return value == null || tooHigh(value);
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return tree.iterator(lo, loInclusive, hi, hiInclusive);
+  }
+
+  @Override
+  public Comparator<? super E> comparator() {
+    return tree.comparator();
+  }
+
+  @Override
+  public SortedSet<E> subSet(E fromElement, E toElement) {
+    if (!inRange(fromElement)) {
+      throw new IllegalArgumentException("fromElement out of range");
+    }
+    if (!inClosedRange(toElement)) {
+      throw new IllegalArgumentException("toElement out of range");
+    }
+    return new SubSetView<>(tree, fromElement, true, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> headSet(E toElement) {
+    if (!inClosedRange(toElement)) {
+      throw new IllegalArgumentException("toElement out of range");
+    }
+    return new SubSetView<>(tree, lo, loInclusive, toElement, false);
+  }
+
+  @Override
+  public SortedSet<E> tailSet(E fromElement) {
+    if (!inRange(fromElement)) {
+      throw new IllegalArgumentException("fromElement out of range");
+    }
+    return new SubSetView<>(tree, fromElement, true, hi, hiInclusive);
+  }
+}
@@ -0,0 +1,305 @@
+package ru.mail.polis;
+
+import java.util.AbstractSet;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Хеш-таблица с открытой адресацией в духе Swiss table (abseil flat_hash_set).
+ * <p>
+ * Для каждой ячейки хранится управляющий байт: пустая, удалённая или занятая вместе с 7 битами хеша.
+ * Байты упакованы по 8 в long, поэтому группа из 8 ячеек проверяется несколькими битовыми операциями
+ * над одним словом (SWAR), а equals вызывается только для ячеек с совпавшими 7 битами.
+ * Промах обычно заканчивается на первой группе, где есть пустая ячейка, не трогая сами элементы,
+ * поэтому таблица работает при заполнении до 7/8.
+ */
+public class SwissHashSet<E> extends AbstractSet<E> implements Set<E> {
+
+  private static final int GROUP_WIDTH = 8; // control bytes per long
+  private static final int INITIAL_GROUPS = 2;
+
+  // control bytes: a full slot holds 0b0hhhhhhh, the 7 hash bits
+  private static final long EMPTY = 0x80L;
+  private static final long DELETED = 0xFEL;
+
+  private static final long LSB = 0x0101010101010101L;
+  private static final long MSB = 0x8080808080808080L;
+
+  private long[] control;
+  private Object[] slots;
+  private int size;
+  private int growthLeft; // inserts into empty slots left before the table must be rehashed
+  private int modCount;
+
+  public SwissHashSet() {
+    allocate(INITIAL_GROUPS);
+  }
+
+  private void allocate(int groups) {
+    control = new long[groups];
+    for (int i = 0; i < groups; i++) {
+      control[i] = EMPTY * LSB;
+    }
+    slots = new Object[groups * GROUP_WIDTH];
+    growthLeft = slots.length - slots.length / 8;
+  }
+
+  /**
+   * 64-битное мультипликативное перемешивание: старшие 7 бит - отпечаток, биты выше 32-го - номер группы
+   */
+  private static long spread(Object value) {
+    return value.hashCode() * 0x9E3779B97F4A7C15L;
+  }
+
+  private static int fingerprint(long hash) {
+    return (int) (hash >>> 57);
+  }
+
+  private static int firstGroup(long hash, int groupMask) {
+    return (int) (hash >>> 32) & groupMask;
+  }
+
+  /**
+   * Старшие биты байтов, равных fingerprint. Возможны ложные срабатывания рядом с настоящим совпадением,
+   * их отсекает equals
+   */
+  private static long match(long group, int fingerprint) {
+    long x = group ^ (LSB * fingerprint);
+    return (x - LSB) & ~x & MSB;
+  }
+
+  /**
+   * Старшие биты пустых байтов: у EMPTY установлен 7-й бит и сброшен 1-й, у DELETED оба установлены
+   */
+  private static long matchEmpty(long group) {
+    return group & ~(group << 6) & MSB;
+  }
+
+  /**
+   * Старшие биты пустых и удалённых байтов, у занятых ячеек 7-й бит сброшен
+   */
+  private static long matchEmptyOrDeleted(long group) {
+    return group & MSB;
+  }
+
+  private static int lowestByte(long matches) {
+    return Long.numberOfTrailingZeros(matches) >>> 3;
+  }
+
+  private long controlByte(int slot) {
+    return (control[slot / GROUP_WIDTH] >>> ((slot % GROUP_WIDTH) * 8)) & 0xFF;
+  }
+
+  private void setControlByte(int slot, long value) {
+    int shift = (slot % GROUP_WIDTH) * 8;
+    int group = slot / GROUP_WIDTH;
+    control[group] = (control[group] & ~(0xFFL << shift)) | (value << shift);
+  }
+
+  /**
+   * @return индекс ячейки с элементом, равным value, или -1
+   */
+  private int find(Object value, long hash) {
+    int groupMask = control.length - 1;
+    int fingerprint = fingerprint(hash);
+    int group = firstGroup(hash, groupMask);
+    // triangular probing visits every group when the number of groups is a power of two
+    for (int stride = 1; ; stride++) {
+      long word = control[group];
+      for (long matches = match(word, fingerprint); matches != 0; matches &= matches - 1) {
+        int slot = group * GROUP_WIDTH + lowestByte(matches);
+        if (value.equals(slots[slot])) {
+          return slot;
+        }
+      }
+      if (matchEmpty(word) != 0 || stride > groupMask) {
+        return -1;
+      }
+      group = (group + stride) & groupMask;
+    }
+  }
+
+  /**
+   * Первая пустая или удалённая ячейка на пути проб
+   */
+  private int findInsertSlot(long hash) {
+    int groupMask = control.length - 1;
+    int group = firstGroup(hash, groupMask);
+    for (int stride = 1; ; stride++) {
+      long free = matchEmptyOrDeleted(control[group]);
+      if (free != 0) {
+        return group * GROUP_WIDTH + lowestByte(free);
+      }
+      group = (group + stride) & groupMask;
+    }
+  }
+
+  /**
+   * Вставляет элемент в хеш-таблицу.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param value элемент который необходимо вставить
+   * @return true, если элемент в хеш-таблице отсутствовал
+   */
+  @Override
+  public boolean add(E value) {
+    long hash = spread(value);
+    if (find(value, hash) >= 0) {
+      return false;
+    }
+    int slot = findInsertSlot(hash);
+    if (growthLeft == 0 && controlByte(slot) == EMPTY) {
+      rehash();
+      slot = findInsertSlot(hash);
+    }
+    if (controlByte(slot) == EMPTY) {
+      growthLeft--;
+    }
+    setControlByte(slot, fingerprint(hash));
+    slots[slot] = value;
+    size++;
+    modCount++;
+    return true;
+  }
+
+  /**
+   * Удаляет надгробия на месте того же размера, если живые элементы занимают не больше 25/32 ячеек
+   * (как в abseil), иначе удваивает таблицу
+   */
+  private void rehash() {
+    Object[] oldSlots = slots;
+    long[] oldControl = control;
+    allocate((long) size * 32 <= (long) slots.length * 25 ? control.length : control.length * 2);
+    for (int group = 0; group < oldControl.length; group++) {
+      long full = ~oldControl[group] & MSB;
+      for (; full != 0; full &= full - 1) {
+        Object value = oldSlots[group * GROUP_WIDTH + lowestByte(full)];
+        long hash = spread(value);
+        int slot = findInsertSlot(hash);
+        setControlByte(slot, fingerprint(hash));
+        slots[slot] = value;
+        growthLeft--;
+      }
+    }
+    modCount++;
+  }
+
+  /**
+   * Удаляет элемент с таким же значением из хеш-таблицы.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо удалить
+   * @return true, если элемент содержался в хеш-таблице
+   */
+  @Override
+  public boolean remove(Object object) {
+    int slot = find(object, spread(object));
+    if (slot < 0) {
+      return false;
+    }
+    erase(slot);
+    return true;
+  }
+
+  /**
+   * Если в группе ячейки есть пустой байт, то ни один поиск не проходил через эту группу дальше,
+   * и ячейку можно сделать пустой, иначе остаётся надгробие
+   */
+  private void erase(int slot) {
+    if (matchEmpty(control[slot / GROUP_WIDTH]) != 0) {
+      setControlByte(slot, EMPTY);
+      growthLeft++;
+    } else {
+      setControlByte(slot, DELETED);
+    }
+    slots[slot] = null;
+    size--;
+    modCount++;
+  }
+
+  /**
+   * Ищет элемент с таким же значением в хеш-таблице.
+   * Инвариант: на вход всегда приходит NotNull объект, который имеет корректный тип
+   *
+   * @param object элемент который необходимо поискать
+   * @return true, если такой элемент содержится в хеш-таблице
+   */
+  @Override
+  public boolean contains(Object object) {
+    return find(object, spread(object)) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    allocate(INITIAL_GROUPS);
+    size = 0;
+    modCount++;
+  }
+
+  public int getCapacity() {
+    return slots.length;
+  }
+
+  @Override
+  public Iterator<E> iterator() {
+    return new TableIterator();
+  }
+
+  private class TableIterator implements Iterator<E> {
+    private int next; // index of the next full slot or capacity
+    private int lastReturned = -1;
+    private int expectedModCount = modCount;
+
+    TableIterator() {
+      next = skipFree(0);
+    }
+
+    private int skipFree(int slot) {
+      while (slot < slots.length && (controlByte(slot) & EMPTY) != 0) {
+        slot++;
+      }
+      return slot;
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next < slots.length;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E next() {
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastReturned = next;
+      next = skipFree(next + 1);
+      return (E) slots[lastReturned];
+    }
+
+    @Override
+    public void remove() {
+      if (lastReturned < 0) {
+        throw new IllegalStateException();
+      }
+      if (modCount != expectedModCount) {
+        throw new ConcurrentModificationException();
+      }
+      // erasing never moves other elements
+      erase(lastReturned);
+      expectedModCount = modCount;
+      lastReturned = -1;
+    }
+  }
+
+}
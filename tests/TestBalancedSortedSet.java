@@ -1,12 +1,18 @@
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.FixMethodOrder;
 import org.junit.Test;
@@ -15,8 +21,11 @@ import org.junit.runners.MethodSorters;
 import org.junit.runners.Parameterized;
 
 import ru.mail.polis.AVLTree;
+import ru.mail.polis.BTree;
 import ru.mail.polis.BalancedSortedSet;
+import ru.mail.polis.ConcurrentAVLTree;
 import ru.mail.polis.NotBalancedTreeException;
+import ru.mail.polis.PersistentAVLTree;
 import ru.mail.polis.RedBlackTree;
 
 /**
@@ -42,6 +51,9 @@ public class TestBalancedSortedSet extends AbstractSetTest {
     private static final Class<?>[] testClasses = (Class<?>[])  new Class<?>[]{
             AVLTree.class,
             RedBlackTree.class,
+            PersistentAVLTree.class,
+            BTree.class,
+            ConcurrentAVLTree.class,
     };
 
     @SuppressWarnings("unchecked")
@@ -161,6 +173,476 @@ public class TestBalancedSortedSet extends AbstractSetTest {
         }
     }
 
+    @Test
+    public void test08_iterator() {
+        for (int i = 0; i < 1000; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSortedSet.add(value);
+            testSortedSet.add(value);
+        }
+        Assert.assertEquals("iterator", new ArrayList<>(validSortedSet), new ArrayList<>(testSortedSet));
+        Assert.assertEquals("equals", validSortedSet, testSortedSet);
+    }
+
+    @Test
+    public void test09_iteratorRemove() {
+        for (int i = 0; i < 1000; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSortedSet.add(value);
+            testSortedSet.add(value);
+        }
+        validSortedSet.removeIf(value -> value % 3 == 0);
+        Iterator<Integer> iterator = testSortedSet.iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() % 3 == 0) {
+                iterator.remove();
+                checkBalanced(testSortedSet);
+            }
+        }
+        Assert.assertEquals("size", validSortedSet.size(), testSortedSet.size());
+        Assert.assertEquals("iterator", new ArrayList<>(validSortedSet), new ArrayList<>(testSortedSet));
+        checkFirstAndLast(validSortedSet, testSortedSet);
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void test10_iteratorFailFast() {
+        // iterators of the concurrent tree are weakly consistent
+        Assume.assumeFalse(testSortedSet instanceof ConcurrentAVLTree);
+        testSortedSet.add(1);
+        testSortedSet.add(2);
+        Iterator<Integer> iterator = testSortedSet.iterator();
+        iterator.next();
+        testSortedSet.remove(1);
+        iterator.next();
+    }
+
+    @Test
+    public void test11_subSet() {
+        for (int i = 0; i < 500; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSortedSet.add(value);
+            testSortedSet.add(value);
+        }
+        for (int i = 0; i < 100; i++) {
+            int from = RANDOM.nextInt(1100) - 50;
+            int to = RANDOM.nextInt(1100) - 50;
+            if (compare(from, to) > 0) {
+                int tmp = from;
+                from = to;
+                to = tmp;
+            }
+            checkView(validSortedSet.subSet(from, to), testSortedSet.subSet(from, to));
+            checkView(validSortedSet.headSet(to), testSortedSet.headSet(to));
+            checkView(validSortedSet.tailSet(from), testSortedSet.tailSet(from));
+            checkView(validSortedSet.tailSet(from).headSet(to), testSortedSet.tailSet(from).headSet(to));
+        }
+    }
+
+    @Test
+    public void test12_subSetIsLive() {
+        SortedSet<Integer> validView = validSortedSet.tailSet(500);
+        SortedSet<Integer> testView = testSortedSet.tailSet(500);
+        for (int i = 0; i < 500; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSortedSet.add(value);
+            testSortedSet.add(value);
+        }
+        checkView(validView, testView);
+        validView.clear();
+        testView.clear();
+        checkView(validView, testView);
+        Assert.assertEquals("size", validSortedSet.size(), testSortedSet.size());
+        checkBalanced(testSortedSet);
+    }
+
+    @Test
+    public void test13_rankAndSelect() {
+        Assume.assumeTrue(testSortedSet instanceof AVLTree);
+        AVLTree<Integer> avlTree = (AVLTree<Integer>) testSortedSet;
+        for (int i = 0; i < 1000; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSortedSet.add(value);
+            avlTree.add(value);
+            value = RANDOM.nextInt(1000);
+            validSortedSet.remove(value);
+            avlTree.remove(value);
+        }
+        checkBalanced(avlTree);
+        List<Integer> values = new ArrayList<>(validSortedSet);
+        for (int index = 0; index < values.size(); index++) {
+            Assert.assertEquals("select", values.get(index), avlTree.select(index));
+            Assert.assertEquals("rank", index, avlTree.rank(values.get(index)));
+        }
+        for (int i = 0; i < 100; i++) {
+            int from = RANDOM.nextInt(1000);
+            int to = RANDOM.nextInt(1000);
+            int expected = compare(from, to) > 0 ? 0 : validSortedSet.subSet(from, to).size();
+            Assert.assertEquals("countInRange", expected, avlTree.countInRange(from, to));
+        }
+    }
+
+    @Test
+    public void test14_addAllSorted() {
+        for (int size = 0; size < 70; size++) {
+            SortedSet<Integer> validSet = create(TreeSet.class);
+            for (int i = 0; i < size; i++) {
+                validSet.add(RANDOM.nextInt(1000));
+            }
+            BalancedSortedSet<Integer> testSet = createTestSortedSet(testClass);
+            testSet.addAll(validSet);
+            checkBalanced(testSet);
+            Assert.assertEquals("addAll", new ArrayList<>(validSet), new ArrayList<>(testSet));
+            checkFirstAndLast(validSet, testSet);
+
+            SortedSet<Integer> more = create(TreeSet.class);
+            for (int i = 0; i < size * 2; i++) {
+                more.add(RANDOM.nextInt(1000));
+            }
+            Assert.assertEquals("merge", validSet.addAll(more), testSet.addAll(more));
+            checkBalanced(testSet);
+            Assert.assertEquals("size", validSet.size(), testSet.size());
+            Assert.assertEquals("merge", new ArrayList<>(validSet), new ArrayList<>(testSet));
+            for (int i = 0; i < 10; i++) {
+                check(validSet, testSet, RANDOM.nextInt(1000), TransformOperation.ADD);
+            }
+        }
+    }
+
+    @Test
+    public void test15_setOperations() {
+        for (int size : new int[]{0, 1, 10, 100, 20000}) {
+            for (int operation = 0; operation < 3; operation++) {
+                SortedSet<Integer> validFirst = create(TreeSet.class);
+                SortedSet<Integer> validSecond = create(TreeSet.class);
+                BalancedSortedSet<Integer> first = createTestSortedSet(testClass);
+                BalancedSortedSet<Integer> second = createTestSortedSet(testClass);
+                for (int i = 0; i < size; i++) {
+                    int value = RANDOM.nextInt(size * 2);
+                    validFirst.add(value);
+                    first.add(value);
+                }
+                for (int i = 0; i < size / 3 + 1; i++) {
+                    int value = RANDOM.nextInt(size * 2 + 1);
+                    validSecond.add(value);
+                    second.add(value);
+                }
+                if (operation == 0) {
+                    Assert.assertEquals("addAll", validFirst.addAll(validSecond), first.addAll(second));
+                } else if (operation == 1) {
+                    Assert.assertEquals("retainAll", validFirst.retainAll(validSecond), first.retainAll(second));
+                } else {
+                    Assert.assertEquals("removeAll", validFirst.removeAll(validSecond), first.removeAll(second));
+                }
+                checkBalanced(first);
+                Assert.assertEquals("size", validFirst.size(), first.size());
+                Assert.assertEquals("result", new ArrayList<>(validFirst), new ArrayList<>(first));
+                Assert.assertEquals("argument", new ArrayList<>(validSecond), new ArrayList<>(second));
+                checkFirstAndLast(validFirst, first);
+                int bound = RANDOM.nextInt(size * 2 + 1);
+                Assert.assertEquals("headSet", validFirst.headSet(bound).size(), first.headSet(bound).size());
+                for (int i = 0; i < 10; i++) {
+                    check(validFirst, first, RANDOM.nextInt(size * 2 + 1), TransformOperation.ADD);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void test16_snapshot() {
+        Assume.assumeTrue(testSortedSet instanceof PersistentAVLTree);
+        PersistentAVLTree<Integer> persistentTree = (PersistentAVLTree<Integer>) testSortedSet;
+        for (int i = 0; i < 500; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSortedSet.add(value);
+            persistentTree.add(value);
+        }
+        List<Integer> expected = new ArrayList<>(validSortedSet);
+        PersistentAVLTree<Integer> snapshot = persistentTree.snapshot();
+        for (int i = 0; i < 500; i++) {
+            check(validSortedSet, persistentTree, RANDOM.nextInt(1000), TransformOperation.ADD);
+            int value = RANDOM.nextInt(1000);
+            Assert.assertEquals("remove", validSortedSet.remove(value), persistentTree.remove(value));
+        }
+        checkBalanced(snapshot);
+        Assert.assertEquals("snapshot size", expected.size(), snapshot.size());
+        Assert.assertEquals("snapshot", expected, new ArrayList<>(snapshot));
+        Assert.assertEquals("tree", new ArrayList<>(validSortedSet), new ArrayList<>(persistentTree));
+        try {
+            snapshot.add(0);
+            Assert.fail("UnsupportedOperationException - add");
+        } catch (UnsupportedOperationException e) {
+            /* empty */
+        }
+    }
+
+    @Test
+    public void test17_bTreeMinDegree() {
+        Assume.assumeTrue(testSortedSet instanceof BTree);
+        for (int minDegree = 2; minDegree <= 5; minDegree++) {
+            SortedSet<Integer> validSet = create(TreeSet.class);
+            BTree<Integer> bTree = new BTree<>(comparator, minDegree);
+            for (int i = 0; i < 2000; i++) {
+                check(validSet, bTree, RANDOM.nextInt(1000), TransformOperation.ADD);
+                int value = RANDOM.nextInt(1000);
+                Assert.assertEquals("remove", validSet.remove(value), bTree.remove(value));
+                if (i % 100 == 0) {
+                    checkBalanced(bTree);
+                }
+            }
+            checkBalanced(bTree);
+            Assert.assertEquals("size", validSet.size(), bTree.size());
+            Assert.assertEquals("iterator", new ArrayList<>(validSet), new ArrayList<>(bTree));
+            for (Iterator<Integer> it = bTree.iterator(); it.hasNext(); ) {
+                it.next();
+                it.remove();
+            }
+            checkBalanced(bTree);
+            Assert.assertTrue("isEmpty", bTree.isEmpty());
+        }
+    }
+
+    @Test
+    public void test18_fromSorted() {
+        Assume.assumeTrue(testSortedSet instanceof AVLTree || testSortedSet instanceof RedBlackTree);
+        for (int size : new int[]{0, 1, 2, 3, 100, 5000}) {
+            SortedSet<Integer> validSet = create(TreeSet.class);
+            for (int i = 0; i < size; i++) {
+                validSet.add(RANDOM.nextInt(size * 2));
+            }
+            List<Integer> sorted = new ArrayList<>(validSet);
+            checkFromSorted(validSet, fromSorted(sorted));
+            checkFromSorted(validSet, fromSorted(validSet));
+            if (sorted.size() >= 2) {
+                List<Integer> unsorted = new ArrayList<>(sorted);
+                Collections.swap(unsorted, 0, unsorted.size() - 1);
+                checkNotSorted(unsorted);
+            }
+        }
+        checkNotSorted(Arrays.asList(7, 7));
+        checkNotSorted(Arrays.asList(1, 2, 3, 3));
+    }
+
+    @Test
+    public void test19_descendingIterator() {
+        Assume.assumeTrue(testSortedSet instanceof AVLTree || testSortedSet instanceof RedBlackTree);
+        TreeSet<Integer> validSet = (TreeSet<Integer>) validSortedSet;
+        for (int i = 0; i < 1000; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSet.add(value);
+            testSortedSet.add(value);
+        }
+        Iterator<Integer> valid = validSet.descendingIterator();
+        Iterator<Integer> test = descendingIterator();
+        while (valid.hasNext()) {
+            Assert.assertTrue("hasNext", test.hasNext());
+            int value = valid.next();
+            Assert.assertEquals("descendingIterator", value, test.next().intValue());
+            if (value % 3 == 0) {
+                valid.remove();
+                test.remove();
+            }
+        }
+        Assert.assertFalse("hasNext", test.hasNext());
+        checkBalanced(testSortedSet);
+        Assert.assertEquals("remove", new ArrayList<>(validSet), new ArrayList<>(testSortedSet));
+
+        testSortedSet.clear();
+        testSortedSet.add(1);
+        testSortedSet.add(2);
+        Iterator<Integer> iterator = descendingIterator();
+        iterator.next();
+        testSortedSet.remove(testSortedSet.first());
+        try {
+            iterator.next();
+            Assert.fail("ConcurrentModificationException - next");
+        } catch (ConcurrentModificationException e) {
+            /* empty */
+        }
+    }
+
+    @Test
+    public void test20_concurrent() throws InterruptedException {
+        Assume.assumeTrue(testSortedSet instanceof ConcurrentAVLTree);
+        // with every element equal the writers' key ranges are not disjoint
+        Assume.assumeFalse("ALL_EQUALS".equals(comparatorName));
+        int writers = 4;
+        int rangeSize = 10000;
+        SortedSet<Integer> all = create(TreeSet.class);
+        for (int value = 0; value < writers * rangeSize; value++) {
+            all.add(value);
+        }
+        // the extremes stay in the tree, so first and last never change
+        for (int value : all) {
+            if (value % 5 == 0 || value == all.first() || value == all.last()) {
+                validSortedSet.add(value);
+                testSortedSet.add(value);
+            }
+        }
+        List<List<Integer>> own = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            List<Integer> values = new ArrayList<>();
+            for (int value = i * rangeSize; value < (i + 1) * rangeSize; value++) {
+                if (!validSortedSet.contains(value)) {
+                    values.add(value);
+                }
+            }
+            Collections.shuffle(values, RANDOM);
+            own.add(values);
+        }
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (List<Integer> values : own) {
+            threads.add(new Thread(() -> {
+                for (int round = 0; round < 2; round++) {
+                    for (Integer value : values) {
+                        if (!testSortedSet.add(value) || !testSortedSet.contains(value)) {
+                            errors.add(new AssertionError("add " + value));
+                        }
+                    }
+                    // the first round removes everything, the second one leaves the odd positions
+                    for (int j = 0; j < values.size(); j += round + 1) {
+                        if (!testSortedSet.remove(values.get(j)) || testSortedSet.contains(values.get(j))) {
+                            errors.add(new AssertionError("remove " + values.get(j)));
+                        }
+                    }
+                }
+            }));
+        }
+        Integer first = validSortedSet.first();
+        Integer last = validSortedSet.last();
+        List<Integer> stable = new ArrayList<>(validSortedSet);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            readers.add(new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    for (Integer value : stable) {
+                        if (!testSortedSet.contains(value)) {
+                            errors.add(new AssertionError("lost " + value));
+                            return;
+                        }
+                    }
+                    if (!first.equals(testSortedSet.first()) || !last.equals(testSortedSet.last())) {
+                        errors.add(new AssertionError("first " + testSortedSet.first() + ", last " + testSortedSet.last()));
+                        return;
+                    }
+                }
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Thread reader : readers) {
+            reader.interrupt();
+            reader.join();
+        }
+        Assert.assertEquals("errors", new ArrayList<>(), errors);
+        checkBalanced(testSortedSet);
+        for (List<Integer> values : own) {
+            for (int j = 1; j < values.size(); j += 2) {
+                validSortedSet.add(values.get(j));
+            }
+        }
+        Assert.assertEquals("size", validSortedSet.size(), testSortedSet.size());
+        Assert.assertEquals("iterator", new ArrayList<>(validSortedSet), new ArrayList<>(testSortedSet));
+        checkFirstAndLast(validSortedSet, testSortedSet);
+    }
+
+    @Test
+    public void test21_bTreeNoOpUpdateDuringIteration() {
+        // a no-op add or remove may still split or merge nodes under a live iterator
+        Assume.assumeTrue(testSortedSet instanceof BTree);
+        // with every element equal the tree is a single key and never restructures
+        Assume.assumeFalse("ALL_EQUALS".equals(comparatorName));
+        for (int minDegree = 2; minDegree <= 3; minDegree++) {
+            int failFast = 0;
+            for (int i = 0; i < 500; i++) {
+                SortedSet<Integer> validSet = create(TreeSet.class);
+                BTree<Integer> bTree = new BTree<>(comparator, minDegree);
+                for (int j = 0; j < 30; j++) {
+                    int value = 2 * RANDOM.nextInt(50);
+                    validSet.add(value);
+                    bTree.add(value);
+                }
+                List<Integer> expected = new ArrayList<>(validSet);
+                List<Integer> actual = new ArrayList<>();
+                Iterator<Integer> iterator = bTree.iterator();
+                for (int j = RANDOM.nextInt(validSet.size()); j >= 0; j--) {
+                    actual.add(iterator.next());
+                }
+                if (RANDOM.nextBoolean()) {
+                    int existing = expected.get(RANDOM.nextInt(expected.size()));
+                    Assert.assertEquals("add", validSet.add(existing), bTree.add(existing));
+                } else {
+                    int missing = 2 * RANDOM.nextInt(50) + 1;
+                    Assert.assertEquals("remove", validSet.remove(missing), bTree.remove(missing));
+                }
+                try {
+                    while (iterator.hasNext()) {
+                        actual.add(iterator.next());
+                    }
+                } catch (ConcurrentModificationException e) {
+                    failFast++;
+                    continue;
+                }
+                Assert.assertEquals("iterator", expected, actual);
+                Assert.assertEquals("contents", new ArrayList<>(validSet), new ArrayList<>(bTree));
+            }
+            Assert.assertTrue("restructuring must invalidate iterators", failFast > 0);
+        }
+    }
+
+    private Iterator<Integer> descendingIterator() {
+        return testSortedSet instanceof AVLTree
+                ? ((AVLTree<Integer>) testSortedSet).descendingIterator()
+                : ((RedBlackTree<Integer>) testSortedSet).descendingIterator();
+    }
+
+    private BalancedSortedSet<Integer> fromSorted(Collection<Integer> sorted) {
+        return testClass == AVLTree.class ? AVLTree.fromSorted(sorted, comparator) : RedBlackTree.fromSorted(sorted, comparator);
+    }
+
+    private BalancedSortedSet<Integer> fromSorted(SortedSet<Integer> sortedSet) {
+        return testClass == AVLTree.class ? AVLTree.fromSorted(sortedSet) : RedBlackTree.fromSorted(sortedSet);
+    }
+
+    private void checkFromSorted(SortedSet<Integer> validSet, BalancedSortedSet<Integer> testSet) {
+        checkBalanced(testSet);
+        Assert.assertEquals("size", validSet.size(), testSet.size());
+        Assert.assertEquals("order", new ArrayList<>(validSet), new ArrayList<>(testSet));
+        Assert.assertEquals("comparator", validSet.comparator(), testSet.comparator());
+        checkFirstAndLast(validSet, testSet);
+    }
+
+    private void checkNotSorted(List<Integer> values) {
+        try {
+            fromSorted(values);
+            Assert.fail("IllegalArgumentException - fromSorted " + values);
+        } catch (IllegalArgumentException e) {
+            /* empty */
+        }
+    }
+
+    private int compare(Integer v1, Integer v2) {
+        return comparator == null ? v1.compareTo(v2) : comparator.compare(v1, v2);
+    }
+
+    private void checkView(SortedSet<Integer> validView, SortedSet<Integer> testView) {
+        Assert.assertEquals("view size", validView.size(), testView.size());
+        Assert.assertEquals("view isEmpty", validView.isEmpty(), testView.isEmpty());
+        Assert.assertEquals("view iterator", new ArrayList<>(validView), new ArrayList<>(testView));
+        checkFirstAndLast(validView, testView);
+        for (int i = 0; i < 10; i++) {
+            int value = RANDOM.nextInt(1000);
+            Assert.assertEquals("view contains", validView.contains(value), testView.contains(value));
+        }
+    }
+
     private <E> void check(SortedSet<E> validSortedSet, BalancedSortedSet<E> testSortedSet, E value, TransformOperation transformOperation) {
         checkFirstAndLast(validSortedSet, testSortedSet);
         checkTransformOperation(validSortedSet, testSortedSet, value, transformOperation);
@@ -174,7 +656,7 @@ public class TestBalancedSortedSet extends AbstractSetTest {
 
     private <E> void checkBalanced(BalancedSortedSet<E> balancedSortedSet) {
         try {
-            testSortedSet.checkBalanced();
+            balancedSortedSet.checkBalanced();
         } catch (NotBalancedTreeException e) {
             Assert.fail(e.getMessage());
         }
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.BinarySearchTree;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestBinarySearchTree extends AbstractSetTest {
+
+    private static void fill(TreeSet<Integer> validSet, BinarySearchTree<Integer> tree, int count) {
+        for (int i = 0; i < count; i++) {
+            int value = RANDOM.nextInt(count);
+            Assert.assertEquals("add", validSet.add(value), tree.add(value));
+        }
+    }
+
+    @Test
+    public void test01_iterators() {
+        for (Comparator<Integer> comparator : Arrays.<Comparator<Integer>>asList(null, Comparator.reverseOrder())) {
+            TreeSet<Integer> validSet = new TreeSet<>(comparator);
+            BinarySearchTree<Integer> tree = new BinarySearchTree<>(comparator);
+            Assert.assertFalse("empty", tree.iterator().hasNext());
+            Assert.assertFalse("empty", tree.descendingIterator().hasNext());
+            fill(validSet, tree, 1000);
+            Assert.assertEquals("iterator", new ArrayList<>(validSet), new ArrayList<>(tree));
+            List<Integer> descending = new ArrayList<>();
+            tree.descendingIterator().forEachRemaining(descending::add);
+            List<Integer> validDescending = new ArrayList<>();
+            validSet.descendingIterator().forEachRemaining(validDescending::add);
+            Assert.assertEquals("descendingIterator", validDescending, descending);
+        }
+    }
+
+    @Test
+    public void test02_iteratorEnd() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        tree.add(1);
+        for (Iterator<Integer> iterator : Arrays.asList(tree.iterator(), tree.descendingIterator())) {
+            Assert.assertEquals("next", 1, iterator.next().intValue());
+            Assert.assertFalse("hasNext", iterator.hasNext());
+            try {
+                iterator.next();
+                Assert.fail("NoSuchElementException - next");
+            } catch (NoSuchElementException e) {
+                /* empty */
+            }
+        }
+    }
+
+    @Test
+    public void test03_iteratorRemove() {
+        for (boolean ascending : new boolean[]{true, false}) {
+            TreeSet<Integer> validSet = new TreeSet<>();
+            BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+            fill(validSet, tree, 1000);
+            Iterator<Integer> valid = ascending ? validSet.iterator() : validSet.descendingIterator();
+            Iterator<Integer> test = ascending ? tree.iterator() : tree.descendingIterator();
+            while (valid.hasNext()) {
+                Assert.assertTrue("hasNext", test.hasNext());
+                int value = valid.next();
+                Assert.assertEquals("next", value, test.next().intValue());
+                // nodes with two children take the value of their successor, the iterator must seek again
+                if (value % 3 != 0) {
+                    valid.remove();
+                    test.remove();
+                }
+            }
+            Assert.assertFalse("hasNext", test.hasNext());
+            Assert.assertEquals("size", validSet.size(), tree.size());
+            Assert.assertEquals("remove", new ArrayList<>(validSet), new ArrayList<>(tree));
+            for (Iterator<Integer> iterator = tree.iterator(); iterator.hasNext(); ) {
+                iterator.next();
+                iterator.remove();
+            }
+            Assert.assertTrue("isEmpty", tree.isEmpty());
+        }
+    }
+
+    @Test
+    public void test04_removeTwice() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        tree.add(1);
+        Iterator<Integer> iterator = tree.descendingIterator();
+        try {
+            iterator.remove();
+            Assert.fail("IllegalStateException - remove before next");
+        } catch (IllegalStateException e) {
+            /* empty */
+        }
+        iterator.next();
+        iterator.remove();
+        try {
+            iterator.remove();
+            Assert.fail("IllegalStateException - remove twice");
+        } catch (IllegalStateException e) {
+            /* empty */
+        }
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void test05_iteratorFailFast() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        tree.add(1);
+        tree.add(2);
+        Iterator<Integer> iterator = tree.iterator();
+        iterator.next();
+        tree.remove(1);
+        iterator.next();
+    }
+
+    @Test(expected = ConcurrentModificationException.class)
+    public void test06_descendingIteratorFailFast() {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        tree.add(1);
+        tree.add(2);
+        Iterator<Integer> iterator = tree.descendingIterator();
+        iterator.next();
+        tree.add(3);
+        iterator.next();
+    }
+}
@@ -0,0 +1,88 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.CompactStudent;
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.SimpleStudentGenerator;
+import ru.mail.polis.Student;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestCompactStudent extends AbstractSetTest {
+
+    private static void checkRoundTrip(Student student) {
+        CompactStudent compact = CompactStudent.of(student);
+        Assert.assertEquals("id", student.getId(), compact.getId());
+        Assert.assertEquals("firstName", student.getFirstName(), compact.getFirstName());
+        Assert.assertEquals("lastName", student.getLastName(), compact.getLastName());
+        Assert.assertEquals("photoReference", student.getPhotoReference(), compact.getPhotoReference());
+        Assert.assertEquals("email", student.getEmail(), compact.getEmail());
+        Assert.assertEquals("mobile", student.getMobile(), compact.getMobile());
+        Assert.assertEquals("student", student, compact.toStudent());
+        Assert.assertEquals("equals", compact, CompactStudent.of(compact.toStudent()));
+        Assert.assertEquals("hashCode", compact.hashCode(), CompactStudent.of(compact.toStudent()).hashCode());
+    }
+
+    @Test
+    public void test01_generated() {
+        for (int i = 0; i < 10_000; i++) {
+            checkRoundTrip(SimpleStudentGenerator.getInstance().generate());
+        }
+    }
+
+    @Test
+    public void test02_unusualStrings() {
+        LocalDate birthday = LocalDate.of(1995, 5, 5);
+        String[][] nullables = {
+                {"https://polis.mail.ru/photo/id=007", "Abc@polis.mail.ru", "+79990000000"},
+                {"https://polis.mail.ru/photo/id=", "abcdefghijklm@polis.mail.ru", "0"},
+                {"https://polis.mail.ru/photo/id=1234567890123456789", "@polis.mail.ru", "00"},
+                {"photo", "abc@mail.ru", ""},
+                {"https://polis.mail.ru/photo/id=0", "zzzzzzzzzzzz@polis.mail.ru", "123456789012345678"},
+        };
+        for (String[] strings : nullables) {
+            checkRoundTrip(new Student("Мирон", "НОВИКОВ", Student.Gender.MALE, birthday, 1, 2017,
+                    strings[0], strings[1], strings[2]));
+        }
+        checkRoundTrip(new Student("", "", Student.Gender.FEMALE, birthday, -1, -2018));
+    }
+
+    @Test
+    public void test03_equalsOnCodes() {
+        Student student = SimpleStudentGenerator.getInstance().generate();
+        CompactStudent compact = CompactStudent.of(student);
+        Student other = new Student(student.getFirstName(), student.getLastName(), student.getGender(),
+                student.getBirthday(), student.getGroupId(), student.getYearOfAdmission(),
+                student.getPhotoReference(), student.getEmail(), student.getMobile());
+        Assert.assertNotEquals("other id", compact, CompactStudent.of(other));
+        student.setMobile("1234567890");
+        CompactStudent changedMobile = CompactStudent.of(student);
+        student.setMobile("01234567890");
+        Assert.assertNotEquals("raw and encoded", changedMobile, CompactStudent.of(student));
+    }
+
+    @Test
+    public void test04_openHashTable() {
+        List<Student> students = new ArrayList<>();
+        Set<CompactStudent> table = new OpenHashTable<>();
+        for (int i = 0; i < 20_000; i++) {
+            Student student = SimpleStudentGenerator.getInstance().generate();
+            students.add(student);
+            Assert.assertTrue("add", table.add(CompactStudent.of(student)));
+        }
+        Assert.assertEquals("size", students.size(), table.size());
+        for (Student student : students) {
+            Assert.assertTrue("contains", table.contains(CompactStudent.of(student)));
+        }
+        CompactStudent compact = CompactStudent.of(students.get(0));
+        for (int tableSize = 2; tableSize <= 1024; tableSize *= 2) {
+            Assert.assertTrue("hash function", compact.isHashFunctionValid(tableSize));
+        }
+    }
+}
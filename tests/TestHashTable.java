@@ -1,7 +1,15 @@
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PrimitiveIterator;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -9,9 +17,17 @@ import org.junit.FixMethodOrder;
 import org.junit.Test;
 import org.junit.runners.MethodSorters;
 
+import ru.mail.polis.ChainHashTable;
 import ru.mail.polis.CheckedOpenHashTableEntity;
+import ru.mail.polis.ConcurrentChainHashTable;
+import ru.mail.polis.ConcurrentOpenHashTable;
+import ru.mail.polis.LongOpenHashMap;
+import ru.mail.polis.LongOpenHashSet;
+import ru.mail.polis.OffHeapStringSet;
 import ru.mail.polis.OpenHashTable;
 import ru.mail.polis.SimpleStudentGenerator;
+import ru.mail.polis.Student;
+import ru.mail.polis.SwissHashSet;
 
 /**
  * Created by Nechaev Mikhail
@@ -92,6 +108,512 @@ public class TestHashTable extends AbstractSetTest {
         }
     }
 
+    @Test
+    public void test05_iterator() {
+        for (Set<CheckedOpenHashTableEntity> table : createTables()) {
+            Set<CheckedOpenHashTableEntity> valid = new HashSet<>();
+            for (int i = 0; i < 1000; i++) {
+                CheckedOpenHashTableEntity entity = generate();
+                valid.add(entity);
+                table.add(entity);
+            }
+            Assert.assertEquals("iterator", valid, new HashSet<>(table));
+            for (Iterator<CheckedOpenHashTableEntity> iterator = table.iterator(); iterator.hasNext(); ) {
+                CheckedOpenHashTableEntity entity = iterator.next();
+                if (RANDOM.nextBoolean()) {
+                    iterator.remove();
+                    valid.remove(entity);
+                }
+            }
+            Assert.assertEquals("size", valid.size(), table.size());
+            Assert.assertEquals("iterator remove", valid, new HashSet<>(table));
+            Iterator<CheckedOpenHashTableEntity> iterator = table.iterator();
+            iterator.next();
+            table.add(generate());
+            try {
+                iterator.next();
+                Assert.fail("ConcurrentModificationException");
+            } catch (ConcurrentModificationException e) {
+                /* empty */
+            }
+        }
+    }
+
+    @Test
+    public void test06_parallelStream() {
+        for (Set<CheckedOpenHashTableEntity> table : createTables()) {
+            Set<CheckedOpenHashTableEntity> valid = new HashSet<>();
+            for (int i = 0; i < 20000; i++) {
+                CheckedOpenHashTableEntity entity = generate();
+                valid.add(entity);
+                table.add(entity);
+            }
+            List<CheckedOpenHashTableEntity> collected = table.parallelStream().collect(Collectors.toList());
+            Assert.assertEquals("count", valid.size(), collected.size());
+            Assert.assertEquals("parallelStream", valid, new HashSet<>(collected));
+            Assert.assertEquals("toArray", valid.size(), table.parallelStream().toArray().length);
+        }
+    }
+
+    @Test
+    public void test07_churn() {
+        OpenHashTable<CheckedOpenHashTableEntity> openHashTable = new OpenHashTable<>();
+        List<CheckedOpenHashTableEntity> live = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CheckedOpenHashTableEntity entity = generate();
+            live.add(entity);
+            check(validSet, openHashTable, entity, TransformOperation.ADD);
+        }
+        for (int i = 0; i < 100000; i++) {
+            int index = RANDOM.nextInt(live.size());
+            CheckedOpenHashTableEntity removed = live.set(index, generate());
+            Assert.assertEquals("remove", validSet.remove(removed), openHashTable.remove(removed));
+            check(validSet, openHashTable, live.get(index), TransformOperation.ADD);
+        }
+        for (CheckedOpenHashTableEntity entity : live) {
+            check(validSet, openHashTable, entity, TransformOperation.ADD);
+        }
+        Assert.assertTrue("capacity = " + openHashTable.getCapacity(), openHashTable.getCapacity() <= 1024);
+        Assert.assertTrue("tombstones", openHashTable.size() + openHashTable.getTombstoneCount()
+                <= openHashTable.getCapacity() / 2);
+        Assert.assertEquals("iterator", validSet, new HashSet<>(openHashTable));
+
+        // in-place compaction with non-linear probe sequences
+        Set<XorProbeEntity> valid = new HashSet<>();
+        OpenHashTable<XorProbeEntity> nonLinear = new OpenHashTable<>();
+        for (int i = 0; i < 50000; i++) {
+            XorProbeEntity entity = new XorProbeEntity(RANDOM.nextInt(150));
+            if (RANDOM.nextBoolean()) {
+                Assert.assertEquals("remove", valid.remove(entity), nonLinear.remove(entity));
+            } else {
+                Assert.assertEquals("add", valid.add(entity), nonLinear.add(entity));
+            }
+            Assert.assertEquals("size", valid.size(), nonLinear.size());
+        }
+        for (XorProbeEntity entity : valid) {
+            Assert.assertTrue("contains", nonLinear.contains(entity));
+        }
+        Assert.assertEquals("non-linear probes", valid, new HashSet<>(nonLinear));
+    }
+
+    @Test
+    public void test08_incrementalResize() {
+        List<Set<CheckedOpenHashTableEntity>> tables = new ArrayList<>();
+        tables.add(new OpenHashTable<>(true));
+        tables.add(new ChainHashTable<>(true));
+        for (Set<CheckedOpenHashTableEntity> table : tables) {
+            Set<CheckedOpenHashTableEntity> valid = new HashSet<>();
+            List<CheckedOpenHashTableEntity> values = new ArrayList<>();
+            for (int i = 0; i < 20000; i++) {
+                CheckedOpenHashTableEntity entity = generate();
+                values.add(entity);
+                Assert.assertEquals("add", valid.add(entity), table.add(entity));
+                Assert.assertEquals("add again", valid.add(entity), table.add(entity));
+                CheckedOpenHashTableEntity other = values.get(RANDOM.nextInt(values.size()));
+                Assert.assertEquals("contains", valid.contains(other), table.contains(other));
+                if (RANDOM.nextInt(4) == 0) {
+                    Assert.assertEquals("remove", valid.remove(other), table.remove(other));
+                }
+                Assert.assertEquals("size", valid.size(), table.size());
+            }
+            for (CheckedOpenHashTableEntity entity : values) {
+                Assert.assertEquals("contains", valid.contains(entity), table.contains(entity));
+            }
+            Assert.assertEquals("iterator", valid, new HashSet<>(table));
+        }
+    }
+
+    @Test
+    public void test09_probeSequence() {
+        for (int i = 0; i < 100; i++) {
+            CheckedOpenHashTableEntity entity = generate();
+            for (int tableSize = 16; tableSize <= (1 << 20); tableSize <<= 1) {
+                int step = entity.probeStep(tableSize);
+                Assert.assertTrue("step", step > 0 && step < tableSize);
+                Assert.assertEquals("probeStart", entity.hashCode(tableSize, 0), entity.probeStart(tableSize));
+                int probId = RANDOM.nextInt(tableSize);
+                Assert.assertEquals("linear probes", entity.hashCode(tableSize, probId),
+                        (int) ((entity.probeStart(tableSize) + (long) probId * step) % tableSize));
+            }
+        }
+    }
+
+    @Test
+    public void test10_nonLinearProbes() {
+        Set<XorProbeEntity> valid = new HashSet<>();
+        Set<XorProbeEntity> table = new OpenHashTable<>();
+        for (int i = 0; i < 5000; i++) {
+            XorProbeEntity entity = new XorProbeEntity(RANDOM.nextInt(3000));
+            if (RANDOM.nextInt(3) == 0) {
+                Assert.assertEquals("remove", valid.remove(entity), table.remove(entity));
+            } else {
+                Assert.assertEquals("add", valid.add(entity), table.add(entity));
+            }
+            Assert.assertEquals("size", valid.size(), table.size());
+        }
+        for (int key = 0; key < 3000; key++) {
+            XorProbeEntity entity = new XorProbeEntity(key);
+            Assert.assertEquals("contains", valid.contains(entity), table.contains(entity));
+        }
+    }
+
+    @Test
+    public void test11_swissChurn() {
+        SwissHashSet<CheckedOpenHashTableEntity> swissHashSet = new SwissHashSet<>();
+        List<CheckedOpenHashTableEntity> live = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            CheckedOpenHashTableEntity entity = generate();
+            live.add(entity);
+            check(validSet, swissHashSet, entity, TransformOperation.ADD);
+        }
+        for (int i = 0; i < 100000; i++) {
+            int index = RANDOM.nextInt(live.size());
+            CheckedOpenHashTableEntity removed = live.set(index, generate());
+            Assert.assertEquals("remove", validSet.remove(removed), swissHashSet.remove(removed));
+            check(validSet, swissHashSet, live.get(index), TransformOperation.ADD);
+        }
+        Assert.assertTrue("capacity = " + swissHashSet.getCapacity(), swissHashSet.getCapacity() <= 2048);
+        Assert.assertEquals("iterator", validSet, new HashSet<>(swissHashSet));
+    }
+
+    @Test
+    public void test12_swissCollisions() {
+        // keys sharing hashCode() share both the group and the fingerprint, so only equals tells them apart
+        Set<XorProbeEntity> valid = new HashSet<>();
+        Set<XorProbeEntity> table = new SwissHashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            XorProbeEntity entity = new XorProbeEntity(RANDOM.nextInt(300), RANDOM.nextInt(8));
+            if (RANDOM.nextInt(3) == 0) {
+                Assert.assertEquals("remove", valid.remove(entity), table.remove(entity));
+            } else {
+                Assert.assertEquals("add", valid.add(entity), table.add(entity));
+            }
+            Assert.assertEquals("size", valid.size(), table.size());
+        }
+        for (int key = 0; key < 300; key++) {
+            XorProbeEntity entity = new XorProbeEntity(key, 0);
+            Assert.assertEquals("contains", valid.contains(entity), table.contains(entity));
+        }
+        Assert.assertEquals("iterator", valid, new HashSet<>(table));
+    }
+
+    @Test
+    public void test13_treeifiedBuckets() {
+        // all hash codes are multiples of 2^20, so every key lands in bucket 0 and the bucket becomes a tree
+        for (boolean incrementalResize : new boolean[]{false, true}) {
+            Set<XorProbeEntity> valid = new HashSet<>();
+            Set<XorProbeEntity> table = new ChainHashTable<>(incrementalResize);
+            for (int i = 0; i < 20000; i++) {
+                int key = RANDOM.nextInt(2000);
+                XorProbeEntity entity = new XorProbeEntity(key, (key % 500) << 20);
+                if (RANDOM.nextInt(3) == 0) {
+                    Assert.assertEquals("remove", valid.remove(entity), table.remove(entity));
+                } else {
+                    Assert.assertEquals("add", valid.add(entity), table.add(entity));
+                }
+                Assert.assertEquals("size", valid.size(), table.size());
+            }
+            for (int key = 0; key < 2000; key++) {
+                XorProbeEntity entity = new XorProbeEntity(key, (key % 500) << 20);
+                Assert.assertEquals("contains", valid.contains(entity), table.contains(entity));
+            }
+            Assert.assertEquals("iterator", valid, new HashSet<>(table));
+            Assert.assertEquals("parallelStream", valid, table.parallelStream().collect(Collectors.toSet()));
+            // shrink the tree back to a chain
+            for (Iterator<XorProbeEntity> iterator = table.iterator(); table.size() > 3; ) {
+                valid.remove(iterator.next());
+                iterator.remove();
+            }
+            Assert.assertEquals("untreeified", valid, new HashSet<>(table));
+            for (XorProbeEntity entity : valid) {
+                Assert.assertTrue("contains", table.contains(entity));
+            }
+        }
+        // "Aa" and "BB" have the same hash code, so do all strings built from them,
+        // and the Integer equal to that hash code collides with them too
+        List<Object> colliding = new ArrayList<>();
+        for (int mask = 0; mask < 1 << 12; mask++) {
+            StringBuilder builder = new StringBuilder();
+            for (int bit = 0; bit < 12; bit++) {
+                builder.append((mask >> bit & 1) == 0 ? "Aa" : "BB");
+            }
+            colliding.add(builder.toString());
+        }
+        colliding.add(colliding.get(0).hashCode());
+        Set<Object> valid = new HashSet<>();
+        Set<Object> table = new ChainHashTable<>();
+        for (int i = 0; i < 30000; i++) {
+            Object value = colliding.get(RANDOM.nextInt(colliding.size()));
+            if (RANDOM.nextInt(3) == 0) {
+                Assert.assertEquals("remove", valid.remove(value), table.remove(value));
+            } else {
+                Assert.assertEquals("add", valid.add(value), table.add(value));
+            }
+            Assert.assertEquals("size", valid.size(), table.size());
+        }
+        for (Object value : colliding) {
+            Assert.assertEquals("contains", valid.contains(value), table.contains(value));
+        }
+        Assert.assertEquals("comparable collisions", valid, new HashSet<>(table));
+    }
+
+    @Test
+    public void test14_concurrentChainHashTable() throws InterruptedException {
+        for (int concurrencyLevel : new int[]{1, 64}) {
+            Set<CheckedOpenHashTableEntity> table = new ConcurrentChainHashTable<>(concurrencyLevel);
+            List<CheckedOpenHashTableEntity> values = new ArrayList<>();
+            Set<CheckedOpenHashTableEntity> valid = new HashSet<>();
+            for (int i = 0; i < 1000; i++) {
+                CheckedOpenHashTableEntity entity = generate();
+                values.add(entity);
+                check(valid, table, entity, TransformOperation.ADD);
+            }
+            for (int i = 0; i < 1000; i += 2) {
+                check(valid, table, values.get(i), TransformOperation.REMOVE);
+            }
+            Assert.assertEquals("iterator", valid, new HashSet<>(table));
+            concurrentUpdates(table, valid);
+        }
+    }
+
+    @Test
+    public void test15_concurrentOpenHashTable() throws InterruptedException {
+        ConcurrentOpenHashTable<CheckedOpenHashTableEntity> table = new ConcurrentOpenHashTable<>();
+        List<CheckedOpenHashTableEntity> live = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            CheckedOpenHashTableEntity entity = generate();
+            live.add(entity);
+            check(validSet, table, entity, TransformOperation.ADD);
+        }
+        // churn leaves tombstones, which a resize of the same capacity cleans up
+        for (int i = 0; i < 20000; i++) {
+            int index = RANDOM.nextInt(live.size());
+            CheckedOpenHashTableEntity removed = live.set(index, generate());
+            Assert.assertEquals("remove", validSet.remove(removed), table.remove(removed));
+            check(validSet, table, live.get(index), TransformOperation.ADD);
+        }
+        Assert.assertTrue("capacity = " + table.getCapacity(), table.getCapacity() <= 1024);
+        Assert.assertEquals("iterator", validSet, new HashSet<>(table));
+        concurrentUpdates(table, validSet);
+
+        Set<XorProbeEntity> valid = new HashSet<>();
+        Set<XorProbeEntity> nonLinear = new ConcurrentOpenHashTable<>();
+        for (int i = 0; i < 5000; i++) {
+            XorProbeEntity entity = new XorProbeEntity(RANDOM.nextInt(3000));
+            if (RANDOM.nextInt(3) == 0) {
+                Assert.assertEquals("remove", valid.remove(entity), nonLinear.remove(entity));
+            } else {
+                Assert.assertEquals("add", valid.add(entity), nonLinear.add(entity));
+            }
+        }
+        Assert.assertEquals("non-linear probes", valid, new HashSet<>(nonLinear));
+    }
+
+    @Test
+    public void test16_offHeapStringSet() {
+        Set<String> valid = new HashSet<>();
+        OffHeapStringSet table = new OffHeapStringSet();
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            // lengths around 12 cover both inline and out-of-line keys
+            StringBuilder builder = new StringBuilder();
+            for (int length = RANDOM.nextInt(40); length > 0; length--) {
+                builder.append((char) ('a' + RANDOM.nextInt(26)));
+            }
+            values.add(builder.toString());
+        }
+        for (int i = 0; i < 30000; i++) {
+            String value = values.get(RANDOM.nextInt(values.size()));
+            if (RANDOM.nextInt(3) == 0) {
+                Assert.assertEquals("remove", valid.remove(value), table.remove(value));
+            } else {
+                Assert.assertEquals("add", valid.add(value), table.add(value));
+            }
+            Assert.assertEquals("size", valid.size(), table.size());
+        }
+        for (String value : values) {
+            Assert.assertEquals("contains", valid.contains(value), table.contains(value));
+        }
+        Assert.assertEquals("iterator", valid, new HashSet<>(table));
+        Assert.assertEquals("capacity", 0, Integer.bitCount(table.getCapacity()) - 1);
+        Assert.assertFalse("not a lowercase string", table.contains("Abc"));
+        try {
+            table.add("abc1");
+            Assert.fail("IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            /* empty */
+        }
+        for (Iterator<String> iterator = table.iterator(); iterator.hasNext(); ) {
+            String value = iterator.next();
+            if (RANDOM.nextBoolean()) {
+                iterator.remove();
+                valid.remove(value);
+            }
+        }
+        Assert.assertEquals("iterator remove", valid, new HashSet<>(table));
+    }
+
+    @Test
+    public void test17_longOpenHashSet() {
+        Set<Long> valid = new HashSet<>();
+        LongOpenHashSet table = new LongOpenHashSet();
+        for (int i = 0; i < 30000; i++) {
+            // negative keys and keys equal modulo the table size exercise the probe step,
+            // 0 and Long.MIN_VALUE are the free and deleted markers inside the table
+            int key = RANDOM.nextInt(4002);
+            long value = key == 4000 ? Long.MIN_VALUE : key == 4001 ? Long.MAX_VALUE : (key - 2000) * 1024L;
+            if (RANDOM.nextInt(3) == 0) {
+                Assert.assertEquals("remove", valid.remove(value), table.remove(value));
+            } else {
+                Assert.assertEquals("add", valid.add(value), table.add(value));
+            }
+            Assert.assertEquals("size", valid.size(), table.size());
+        }
+        for (long value = -2000 * 1024L; value < 2000 * 1024L; value += 1024) {
+            Assert.assertEquals("contains", valid.contains(value), table.contains(value));
+        }
+        Assert.assertEquals("contains", valid.contains(Long.MIN_VALUE), table.contains(Long.MIN_VALUE));
+        Assert.assertFalse("contains boxed", table.contains((Object) 1));
+        Set<Long> before = new HashSet<>(valid);
+        Set<Long> iterated = new HashSet<>();
+        for (PrimitiveIterator.OfLong iterator = table.iterator(); iterator.hasNext(); ) {
+            long value = iterator.nextLong();
+            iterated.add(value);
+            if (RANDOM.nextBoolean()) {
+                iterator.remove();
+                valid.remove(value);
+            }
+        }
+        Assert.assertEquals("iterator", before, iterated);
+        Assert.assertEquals("iterator remove", valid, new HashSet<>(table));
+    }
+
+    @Test
+    public void test18_longOpenHashMapById() {
+        Map<Long, CheckedOpenHashTableEntity> valid = new HashMap<>();
+        LongOpenHashMap<CheckedOpenHashTableEntity> byId = new LongOpenHashMap<>();
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            Student student = SimpleStudentGenerator.getInstance().generate();
+            students.add(student);
+            Assert.assertEquals("put", valid.put(student.getId(), student), byId.put(student.getId(), student));
+        }
+        for (int i = 0; i < 2500; i++) {
+            long id = students.get(RANDOM.nextInt(students.size())).getId();
+            Assert.assertEquals("remove", valid.remove(id), byId.remove(id));
+        }
+        for (Student student : students) {
+            Assert.assertEquals("get", valid.get(student.getId()), byId.get(student.getId()));
+            Assert.assertEquals("containsKey", valid.containsKey(student.getId()), byId.containsKey(student.getId()));
+        }
+        Assert.assertEquals("entrySet", valid, byId);
+        for (Map.Entry<Long, CheckedOpenHashTableEntity> entry : byId.entrySet()) {
+            entry.setValue(null);
+        }
+        Assert.assertTrue("setValue", byId.values().stream().allMatch(Objects::isNull));
+    }
+
+    /**
+     * Писатели добавляют и удаляют свои элементы, пока читатель проверяет, что уже лежавшие в таблице
+     * элементы видны всё время, в том числе во время расширений
+     */
+    private void concurrentUpdates(Set<CheckedOpenHashTableEntity> table, Set<CheckedOpenHashTableEntity> stable)
+            throws InterruptedException {
+        int writers = 4;
+        List<List<CheckedOpenHashTableEntity>> own = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            List<CheckedOpenHashTableEntity> values = new ArrayList<>();
+            for (int j = 0; j < 20000; j++) {
+                values.add(generate());
+            }
+            own.add(values);
+        }
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (List<CheckedOpenHashTableEntity> values : own) {
+            threads.add(new Thread(() -> {
+                for (CheckedOpenHashTableEntity entity : values) {
+                    if (!table.add(entity) || !table.contains(entity)) {
+                        errors.add(new AssertionError("add " + entity));
+                    }
+                }
+                for (int j = 0; j < values.size(); j += 2) {
+                    if (!table.remove(values.get(j)) || table.contains(values.get(j))) {
+                        errors.add(new AssertionError("remove " + values.get(j)));
+                    }
+                }
+            }));
+        }
+        Thread reader = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                for (CheckedOpenHashTableEntity entity : stable) {
+                    if (!table.contains(entity)) {
+                        errors.add(new AssertionError("lost " + entity));
+                        return;
+                    }
+                }
+            }
+        });
+        reader.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reader.interrupt();
+        reader.join();
+        Assert.assertEquals("errors", new ArrayList<>(), errors);
+        Set<CheckedOpenHashTableEntity> valid = new HashSet<>(stable);
+        for (List<CheckedOpenHashTableEntity> values : own) {
+            for (int j = 1; j < values.size(); j += 2) {
+                valid.add(values.get(j));
+            }
+        }
+        Assert.assertEquals("size", valid.size(), table.size());
+        Assert.assertEquals("iterator", valid, new HashSet<>(table));
+    }
+
+    /**
+     * Последовательность проб не линейная, поэтому таблица не может использовать probeStep
+     */
+    private static class XorProbeEntity extends CheckedOpenHashTableEntity {
+        private final int key;
+        private final int hash;
+
+        XorProbeEntity(int key) {
+            this(key, key);
+        }
+
+        XorProbeEntity(int key, int hash) {
+            this.key = key;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode(int tableSize, int probId) {
+            return (key * 31 ^ probId) & (tableSize - 1);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof XorProbeEntity && ((XorProbeEntity) o).key == key;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private List<Set<CheckedOpenHashTableEntity>> createTables() {
+        List<Set<CheckedOpenHashTableEntity>> tables = new ArrayList<>();
+        tables.add(new OpenHashTable<>());
+        tables.add(new ChainHashTable<>());
+        tables.add(new SwissHashSet<>());
+        return tables;
+    }
+
     private void check(Set<CheckedOpenHashTableEntity> validSet, Set<CheckedOpenHashTableEntity> testSet, CheckedOpenHashTableEntity value, TransformOperation transformOperation) {
         checkSizeAndContains(validSet, testSet, value);
         checkTransformOperation(validSet, testSet, value, transformOperation);
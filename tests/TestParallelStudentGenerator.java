@@ -0,0 +1,113 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.ParallelStudentGenerator;
+import ru.mail.polis.Student;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestParallelStudentGenerator extends AbstractSetTest {
+
+    private static final int COUNT = 50_000;
+
+    private static List<Student> generate(long seed, long firstId, int threads) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.submit(() -> new ParallelStudentGenerator(seed).stream(firstId, COUNT)
+                    .parallel()
+                    .collect(Collectors.toList())).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void assertSameFields(Student expected, Student actual) {
+        Assert.assertEquals("firstName", expected.getFirstName(), actual.getFirstName());
+        Assert.assertEquals("lastName", expected.getLastName(), actual.getLastName());
+        Assert.assertEquals("gender", expected.getGender(), actual.getGender());
+        Assert.assertEquals("birthday", expected.getBirthday(), actual.getBirthday());
+        Assert.assertEquals("groupId", expected.getGroupId(), actual.getGroupId());
+        Assert.assertEquals("yearOfAdmission", expected.getYearOfAdmission(), actual.getYearOfAdmission());
+        Assert.assertEquals("photoReference", expected.getPhotoReference(), actual.getPhotoReference());
+        Assert.assertEquals("email", expected.getEmail(), actual.getEmail());
+        Assert.assertEquals("mobile", expected.getMobile(), actual.getMobile());
+    }
+
+    @Test
+    public void test01_sameSeedSameStudents() throws Exception {
+        long seed = RANDOM.nextLong();
+        long firstId = 1L << 40;
+        List<Student> sequential = new ParallelStudentGenerator(seed).stream(firstId, COUNT)
+                .collect(Collectors.toList());
+        Assert.assertEquals("size", COUNT, sequential.size());
+        Assert.assertEquals("one thread", sequential, generate(seed, firstId, 1));
+        Assert.assertEquals("four threads", sequential, generate(seed, firstId, 4));
+        for (int i = 0; i < COUNT; i++) {
+            Assert.assertEquals("id", firstId + i, sequential.get(i).getId());
+        }
+        Student[] batch = new ParallelStudentGenerator(seed).generate(COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            assertSameFields(sequential.get(i), batch[i]);
+        }
+        Assert.assertNotEquals("other seed", sequential, generate(seed + 1, firstId, 1));
+    }
+
+    @Test
+    public void test02_fieldRanges() {
+        new ParallelStudentGenerator(RANDOM.nextLong()).stream(COUNT).forEach(student -> {
+            Assert.assertTrue("groupId", student.getGroupId() >= 1000 && student.getGroupId() < 1100);
+            Assert.assertTrue("yearOfAdmission",
+                    student.getYearOfAdmission() >= 2010 && student.getYearOfAdmission() <= 2017);
+            Assert.assertFalse("birthday", student.getBirthday().isBefore(LocalDate.of(1990, 2, 2)));
+            Assert.assertTrue("birthday", student.getBirthday().isBefore(LocalDate.of(2001, 1, 30)));
+            if (student.getEmail() != null) {
+                Assert.assertTrue("email", student.getEmail().matches("[a-z]{10}@polis\\.mail\\.ru"));
+            }
+        });
+    }
+
+    @Test
+    public void test03_disjointIds() throws Exception {
+        List<Thread> threads = new ArrayList<>();
+        List<List<Student>> results = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            List<Student> result = new ArrayList<>();
+            results.add(result);
+            long seed = i;
+            threads.add(new Thread(() -> new ParallelStudentGenerator(seed).stream(COUNT).forEach(result::add)));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Long> ids = new HashSet<>();
+        for (List<Student> result : results) {
+            Assert.assertEquals("size", COUNT, result.size());
+            for (Student student : result) {
+                Assert.assertTrue("unique id", ids.add(student.getId()));
+            }
+        }
+        Student next = new Student("Марк", "РАБИН", Student.Gender.MALE, LocalDate.of(1995, 5, 5), 1001, 2014);
+        Assert.assertFalse("counter moved past reserved ids", ids.contains(next.getId()));
+    }
+
+    @Test
+    public void test04_explicitRangeMovesCounter() {
+        Student before = new Student("Марк", "РАБИН", Student.Gender.MALE, LocalDate.of(1995, 5, 5), 1001, 2014);
+        long firstId = before.getId() + 1_000_000;
+        Assert.assertEquals("size", COUNT, new ParallelStudentGenerator(RANDOM.nextLong()).stream(firstId, COUNT).parallel().count());
+        Student after = new Student("Марк", "РАБИН", Student.Gender.MALE, LocalDate.of(1995, 5, 5), 1001, 2014);
+        Assert.assertTrue("counter moved past the range", after.getId() >= firstId + COUNT);
+    }
+}
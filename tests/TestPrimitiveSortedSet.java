@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.BalancedSortedSet;
+import ru.mail.polis.IntAVLTree;
+import ru.mail.polis.LongRedBlackTree;
+import ru.mail.polis.NotBalancedTreeException;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestPrimitiveSortedSet extends AbstractSetTest {
+
+    @Test
+    public void test01_intAVLTreeEmpty() {
+        IntAVLTree tree = new IntAVLTree();
+        checkEmpty(tree);
+        Assert.assertFalse(tree.contains(0));
+        Assert.assertFalse(tree.remove(0));
+    }
+
+    @Test
+    public void test02_intAVLTreeRandom() {
+        SortedSet<Integer> validSet = new TreeSet<>();
+        IntAVLTree tree = new IntAVLTree(0);
+        for (int i = 0; i < 5000; i++) {
+            int value = RANDOM.nextInt(2000) - 1000;
+            Assert.assertEquals("add", validSet.add(value), tree.add(value));
+            checkBalanced(tree);
+            check(validSet, tree, value);
+        }
+        for (int i = 0; i < 5000; i++) {
+            int value = RANDOM.nextInt(2000) - 1000;
+            Assert.assertEquals("remove", validSet.remove(value), tree.remove(value));
+            checkBalanced(tree);
+            check(validSet, tree, value);
+        }
+    }
+
+    @Test
+    public void test03_longRedBlackTreeEmpty() {
+        LongRedBlackTree tree = new LongRedBlackTree();
+        checkEmpty(tree);
+        Assert.assertFalse(tree.contains(0L));
+        Assert.assertFalse(tree.remove(0L));
+    }
+
+    @Test
+    public void test04_longRedBlackTreeRandom() {
+        SortedSet<Long> validSet = new TreeSet<>();
+        LongRedBlackTree tree = new LongRedBlackTree(0);
+        for (int i = 0; i < 5000; i++) {
+            long value = RANDOM.nextInt(2000) - 1000L;
+            Assert.assertEquals("add", validSet.add(value), tree.add(value));
+            checkBalanced(tree);
+            check(validSet, tree, value);
+        }
+        for (int i = 0; i < 5000; i++) {
+            long value = RANDOM.nextInt(2000) - 1000L;
+            Assert.assertEquals("remove", validSet.remove(value), tree.remove(value));
+            checkBalanced(tree);
+            check(validSet, tree, value);
+        }
+    }
+
+    @Test
+    public void test05_intAVLTreeIterator() {
+        SortedSet<Integer> validSet = new TreeSet<>();
+        IntAVLTree tree = new IntAVLTree();
+        for (int i = 0; i < 1000; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSet.add(value);
+            tree.add(value);
+        }
+        Assert.assertEquals("iterator", new ArrayList<>(validSet), new ArrayList<>(tree));
+        PrimitiveIterator.OfInt descending = tree.descendingIterator();
+        for (Iterator<Integer> valid = ((TreeSet<Integer>) validSet).descendingIterator(); valid.hasNext(); ) {
+            Assert.assertEquals("descendingIterator", valid.next().intValue(), descending.nextInt());
+        }
+        Assert.assertFalse(descending.hasNext());
+        validSet.removeIf(value -> value % 2 == 0);
+        tree.removeIf(value -> value % 2 == 0);
+        checkBalanced(tree);
+        Assert.assertEquals("iterator remove", new ArrayList<>(validSet), new ArrayList<>(tree));
+    }
+
+    @Test
+    public void test06_longRedBlackTreeIterator() {
+        SortedSet<Long> validSet = new TreeSet<>();
+        LongRedBlackTree tree = new LongRedBlackTree();
+        for (int i = 0; i < 1000; i++) {
+            long value = RANDOM.nextInt(1000);
+            validSet.add(value);
+            tree.add(value);
+        }
+        Assert.assertEquals("iterator", new ArrayList<>(validSet), new ArrayList<>(tree));
+        PrimitiveIterator.OfLong descending = tree.descendingIterator();
+        for (Iterator<Long> valid = ((TreeSet<Long>) validSet).descendingIterator(); valid.hasNext(); ) {
+            Assert.assertEquals("descendingIterator", valid.next().longValue(), descending.nextLong());
+        }
+        Assert.assertFalse(descending.hasNext());
+        validSet.removeIf(value -> value % 2 == 0);
+        tree.removeIf(value -> value % 2 == 0);
+        checkBalanced(tree);
+        Assert.assertEquals("iterator remove", new ArrayList<>(validSet), new ArrayList<>(tree));
+    }
+
+    @Test
+    public void test07_intAVLTreeSubSet() {
+        SortedSet<Integer> validSet = new TreeSet<>();
+        IntAVLTree tree = new IntAVLTree();
+        for (int i = 0; i < 500; i++) {
+            int value = RANDOM.nextInt(1000);
+            validSet.add(value);
+            tree.add(value);
+        }
+        for (int i = 0; i < 100; i++) {
+            int from = RANDOM.nextInt(1100) - 50;
+            int to = from + RANDOM.nextInt(1100 - from);
+            checkView(validSet.subSet(from, to), tree.subSet(from, to));
+            checkView(validSet.headSet(to), tree.headSet(to));
+            checkView(validSet.tailSet(from), tree.tailSet(from));
+            checkView(validSet.tailSet(from).headSet(to), tree.tailSet(from).headSet(to));
+        }
+        Assert.assertTrue("primitive iterator", tree.subSet(100, 200).iterator() instanceof PrimitiveIterator.OfInt);
+        SortedSet<Integer> validView = validSet.subSet(250, 750);
+        SortedSet<Integer> testView = tree.subSet(250, 750);
+        validView.removeIf(value -> value % 3 == 0);
+        testView.removeIf(value -> value % 3 == 0);
+        checkBalanced(tree);
+        Assert.assertEquals("iterator remove", new ArrayList<>(validSet), new ArrayList<>(tree));
+        validView.clear();
+        testView.clear();
+        checkBalanced(tree);
+        checkView(validView, testView);
+        Assert.assertEquals("view clear", new ArrayList<>(validSet), new ArrayList<>(tree));
+        Assert.assertTrue("view add", testView.add(500));
+        Assert.assertTrue("live view", tree.contains(500));
+        try {
+            testView.add(750);
+            Assert.fail("IllegalArgumentException - add");
+        } catch (IllegalArgumentException e) {
+            /* empty */
+        }
+    }
+
+    @Test
+    public void test08_longRedBlackTreeSubSet() {
+        SortedSet<Long> validSet = new TreeSet<>();
+        LongRedBlackTree tree = new LongRedBlackTree();
+        for (int i = 0; i < 500; i++) {
+            long value = RANDOM.nextInt(1000);
+            validSet.add(value);
+            tree.add(value);
+        }
+        for (int i = 0; i < 100; i++) {
+            long from = RANDOM.nextInt(1100) - 50L;
+            long to = from + RANDOM.nextInt(1100 - (int) from);
+            checkView(validSet.subSet(from, to), tree.subSet(from, to));
+            checkView(validSet.headSet(to), tree.headSet(to));
+            checkView(validSet.tailSet(from), tree.tailSet(from));
+            checkView(validSet.tailSet(from).headSet(to), tree.tailSet(from).headSet(to));
+        }
+        Assert.assertTrue("primitive iterator", tree.subSet(100L, 200L).iterator() instanceof PrimitiveIterator.OfLong);
+        SortedSet<Long> validView = validSet.subSet(250L, 750L);
+        SortedSet<Long> testView = tree.subSet(250L, 750L);
+        validView.removeIf(value -> value % 3 == 0);
+        testView.removeIf(value -> value % 3 == 0);
+        checkBalanced(tree);
+        Assert.assertEquals("iterator remove", new ArrayList<>(validSet), new ArrayList<>(tree));
+        validView.clear();
+        testView.clear();
+        checkBalanced(tree);
+        checkView(validView, testView);
+        Assert.assertEquals("view clear", new ArrayList<>(validSet), new ArrayList<>(tree));
+        Assert.assertTrue("view add", testView.add(500L));
+        Assert.assertTrue("live view", tree.contains(500L));
+        try {
+            testView.add(750L);
+            Assert.fail("IllegalArgumentException - add");
+        } catch (IllegalArgumentException e) {
+            /* empty */
+        }
+    }
+
+    private <E> void checkView(SortedSet<E> validView, SortedSet<E> testView) {
+        Assert.assertEquals("view size", validView.size(), testView.size());
+        Assert.assertEquals("view isEmpty", validView.isEmpty(), testView.isEmpty());
+        Assert.assertEquals("view iterator", new ArrayList<>(validView), new ArrayList<>(testView));
+        if (validView.isEmpty()) {
+            checkEmpty(testView);
+        } else {
+            Assert.assertEquals("view first", validView.first(), testView.first());
+            Assert.assertEquals("view last", validView.last(), testView.last());
+        }
+    }
+
+    private <E> void check(SortedSet<E> validSet, SortedSet<E> testSet, E value) {
+        checkSizeAndContains(validSet, testSet, value);
+        if (validSet.isEmpty()) {
+            checkEmpty(testSet);
+        } else {
+            Assert.assertEquals("first", validSet.first(), testSet.first());
+            Assert.assertEquals("last", validSet.last(), testSet.last());
+        }
+    }
+
+    private void checkEmpty(SortedSet<?> testSet) {
+        Assert.assertEquals("size", 0, testSet.size());
+        try {
+            testSet.first();
+            Assert.fail("NoSuchElementException - first");
+        } catch (NoSuchElementException e) {
+            /* empty */
+        }
+        try {
+            testSet.last();
+            Assert.fail("NoSuchElementException - last");
+        } catch (NoSuchElementException e) {
+            /* empty */
+        }
+    }
+
+    private void checkBalanced(BalancedSortedSet<?> balancedSortedSet) {
+        try {
+            balancedSortedSet.checkBalanced();
+        } catch (NotBalancedTreeException e) {
+            Assert.fail(e.getMessage());
+        }
+    }
+}
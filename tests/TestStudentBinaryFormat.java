@@ -0,0 +1,126 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.OpenHashTable;
+import ru.mail.polis.SimpleStudentGenerator;
+import ru.mail.polis.Student;
+import ru.mail.polis.StudentReader;
+import ru.mail.polis.StudentWriter;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestStudentBinaryFormat extends AbstractSetTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<Student> generate(int count) {
+        List<Student> students = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            students.add(SimpleStudentGenerator.getInstance().generate());
+        }
+        return students;
+    }
+
+    private Path write(List<Student> students) throws IOException {
+        Path path = folder.newFile().toPath();
+        try (StudentWriter writer = new StudentWriter(path)) {
+            writer.writeAll(students);
+            Assert.assertEquals("written", students.size(), writer.count());
+        }
+        return path;
+    }
+
+    private static List<Student> read(Path path) throws IOException {
+        List<Student> students = new ArrayList<>();
+        try (StudentReader reader = new StudentReader(path)) {
+            reader.readAll(students::add);
+        }
+        return students;
+    }
+
+    @Test
+    public void test01_roundTrip() throws IOException {
+        List<Student> students = generate(20_000);
+        Path path = write(students);
+        List<Student> restored = read(path);
+        Assert.assertEquals("students", students, restored);
+        for (int i = 0; i < students.size(); i++) {
+            Assert.assertEquals("id", students.get(i).getId(), restored.get(i).getId());
+        }
+        Assert.assertSame("names are shared", restored.get(0).getLastName(),
+                restored.stream().filter(s -> s.getLastName().equals(restored.get(0).getLastName()))
+                        .reduce((a, b) -> b).get().getLastName());
+        Assert.assertTrue("compact", Files.size(path) < students.size() * 64L);
+    }
+
+    @Test
+    public void test02_unusualStrings() throws IOException {
+        char[] longEmail = new char[100_000];
+        Arrays.fill(longEmail, 'ё');
+        Student unicode = new Student("Фёкла", "ЩАВЕЛЕВ", Student.Gender.FEMALE, LocalDate.of(1969, 7, 20), 7, 1987,
+                "фото/€", new String(longEmail), "+7 (999) 000-00-00");
+        Student sameNames = new Student("ЩАВЕЛЕВ", "ЩАВЕЛЕВ", Student.Gender.MALE, LocalDate.of(2000, 2, 29), 1001, 2017);
+        Student empty = new Student("", "", Student.Gender.MALE, LocalDate.of(1990, 1, 1), 0, 0, "", "", "");
+        List<Student> students = new ArrayList<>(generate(100));
+        students.addAll(Arrays.asList(unicode, sameNames, empty));
+        students.addAll(generate(100));
+        // signed fields at both ends of their ranges
+        students.add(new Student("Мирон", "НОВИКОВ", Student.Gender.MALE, LocalDate.of(1965, 3, 8), -1, -2018));
+        students.add(new Student("Мирон", "НОВИКОВ", Student.Gender.MALE, LocalDate.MIN, Integer.MIN_VALUE, Integer.MIN_VALUE));
+        students.add(new Student("Мирон", "НОВИКОВ", Student.Gender.MALE, LocalDate.MAX, Integer.MAX_VALUE, Integer.MAX_VALUE));
+        students.addAll(generate(100));
+        Assert.assertEquals("students", students, read(write(students)));
+    }
+
+    @Test
+    public void test03_intoSet() throws IOException {
+        List<Student> students = generate(10_000);
+        Path path = write(students);
+        Set<Student> table = new OpenHashTable<>();
+        try (StudentReader reader = new StudentReader(path)) {
+            Assert.assertEquals("read", students.size(), reader.readAll(table::add));
+        }
+        Assert.assertEquals("size", students.size(), table.size());
+        Assert.assertTrue("contains", table.containsAll(students));
+    }
+
+    @Test
+    public void test04_broken() throws IOException {
+        Path path = write(generate(1000));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(Files.size(path) - 3);
+        }
+        try (StudentReader reader = new StudentReader(path)) {
+            reader.readAll(student -> { });
+            Assert.fail("truncated file was read");
+        } catch (EOFException e) {
+            // expected
+        }
+        Path garbage = folder.newFile().toPath();
+        Files.write(garbage, new byte[]{1, 2, 3, 4, 5, 6});
+        try {
+            new StudentReader(garbage).close();
+            Assert.fail("not a student file was read");
+        } catch (IOException e) {
+            Assert.assertFalse("not EOF", e instanceof EOFException);
+        }
+        Path emptyFile = write(new ArrayList<>());
+        Assert.assertTrue("empty", read(emptyFile).isEmpty());
+    }
+}
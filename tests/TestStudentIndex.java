@@ -0,0 +1,87 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.SimpleStudentGenerator;
+import ru.mail.polis.Student;
+import ru.mail.polis.StudentIndex;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestStudentIndex extends AbstractSetTest {
+
+    private static <K extends Comparable<? super K>> List<Student> expected(List<Student> students,
+                                                                            Predicate<Student> predicate,
+                                                                            Function<Student, K> field) {
+        return students.stream()
+                .filter(predicate)
+                .sorted(Comparator.comparing(field).thenComparingLong(Student::getId))
+                .collect(Collectors.toList());
+    }
+
+    private void checkQueries(List<Student> students, StudentIndex index) {
+        Assert.assertEquals("size", students.size(), index.size());
+        int group = 1000 + RANDOM.nextInt(100);
+        Assert.assertEquals("groupId", expected(students, s -> s.getGroupId() >= group && s.getGroupId() <= group + 2,
+                Student::getGroupId), index.findByGroupId(group, group + 2));
+        Assert.assertEquals("countByGroupId", students.stream().filter(s -> s.getGroupId() == group).count(),
+                index.countByGroupId(group, group));
+        Assert.assertEquals("yearOfAdmission", expected(students, s -> s.getYearOfAdmission() == 2014,
+                Student::getYearOfAdmission), index.findByYearOfAdmission(2014, 2014));
+        LocalDate from = LocalDate.of(1990 + RANDOM.nextInt(10), 1 + RANDOM.nextInt(12), 1);
+        LocalDate to = from.plusDays(RANDOM.nextInt(200));
+        List<Student> born = expected(students, s -> !s.getBirthday().isBefore(from) && !s.getBirthday().isAfter(to),
+                Student::getBirthday);
+        Assert.assertEquals("birthday", born, index.findByBirthday(from, to));
+        Assert.assertEquals("countByBirthday", born.size(), index.countByBirthday(from, to));
+        Assert.assertTrue("empty range", index.findByBirthday(to.plusDays(1), from).isEmpty());
+        if (!students.isEmpty()) {
+            String lastName = students.get(RANDOM.nextInt(students.size())).getLastName();
+            Assert.assertEquals("lastName", expected(students, s -> s.getLastName().equals(lastName),
+                    Student::getLastName), index.findByLastName(lastName));
+            String prefix = lastName.substring(0, 2);
+            Assert.assertEquals("lastName prefix", expected(students, s -> s.getLastName().startsWith(prefix),
+                    Student::getLastName), index.findByLastNamePrefix(prefix));
+        }
+    }
+
+    private void checkAddRemove(StudentIndex.TreeKind treeKind) {
+        List<Student> students = new ArrayList<>();
+        StudentIndex index = new StudentIndex(treeKind);
+        for (int i = 0; i < 5000; i++) {
+            Student student = SimpleStudentGenerator.getInstance().generate();
+            students.add(student);
+            Assert.assertTrue("add", index.add(student));
+            Assert.assertFalse("add twice", index.add(student));
+        }
+        checkQueries(students, index);
+        for (int i = 0; i < 2000; i++) {
+            Student student = students.remove(RANDOM.nextInt(students.size()));
+            Assert.assertSame("remove", student, index.remove(student.getId()));
+            Assert.assertNull("remove twice", index.remove(student.getId()));
+            Assert.assertFalse("contains", index.contains(student.getId()));
+        }
+        checkQueries(students, index);
+        for (Student student : students) {
+            Assert.assertSame("get", student, index.get(student.getId()));
+        }
+    }
+
+    @Test
+    public void test01_avl() {
+        checkAddRemove(StudentIndex.TreeKind.AVL);
+    }
+
+    @Test
+    public void test02_redBlack() {
+        checkAddRemove(StudentIndex.TreeKind.RED_BLACK);
+    }
+}
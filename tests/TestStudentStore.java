@@ -0,0 +1,129 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.FixMethodOrder;
+import org.junit.Test;
+import org.junit.runners.MethodSorters;
+
+import ru.mail.polis.SimpleStudentGenerator;
+import ru.mail.polis.Student;
+import ru.mail.polis.StudentStore;
+
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class TestStudentStore extends AbstractSetTest {
+
+    private List<Student> students;
+    private StudentStore store;
+
+    @Before
+    public void createStore() {
+        students = new ArrayList<>();
+        store = new StudentStore();
+    }
+
+    private void fill(int count) {
+        for (int i = 0; i < count; i++) {
+            Student student = SimpleStudentGenerator.getInstance().generate();
+            students.add(student);
+            Assert.assertEquals("row", i, store.add(student));
+        }
+    }
+
+    private void checkFilter(StudentStore.Filter filter, Predicate<Student> expected) {
+        List<Integer> validRows = new ArrayList<>();
+        Map<Integer, Long> validGroups = new TreeMap<>();
+        for (int row = 0; row < students.size(); row++) {
+            Student student = students.get(row);
+            if (expected.test(student)) {
+                validRows.add(row);
+                validGroups.merge(student.getGroupId(), 1L, Long::sum);
+            }
+        }
+        Assert.assertEquals("rows", validRows, store.rows(filter).boxed().collect(Collectors.toList()));
+        Assert.assertEquals("parallel rows", validRows, store.rows(filter).parallel().boxed().collect(Collectors.toList()));
+        Assert.assertEquals("count", validRows.size(), store.count(filter));
+        Assert.assertEquals("countByGroup", validGroups, store.countByGroup(filter));
+    }
+
+    @Test
+    public void test01_roundTrip() {
+        fill(1000);
+        Assert.assertEquals("size", students.size(), store.size());
+        for (int row = 0; row < students.size(); row++) {
+            Student student = students.get(row);
+            Student restored = store.get(row);
+            Assert.assertEquals("student", student, restored);
+            Assert.assertEquals("id", student.getId(), restored.getId());
+            Assert.assertEquals("id", student.getId(), store.getId(row));
+            Assert.assertEquals("lastName", student.getLastName(), store.getLastName(row));
+            Assert.assertEquals("birthday", student.getBirthday(), store.getBirthday(row));
+        }
+    }
+
+    @Test
+    public void test02_filters() {
+        fill(20_000);
+        Student sample = students.get(RANDOM.nextInt(students.size()));
+        int group = sample.getGroupId();
+        int year = sample.getYearOfAdmission();
+        Student.Gender gender = sample.getGender();
+        LocalDate from = LocalDate.of(1993, 1, 1);
+        LocalDate to = LocalDate.of(1995, 6, 30);
+
+        checkFilter(new StudentStore.Filter(), s -> true);
+        checkFilter(new StudentStore.Filter().groupId(group), s -> s.getGroupId() == group);
+        checkFilter(new StudentStore.Filter().yearOfAdmission(year).gender(gender),
+                s -> s.getYearOfAdmission() == year && s.getGender() == gender);
+        checkFilter(new StudentStore.Filter().yearOfAdmission(2012, 2014).birthday(from, to),
+                s -> s.getYearOfAdmission() >= 2012 && s.getYearOfAdmission() <= 2014
+                        && !s.getBirthday().isBefore(from) && !s.getBirthday().isAfter(to));
+        checkFilter(new StudentStore.Filter().lastName(sample.getLastName()),
+                s -> s.getLastName().equals(sample.getLastName()));
+        checkFilter(new StudentStore.Filter().lastName("NO SUCH NAME"), s -> false);
+    }
+
+    @Test
+    public void test03_parallelCount() {
+        store = StudentStore.generate(SimpleStudentGenerator.getInstance(), 200_000);
+        Assert.assertEquals("size", 200_000, store.size());
+        StudentStore.Filter filter = new StudentStore.Filter().yearOfAdmission(2015).gender(Student.Gender.FEMALE);
+        long sequential = 0;
+        for (int row = 0; row < store.size(); row++) {
+            if (store.getYearOfAdmission(row) == 2015 && store.getGender(row) == Student.Gender.FEMALE) {
+                sequential++;
+            }
+        }
+        Assert.assertEquals("count", sequential, store.count(filter));
+        long byGroups = store.countByGroup(filter).values().stream().mapToLong(Long::longValue).sum();
+        Assert.assertEquals("countByGroup", sequential, byGroups);
+    }
+
+    @Test
+    public void test04_sparseGroupIds() {
+        int[][] groupSets = {
+                {Integer.MIN_VALUE, Integer.MAX_VALUE},
+                {0, 1_500_000_000},
+                {-7, 0, 7, 1 << 20, Integer.MAX_VALUE},
+        };
+        for (int[] groupIds : groupSets) {
+            createStore();
+            // enough rows for the parallel path
+            for (int i = 0; i < 70_000; i++) {
+                Student student = new Student("Марк", "РАБИН", Student.Gender.MALE, LocalDate.of(1995, 5, 5),
+                        groupIds[RANDOM.nextInt(groupIds.length)], 2014);
+                students.add(student);
+                store.add(student);
+            }
+            checkFilter(new StudentStore.Filter(), s -> true);
+            int group = groupIds[0];
+            checkFilter(new StudentStore.Filter().groupId(group), s -> s.getGroupId() == group);
+        }
+    }
+}